@@ -1,64 +1,273 @@
-import java.io.Serializable;
+import java.io.*;
 import java.math.BigDecimal;
-import java.math.RoundingMode;
-import java.util.ArrayList;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 //Account class representing a bank accound and its operations
 public class Account implements Serializable { // Serializable for saving/loading account data
     private static final long serialVersionUID = 1L; // version control for Serializable
 
-    private final String accountNumber; // Unique account number
-    private final String holderName; // Name of account holder
-    private final String pinHash; // pin
-    private BigDecimal balance; // current account balance
-    private final List<Transaction> transactions = new ArrayList<>();
+    // Never reassigned; not final only so readObject can restore them
+    private String accountNumber; // Unique account number
+    private String holderName; // Name of account holder
+    private byte[] pinHash; // SHA-256 of the pin (raw 32 bytes)
+    // Current balance in cents together with the number of ledger entries claimed so far, replaced
+    // as one immutable pair: optimistic updates change both with a single compare-and-set, so entries
+    // are claimed in exactly the order the balance moved. Volatile so getBalance() from any thread
+    // sees the latest value without locking.
+    private transient volatile State state;
+    private transient volatile int publishing; // 1 while a thread is writing claimed entries (see publish)
+    // Cents promised to cross-shard transfers between their check and their commit (see hold)
+    private transient volatile long held, incoming;
+    private Ledger ledger = new Ledger(); // columnar transaction history
+
+    static final class State {
+        final long balance;
+        final int claimed; // ledger entries claimed; the last claimed entry is claimed - 1
+        // Entry claimed by an optimistic update, and the state before it while that entry is not in
+        // the ledger yet (the chain of unpublished claims, newest first)
+        final TransactionType type;
+        final long amount, at;
+        State prev;
+
+        State(long balance, int claimed) { this(balance, claimed, null, 0, 0, null); }
+
+        State(long balance, int claimed, TransactionType type, long amount, long at, State prev) {
+            this.balance = balance;
+            this.claimed = claimed;
+            this.type = type;
+            this.amount = amount;
+            this.at = at;
+            this.prev = prev;
+        }
+    }
+
+    private static final AtomicReferenceFieldUpdater<Account, State> STATE =
+            AtomicReferenceFieldUpdater.newUpdater(Account.class, State.class, "state");
+    private static final AtomicIntegerFieldUpdater<Account> PUBLISHING =
+            AtomicIntegerFieldUpdater.newUpdater(Account.class, "publishing");
+
+    // Serialized form keeps the fields of older accounts.dat files; "transactions" is only
+    // read (history used to be a List<Transaction>), new files carry the ledger instead
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("accountNumber", String.class),
+        new ObjectStreamField("holderName", String.class),
+        new ObjectStreamField("pinHash", String.class),
+        new ObjectStreamField("balance", BigDecimal.class),
+        new ObjectStreamField("transactions", List.class),
+        new ObjectStreamField("ledger", Ledger.class)
+    };
 
     public Account(String accountNumber, String holderName, String pinHash, BigDecimal initial) {
+        this(accountNumber, holderName, PinHash.fromHex(pinHash), Money.toCents(initial), System.currentTimeMillis());
+    }
+
+    // Open the account with a cent balance at a given epoch-millis time (journal replay passes the recorded time)
+    Account(String accountNumber, String holderName, byte[] pinHash, long initial, long openedAt) {
+        this.accountNumber = accountNumber;
+        this.holderName = holderName;
+        this.pinHash = pinHash;
+        ledger.append(TransactionType.INITIAL, initial, initial, "Account opened", openedAt);
+        this.state = new State(initial, ledger.size());
+    }
+
+    // Restore an account exactly as it was snapshotted
+    Account(String accountNumber, String holderName, byte[] pinHash, long balance, Ledger ledger) {
         this.accountNumber = accountNumber;
         this.holderName = holderName;
         this.pinHash = pinHash;
-        this.balance = initial.setScale(2, RoundingMode.HALF_UP);
-        transactions.add(new Transaction(TransactionType.INITIAL, this.balance, this.balance, "Account opened"));
+        this.ledger = ledger;
+        this.state = new State(balance, ledger.size());
     }
+
     // Getter methods for account fields
     public String getAccountNumber() { return accountNumber; }
     public String getHolderName() { return holderName; }
-    public String getPinHash() { return pinHash; }
-    public BigDecimal getBalance() { return balance; }
-    public List<Transaction> getTransactions() { return transactions; }
+    public String getPinHash() { return PinHash.toHex(pinHash); } // hex, as it always was
+    byte[] pinHashBytes() { return pinHash; }
+    boolean pinMatches(String pin) { return PinHash.matches(pinHash, pin); }
+    public BigDecimal getBalance() { return Money.toDecimal(state.balance); }
+    // Read-only view of the history as of this call
+    public List<Transaction> getTransactions() { return ledger.view(); }
 
-    // Deposit money into account
-    public void deposit(BigDecimal amount) {
-        requirePositive(amount);
-        balance = balance.add(amount).setScale(2, RoundingMode.HALF_UP);
-        transactions.add(new Transaction(TransactionType.DEPOSIT, amount, balance, null));
+    // ---------- History queries (binary search over the ledger, no lock needed) ----------
+    // Balance after every transaction at or before the given time (0.00 before the account was opened)
+    public BigDecimal getBalanceAt(LocalDateTime at) {
+        return Money.toDecimal(ledger.balanceAsOf(at == null ? Long.MAX_VALUE : toMillis(at)));
     }
 
-    // Withdraw money from account (if enough balance)
-    public boolean withdraw(BigDecimal amount) {
-        requirePositive(amount);
-        if (balance.compareTo(amount) < 0) return false; // insufficient funds
-        balance = balance.subtract(amount).setScale(2, RoundingMode.HALF_UP);
-        transactions.add(new Transaction(TransactionType.WITHDRAWAL, amount, balance, null));
+    // Count and total per type of the transactions in [from, to); null means unbounded
+    public HistoryTotals getTotals(LocalDateTime from, LocalDateTime to) {
+        int lo = indexOf(from, 0), hi = Math.max(lo, indexOf(to, ledger.size()));
+        return new HistoryTotals(ledger.totals(lo, hi));
+    }
+
+    // Read-only view of the transactions in [from, to), for paging with subList
+    public List<Transaction> getTransactions(LocalDateTime from, LocalDateTime to) {
+        int lo = indexOf(from, 0), hi = Math.max(lo, indexOf(to, ledger.size()));
+        return ledger.view().subList(lo, hi);
+    }
+
+    private int indexOf(LocalDateTime t, int unbounded) { return t == null ? unbounded : ledger.indexOf(toMillis(t)); }
+
+    private static long toMillis(LocalDateTime t) { return t.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli(); }
+    long getBalanceCents() { return state.balance; }
+    // What can still be paid out, and credited without passing Long.MAX_VALUE, net of holds
+    long available() { return state.balance - held; }
+    long headroom() { return Long.MAX_VALUE - state.balance - incoming; }
+    boolean hasHolds() { return held != 0 || incoming != 0; }
+    Ledger getLedger() { return ledger; }
+
+    // ---------- Exclusive updates (Bank holds this account's stripe lock, or is replaying) ----------
+    void deposit(long amount, long at) {
+        append(TransactionType.DEPOSIT, amount, credit(state.balance, amount), null, at);
+    }
+
+    boolean withdraw(long amount, long at) {
+        long balance = state.balance;
+        if (balance - held < amount) return false; // insufficient funds
+        append(TransactionType.WITHDRAWAL, amount, Money.subtract(balance, amount), null, at);
         return true;
     }
 
     // internal helper for transfers (don’t record twice)
-    void transferOut(BigDecimal amount, String toAcc) {
-        balance = balance.subtract(amount).setScale(2, RoundingMode.HALF_UP);
-        transactions.add(new Transaction(TransactionType.TRANSFER_OUT, amount, balance, "to " + toAcc));
+    void transferOut(long amount, String toAcc, long at) {
+        append(TransactionType.TRANSFER_OUT, amount, Money.subtract(state.balance, amount), toAcc, at);
+    }
+
+    void transferIn(long amount, String fromAcc, long at) {
+        append(TransactionType.TRANSFER_IN, amount, Money.add(state.balance, amount), fromAcc, at);
+    }
+
+    // balance + amount, or ArithmeticException if that leaves no room for the credits on hold
+    private long credit(long balance, long amount) {
+        long next = Money.add(balance, amount);
+        if (incoming != 0) Money.add(next, incoming);
+        return next;
+    }
+
+    // ---------- Holds (ShardedBank, under this account's stripe lock) ----------
+    // A cross-shard transfer reserves its amount on both accounts while it waits for the transfer
+    // log, without holding their locks: `out` stays payable by nothing else, and `in` stays free of
+    // other credits, until release() when the transfer commits.
+    void hold(long out, long in) {
+        held += out;
+        incoming += in;
+    }
+
+    void release(long out, long in) {
+        held -= out;
+        incoming -= in;
+    }
+
+    private void append(TransactionType type, long amount, long balance, String party, long at) {
+        state = new State(balance, state.claimed + 1);
+        ledger.append(type, amount, balance, party, at);
+    }
+
+    // ---------- Optimistic updates (no lock, see Bank.deposit) ----------
+    // Claim the next ledger entry for a deposit / withdrawal: one compare-and-set of the state,
+    // retried while other updates win. The new balance is visible as soon as this returns; the
+    // entry itself reaches the ledger through publish.
+    State claimDeposit(long amount, long at) {
+        for (;;) {
+            State s = state;
+            State next = new State(credit(s.balance, amount), s.claimed + 1, TransactionType.DEPOSIT, amount, at, s);
+            if (STATE.compareAndSet(this, s, next)) return next;
+        }
+    }
+
+    // null (nothing claimed or changed) if the balance is below amount
+    State claimWithdrawal(long amount, long at) {
+        for (;;) {
+            State s = state;
+            if (s.balance - held < amount) return null; // insufficient funds
+            State next = new State(s.balance - amount, s.claimed + 1, TransactionType.WITHDRAWAL, amount, at, s);
+            if (STATE.compareAndSet(this, s, next)) return next;
+        }
+    }
+
+    // Return once claim c is in the ledger, journaled first when there is a journal. Whichever
+    // claimer gets the publishing flag writes every entry claimed so far, in claim order, so the
+    // journal and the ledger list an account's changes in the order its balance moved, and a
+    // claimer that is descheduled right after its compare-and-set holds up nobody.
+    void publish(State c, Journal journal) {
+        for (int spins = 0; ledger.size() < c.claimed; spins++) {
+            if (PUBLISHING.compareAndSet(this, 0, 1)) {
+                try {
+                    drain(journal);
+                } finally {
+                    publishing = 0;
+                }
+            } else if (spins < 100) {
+                Thread.onSpinWait();
+            } else {
+                Thread.yield();
+            }
+        }
     }
 
-    void transferIn(BigDecimal amount, String fromAcc) {
-        balance = balance.add(amount).setScale(2, RoundingMode.HALF_UP);
-        transactions.add(new Transaction(TransactionType.TRANSFER_IN, amount, balance, "from " + fromAcc));
+    // Write the unpublished claims, oldest first (caller holds the publishing flag)
+    private void drain(Journal journal) {
+        State s = state;
+        int n = s.claimed - ledger.size();
+        if (n == 1) { // the usual case: nothing else pending
+            write(s, journal);
+        } else if (n > 1) {
+            State[] pending = new State[n];
+            for (int k = n - 1; k >= 0; k--, s = s.prev) pending[k] = s;
+            for (State p : pending) write(p, journal);
+        }
     }
 
-    // Validation that an amount is positive and not null
-    private void requirePositive(BigDecimal amount) {
-        if (amount == null || amount.compareTo(BigDecimal.ZERO) <= 0) {
-            throw new IllegalArgumentException("Amount must be positive.");
+    private void write(State p, Journal journal) {
+        try {
+            if (journal != null && p.type == TransactionType.DEPOSIT) journal.appendDeposit(accountNumber, p.amount, p.at);
+            else if (journal != null) journal.appendWithdraw(accountNumber, p.amount, p.at);
+        } finally {
+            ledger.append(p.type, p.amount, p.balance, null, p.at);
+            p.prev = null; // published: nothing needs to reach past it any more
         }
     }
+
+    // ---------- Direct updates ----------
+    // Deposit money into account. Goes through the same claims as Bank's lock-free updates, so it
+    // is safe against them and against other threads, but it writes no journal record: on an
+    // account that belongs to a Bank, use Bank.deposit, or a reload loses the change.
+    public void deposit(BigDecimal amount) {
+        publish(claimDeposit(Money.requirePositive(amount), System.currentTimeMillis()), null);
+    }
+
+    // Withdraw money from account (if enough balance); not journaled either, see deposit
+    public boolean withdraw(BigDecimal amount) {
+        State c = claimWithdrawal(Money.requirePositive(amount), System.currentTimeMillis());
+        if (c == null) return false;
+        publish(c, null);
+        return true;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField f = out.putFields();
+        f.put("accountNumber", accountNumber);
+        f.put("holderName", holderName);
+        f.put("pinHash", PinHash.toHex(pinHash));
+        f.put("balance", getBalance());
+        f.put("ledger", ledger);
+        out.writeFields();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField f = in.readFields();
+        accountNumber = (String) f.get("accountNumber", null);
+        holderName = (String) f.get("holderName", null);
+        pinHash = PinHash.fromHex((String) f.get("pinHash", null));
+        long balance = Money.toCents((BigDecimal) f.get("balance", null));
+        ledger = (Ledger) f.get("ledger", null);
+        if (ledger == null) ledger = Ledger.of((List<Transaction>) f.get("transactions", null));
+        state = new State(balance, ledger.size());
+    }
 }
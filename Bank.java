@@ -1,109 +1,871 @@
 import java.io.*;
 import java.math.BigDecimal;
-import java.math.RoundingMode;
-import java.security.MessageDigest;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.stream.IntStream;
 
 // Bank class manages multiple account objects and banking operations
 public class Bank implements Serializable {
     private static final long serialVersionUID = 1L;
 
-    private final Map<String, Account> accounts = new HashMap<>();
-    private long nextAccount = 100100L; // for generating new account numbers
+    private transient ConcurrentHashMap<String, Account> accounts = new ConcurrentHashMap<>();
+    // Same accounts ordered by the number after "ACC", for listings and range/page queries
+    private transient ConcurrentSkipListMap<Long, Account> index = new ConcurrentSkipListMap<>();
+    private transient AtomicLong nextAccount = new AtomicLong(100100L); // for generating new account numbers
+
+    // Serialized form is unchanged from the HashMap/long days so existing accounts.dat files still load
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("accounts", Map.class),
+        new ObjectStreamField("nextAccount", long.class),
+        new ObjectStreamField("journalSeq", long.class),
+        new ObjectStreamField("historyBlocks", long.class),
+        new ObjectStreamField("linkSeq", long.class)
+    };
+
+    // ---------- Concurrency ----------
+    // Account lookups go straight to the ConcurrentHashMap and never block. Every mutation holds
+    // the lock of the stripe owning its account number; transfer takes both stripes in index
+    // order, so no two operations can wait on each other in a cycle. Snapshots take all stripes.
+    // Deposits and withdrawals skip the lock while their stripe is free: they update the account
+    // optimistically (see Account.claimDeposit) and count themselves in optimistic[stripe * PAD]
+    // meanwhile. Taking a stripe waits for that count to drain, so whoever holds a stripe still
+    // has its accounts to itself; an update that finds its stripe taken falls back to the lock.
+    private static final int STRIPES = 1024; // power of two
+    private static final int PAD = 16; // one counter per 64 bytes, so stripes do not share cache lines
+    private transient ReentrantLock[] stripes = newStripes();
+    private transient AtomicIntegerArray optimistic = new AtomicIntegerArray(STRIPES * PAD);
+
+    // ---------- Metrics ----------
+    private transient BankMetrics metrics = new BankMetrics(this, STRIPES);
 
     // ---------- Persistence ----------
-    // loads bank data from file; otherwise create new bank
+    // A loaded bank is journaled: each mutation appends one record to <file>.journal, save(file)
+    // only fsyncs the pending records (group commit), and a full snapshot is written to <file>
+    // once the journal grows past CHECKPOINT_BYTES. load() = latest snapshot + journal replay.
+    // Account history lives in the memory-mapped <file>.history: full 4096-entry chunks in blocks,
+    // the chunk being filled in small pages, so a snapshot only holds block and page numbers for
+    // it and loading never reads old history.
+    // With a history retention set, each checkpoint also moves spilled chunks older than the
+    // retention into a compressed segment of <file>.archive (see HistoryArchive) and their blocks
+    // are reused, so the live history stays about one retention period long.
+    private static final long CHECKPOINT_BYTES = 16L << 20;
+
+    private long journalSeq; // last journal record already contained in this snapshot
+    private long historyBlocks; // history blocks in use when this snapshot was taken
+    private transient Journal journal; // null when running without a journal
+    private transient HistoryStore history; // null when history stays on the heap
+    private transient HistoryArchive archive; // opened with history
+    private transient volatile Duration historyRetention; // null = keep all history live
+    private transient String dataFile; // snapshot file the journal belongs to
+
+    // ---------- Sessions ----------
+    // Verified logins, so repeated operations in one session skip PIN hashing (see SessionCache)
+    private static final int SESSION_CAPACITY = 100_000;
+    private static final long SESSION_TTL_MILLIS = 15 * 60_000L;
+    private transient SessionCache sessions = new SessionCache(SESSION_CAPACITY, SESSION_TTL_MILLIS);
+
+    // ---------- Sharding (see ShardedBank) ----------
+    // A shard applies its side of a cross-shard transfer under a link number (the transfer's
+    // record in the ShardedBank transfer log). linkSeq, kept in snapshots, is the highest link
+    // applied; with the links replayed from the journal it tells recovery which sides are here.
+    private transient AtomicLong linkSeq = new AtomicLong();
+    private transient long snapshotLinkSeq; // linkSeq of the snapshot this bank was loaded from
+    private transient Set<Long> replayedLinks = new HashSet<>();
+    private transient int accountStep = 1; // distance between consecutive new account numbers
+
+    // loads bank data from file and replays its journal; otherwise create new bank.
+    // A file that exists but cannot be read, or a journal that cannot be replayed, throws
+    // UncheckedIOException instead of quietly starting an empty or partly replayed bank (which the
+    // next save would write over the real data).
     public static Bank load(String file) {
-        File f = new File(file);
-        if (!f.exists()) return new Bank();
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(f))) {
-            Object o = ois.readObject();
-            if (o instanceof Bank) return (Bank) o;
-        } catch (Exception ignored) {}
-        return new Bank();
+        long start = System.nanoTime();
+        Bank bank = readSnapshot(Paths.get(file));
+        try {
+            bank.history = HistoryStore.open(historyPath(file), bank.historyBlocks);
+            bank.archive = HistoryArchive.open(archivePath(file));
+        } catch (IOException e) {
+            if (bank.historyBlocks > 0) throw new UncheckedIOException("Cannot open " + historyPath(file), e);
+            bank.history = null;
+        }
+        if (bank.history != null) {
+            BitSet used = new BitSet(), usedPages = new BitSet();
+            for (Account a : bank.accounts.values()) {
+                a.getLedger().attach(bank.history, bank.archive);
+                a.getLedger().forEachBlock(b -> used.set(Math.toIntExact(b)));
+                a.getLedger().forEachPage(usedPages::set);
+            }
+            bank.history.freeAllBut(used, usedPages); // e.g. blocks archived since the previous checkpoint
+        }
+        try {
+            bank.journal = Journal.open(journalPath(file), bank.journalSeq, bank);
+        } catch (IOException | RuntimeException e) {
+            // never hand out a half-replayed bank: the caller must fix the files and load again
+            try { bank.closeFiles(); } catch (IOException suppressed) { e.addSuppressed(suppressed); }
+            throw new UncheckedIOException("Cannot replay " + journalPath(file),
+                    e instanceof IOException ? (IOException) e : new IOException(e));
+        }
+        bank.dataFile = file;
+        bank.journal.metrics = bank.metrics;
+        bank.metrics.time(BankMetrics.LOAD, System.nanoTime() - start);
+        return bank;
+    }
+
+    // Binary snapshot (SnapshotCodec), or an older Java-serialized accounts.dat which is
+    // migrated: it loads as usual and the next checkpoint rewrites it in the binary format
+    private static Bank readSnapshot(Path f) {
+        if (!Files.exists(f)) return new Bank();
+        try {
+            boolean binary;
+            try (FileChannel ch = FileChannel.open(f, StandardOpenOption.READ)) {
+                binary = SnapshotCodec.isSnapshot(ch);
+            }
+            if (binary) return SnapshotCodec.read(f, Runtime.getRuntime().availableProcessors() > 1);
+            try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(f)))) {
+                Object o = ois.readObject();
+                if (o instanceof Bank) return (Bank) o;
+                throw new IOException(f + " does not contain a Bank");
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot load " + f, e);
+        } catch (ClassNotFoundException | RuntimeException e) {
+            throw new UncheckedIOException("Cannot load " + f, new IOException(e));
+        }
     }
 
-    // save bank data to file
+    // save bank data to file: commits the journal, or writes a full snapshot when unjournaled
     public boolean save(String file) {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(file))) {
-            oos.writeObject(this);
+        long start = System.nanoTime();
+        try {
+            if (journal == null || !file.equals(dataFile)) {
+                lockAll();
+                try { writeSnapshot(file); } finally { unlockAll(); }
+                return true;
+            }
+            journal.sync();
+            if (journal.size() >= CHECKPOINT_BYTES) checkpoint();
             return true;
         } catch (IOException e) {
+            metrics.fail(BankMetrics.SAVE);
             return false;
+        } finally {
+            metrics.time(BankMetrics.SAVE, System.nanoTime() - start);
         }
     }
 
-    // ---------- Utilities ----------
-    // utilities: Hash a string using SHA-256
-    public static String sha256(String s) {
+    // Write a full snapshot and empty the journal it now covers; archives history older than the
+    // retention, if one is set
+    public void checkpoint() throws IOException {
+        Duration keep = historyRetention;
+        checkpoint(keep == null ? Long.MIN_VALUE : System.currentTimeMillis() - keep.toMillis());
+    }
+
+    // Keep only the last `retention` of every account's history in the live store; older full
+    // chunks are archived at each checkpoint (null = never archive)
+    public void setHistoryRetention(Duration retention) {
+        if (retention != null && retention.isNegative()) throw new IllegalArgumentException("Negative retention: " + retention);
+        historyRetention = retention;
+    }
+
+    // Checkpoint now, archiving every spilled history chunk that ends before `before`; returns the
+    // number of entries archived (0 for an unjournaled bank). Archived entries stay readable.
+    public long archiveHistory(LocalDateTime before) throws IOException {
+        return checkpoint(before.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+    }
+
+    private long checkpoint(long archiveBefore) throws IOException {
+        if (journal == null) return 0;
+        long start = System.nanoTime();
+        long archived = 0;
+        lockAll();
+        long covered = journalSeq;
+        boolean written = false;
+        try {
+            journal.sync();
+            journalSeq = journal.lastSeq();
+            if (archiveBefore != Long.MIN_VALUE && history != null) archived = archiveHistory(archiveBefore);
+            writeSnapshot(dataFile);
+            written = true;
+            if (history != null) history.checkpointed(); // pages released before it are free to reuse
+            journal.truncate(); // a crash before this line just replays records the snapshot skips
+        } finally {
+            if (!written) journalSeq = covered; // keep naming the snapshot on disk (see pinReplica)
+            unlockAll();
+            metrics.time(BankMetrics.CHECKPOINT, System.nanoTime() - start);
+        }
+        return archived;
+    }
+
+    // Move old spilled chunks of every ledger into one new archive segment (caller holds every
+    // stripe); the segment is on disk before the snapshot that refers to it is written
+    private long archiveHistory(long before) throws IOException {
+        long archived = 0;
+        HistoryArchive.Segment segment = archive.newSegment();
         try {
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            byte[] hash = md.digest(s.getBytes("UTF-8"));
-            StringBuilder sb = new StringBuilder();
-            for (byte b : hash) sb.append(String.format("%02x", b)); // converts byte -> hex
-            return sb.toString();
-        } catch (Exception e) { throw new RuntimeException(e); }
+            for (Account a : accounts.values()) archived += a.getLedger().archive(before, segment, history::release);
+            segment.finish();
+        } finally {
+            segment.close();
+        }
+        if (archived == 0) Files.deleteIfExists(archivePath(dataFile).resolve(segment.number + ".seg"));
+        return archived;
+    }
+
+    // Atomically replace file with a binary snapshot of this bank (caller holds every stripe).
+    // Stored history is referenced by block and page number, so it must be on disk first; a snapshot
+    // written anywhere else gets its own copy of the history file and links to the (immutable)
+    // archive segments.
+    private void writeSnapshot(String file) throws IOException {
+        if (history != null) {
+            history.force();
+            historyBlocks = history.blocks();
+            if (!file.equals(dataFile)) {
+                Files.copy(historyPath(dataFile), historyPath(file), StandardCopyOption.REPLACE_EXISTING);
+                linkArchive(archivePath(dataFile), archivePath(file));
+            }
+        }
+        Path target = Paths.get(file).toAbsolutePath();
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        SnapshotCodec.write(this, tmp);
+        metrics.snapshotWritten(Files.size(tmp));
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
     }
 
+    private static Path journalPath(String file) { return Paths.get(file + ".journal"); }
+
+    static Path historyPath(String file) { return Paths.get(file + ".history"); }
+
+    static Path archivePath(String file) { return Paths.get(file + ".archive"); }
+
+    // Hard-link (or copy, across file systems) every segment of from missing in to
+    private static void linkArchive(Path from, Path to) throws IOException {
+        for (Path seg : HistoryArchive.files(from)) {
+            Path target = to.resolve(seg.getFileName());
+            if (Files.exists(target)) continue;
+            Files.createDirectories(to);
+            try {
+                Files.createLink(target, seg);
+            } catch (IOException | UnsupportedOperationException e) {
+                Files.copy(seg, target);
+            }
+        }
+    }
+
+    // ---------- Snapshot codec access ----------
+    long nextAccountNumberValue() { return nextAccount.get(); }
+    long journalSeq() { return journalSeq; }
+    long historyBlocks() { return historyBlocks; }
+    long accountCount() { return accounts.size(); }
+    long linkSeq() { return linkSeq.get(); }
+    Collection<Account> accountsView() { return accounts.values(); }
+
+    void restoreCounters(long nextAccount, long journalSeq, long historyBlocks, long linkSeq) {
+        this.nextAccount.set(nextAccount);
+        this.journalSeq = journalSeq;
+        this.historyBlocks = historyBlocks;
+        this.linkSeq.set(linkSeq);
+        snapshotLinkSeq = linkSeq;
+    }
+
+    void putRestored(Account a) { register(a); }
+
+    // Java serialization is kept for the Serializable contract and for reading old files
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField f = out.putFields();
+        f.put("accounts", accounts);
+        f.put("nextAccount", nextAccount.get());
+        f.put("journalSeq", journalSeq);
+        f.put("historyBlocks", historyBlocks);
+        f.put("linkSeq", linkSeq.get());
+        out.writeFields();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField f = in.readFields();
+        accounts = new ConcurrentHashMap<>((Map<String, Account>) f.get("accounts", null));
+        index = new ConcurrentSkipListMap<>();
+        for (Account a : accounts.values()) index.put(accountKey(a.getAccountNumber()), a);
+        nextAccount = new AtomicLong(f.get("nextAccount", 100100L));
+        journalSeq = f.get("journalSeq", 0L);
+        historyBlocks = f.get("historyBlocks", 0L);
+        snapshotLinkSeq = f.get("linkSeq", 0L);
+        linkSeq = new AtomicLong(snapshotLinkSeq);
+        replayedLinks = new HashSet<>();
+        accountStep = 1;
+        stripes = newStripes();
+        optimistic = new AtomicIntegerArray(STRIPES * PAD);
+        metrics = new BankMetrics(this, STRIPES);
+        for (Account a : accounts.values()) metrics.opened(a);
+        sessions = new SessionCache(SESSION_CAPACITY, SESSION_TTL_MILLIS);
+    }
+
+    // ---------- Locking ----------
+    private static ReentrantLock[] newStripes() {
+        ReentrantLock[] locks = new ReentrantLock[STRIPES];
+        for (int i = 0; i < STRIPES; i++) locks[i] = new ReentrantLock();
+        return locks;
+    }
+
+    private static int stripeIndex(String accNo) {
+        int h = accNo.hashCode();
+        return (h ^ (h >>> 16)) & (STRIPES - 1);
+    }
+
+    // Lock every stripe (in index order) to get a quiescent bank, e.g. for a snapshot
+    private void lockAll() { for (int s = 0; s < STRIPES; s++) lock(s); }
+
+    private void unlockAll() { for (int i = STRIPES - 1; i >= 0; i--) stripes[i].unlock(); }
+
+    // Lock the stripes of all given accounts, each once and in index order; returns them for unlockStripes
+    private int[] lockStripes(String[] from, String[] to) {
+        boolean[] used = new boolean[STRIPES];
+        int count = 0;
+        for (int i = 0; i < from.length; i++) {
+            int a = stripeIndex(from[i]), b = stripeIndex(to[i]);
+            if (!used[a]) { used[a] = true; count++; }
+            if (!used[b]) { used[b] = true; count++; }
+        }
+        int[] locked = new int[count];
+        for (int s = 0, k = 0; k < count; s++) {
+            if (used[s]) locked[k++] = s;
+        }
+        for (int s : locked) lock(s);
+        return locked;
+    }
+
+    // Take a stripe lock and let optimistic updates already running on it finish, timing the
+    // wait only when there is one
+    private void lock(int s) {
+        ReentrantLock l = stripes[s];
+        boolean held = l.tryLock();
+        if (held && optimistic.get(s * PAD) == 0) return;
+        long t = System.nanoTime();
+        if (!held) l.lock();
+        for (int spins = 0; optimistic.get(s * PAD) != 0; spins++) {
+            if (spins < 100) Thread.onSpinWait();
+            else Thread.yield();
+        }
+        metrics.lockWait(System.nanoTime() - t);
+    }
+
+    // Start an optimistic update on stripe s; false (nothing to undo) if the stripe is locked.
+    // The count goes up before the lock is checked and lock() checks the count after locking,
+    // so either the update sees the lock or the locker waits for the update.
+    private boolean enterOptimistic(int s) {
+        optimistic.getAndIncrement(s * PAD);
+        if (!stripes[s].isLocked()) return true;
+        optimistic.getAndDecrement(s * PAD);
+        return false;
+    }
+
+    private void exitOptimistic(int s) { optimistic.getAndDecrement(s * PAD); }
+
+    private void unlockStripes(int[] locked) {
+        for (int k = locked.length - 1; k >= 0; k--) stripes[locked[k]].unlock();
+    }
+
+    // ---------- Utilities ----------
+    // utilities: Hash a string using SHA-256
+    public static String sha256(String s) { return PinHash.toHex(PinHash.hash(s)); } // hex of the raw digest
+
     // Generate a new account number (increments internally)
-    private String newAccountNumber() { return "ACC" + (nextAccount++); }
+    private String newAccountNumber() { return "ACC" + nextAccount.getAndAdd(accountStep); }
 
     // ---------- Core operations ----------
     // Create a new account (name required, PIN 4-6 digits, optional deposit)
-    public synchronized Account createAccount(String holderName, String pin, BigDecimal initialDeposit) {
+    public Account createAccount(String holderName, String pin, BigDecimal initialDeposit) {
         if (holderName == null || holderName.trim().isEmpty()) throw new IllegalArgumentException("Name required");
         if (pin == null || !pin.matches("\\d{4,6}")) throw new IllegalArgumentException("PIN must be 4-6 digits");
-        BigDecimal init = initialDeposit == null ? BigDecimal.ZERO : initialDeposit.setScale(2, RoundingMode.HALF_UP);
+        long init = initialDeposit == null ? 0 : Money.toCents(initialDeposit);
+        byte[] pinHash = PinHash.hash(pin); // stores hashed pin
         String accNo = newAccountNumber();
-        Account acc = new Account(accNo, holderName.trim(), sha256(pin), init); // stores hashed pin
-        accounts.put(accNo, acc);
-        return acc;
+        int s = stripeIndex(accNo);
+        lock(s);
+        try {
+            metrics.counted(s, BankMetrics.CREATE);
+            long now = System.currentTimeMillis();
+            Account acc = new Account(accNo, holderName.trim(), pinHash, init, now);
+            if (history != null) acc.getLedger().attach(history, archive);
+            register(acc);
+            if (journal != null) journal.appendCreate(accNo, acc.getHolderName(), PinHash.toHex(pinHash), init, now);
+            return acc;
+        } finally {
+            stripes[s].unlock();
+        }
     }
 
+    // Operation counts, latencies and persistence figures of this bank (see BankMetrics)
+    public BankMetrics metrics() { return metrics; }
+
     // Get account by account number
     public Account getAccount(String accNo) { return accounts.get(accNo); }
 
-    // Authenticate account using account number and PIN
+    // Authenticate account using account number and PIN (constant-time hash comparison)
     public Account authenticate(String accNo, String pin) {
+        long start = BankMetrics.start();
+        metrics.count(BankMetrics.AUTHENTICATE);
         Account a = accounts.get(accNo);
-        if (a == null) return null;
-        return sha256(pin).equals(a.getPinHash()) ? a : null;
+        if (a == null || !a.pinMatches(pin)) {
+            metrics.fail(BankMetrics.AUTHENTICATE);
+            a = null;
+        }
+        metrics.end(BankMetrics.AUTHENTICATE, start);
+        return a;
     }
 
-    // Deposit money to account
-    public synchronized void deposit(String accNo, BigDecimal amount) {
-        Account a = getRequired(accNo);
-        a.deposit(amount);
+    // Authenticate once and get a session token for later calls to session(token)
+    public String login(String accNo, String pin) {
+        return authenticate(accNo, pin) == null ? null : sessions.open(accNo);
+    }
+
+    // Account of a live session without re-checking the PIN; null if the token is unknown,
+    // expired, evicted, or its account was closed
+    public Account session(String token) {
+        String accNo = sessions.lookup(token);
+        return accNo == null ? null : accounts.get(accNo);
+    }
+
+    public void logout(String token) { sessions.close(token); }
+
+    // Deposit money to account: lock-free unless the stripe is locked (see Concurrency)
+    public void deposit(String accNo, BigDecimal amount) {
+        long amt = Money.requirePositive(amount);
+        int s = stripeIndex(accNo);
+        if (enterOptimistic(s)) {
+            long start = BankMetrics.start();
+            try {
+                Account a = getRequired(accNo);
+                a.publish(a.claimDeposit(amt, System.currentTimeMillis()), journal);
+            } finally {
+                exitOptimistic(s);
+                metrics.count(BankMetrics.DEPOSIT);
+                metrics.end(BankMetrics.DEPOSIT, start);
+            }
+            return;
+        }
+        lock(s);
+        long start = metrics.counted(s, BankMetrics.DEPOSIT);
+        try {
+            Account a = getRequired(accNo);
+            long now = System.currentTimeMillis();
+            a.deposit(amt, now);
+            if (journal != null) journal.appendDeposit(accNo, amt, now);
+        } finally {
+            stripes[s].unlock();
+            metrics.end(BankMetrics.DEPOSIT, start);
+        }
     }
 
-    // Withdraw money from account
-    public synchronized boolean withdraw(String accNo, BigDecimal amount) {
-        Account a = getRequired(accNo);
-        return a.withdraw(amount);
+    // Withdraw money from account: lock-free unless the stripe is locked (see Concurrency)
+    public boolean withdraw(String accNo, BigDecimal amount) {
+        long amt = Money.requirePositive(amount);
+        int s = stripeIndex(accNo);
+        if (enterOptimistic(s)) {
+            long start = BankMetrics.start();
+            try {
+                Account a = getRequired(accNo);
+                Account.State c = a.claimWithdrawal(amt, System.currentTimeMillis()); // funds checked in the CAS loop
+                if (c == null) {
+                    metrics.fail(BankMetrics.WITHDRAW);
+                    return false;
+                }
+                a.publish(c, journal);
+                return true;
+            } finally {
+                exitOptimistic(s);
+                metrics.count(BankMetrics.WITHDRAW);
+                metrics.end(BankMetrics.WITHDRAW, start);
+            }
+        }
+        lock(s);
+        long start = metrics.counted(s, BankMetrics.WITHDRAW);
+        try {
+            Account a = getRequired(accNo);
+            long now = System.currentTimeMillis();
+            if (!a.withdraw(amt, now)) {
+                metrics.failed(s, BankMetrics.WITHDRAW);
+                return false;
+            }
+            if (journal != null) journal.appendWithdraw(accNo, amt, now);
+            return true;
+        } finally {
+            stripes[s].unlock();
+            metrics.end(BankMetrics.WITHDRAW, start);
+        }
     }
 
-    // Transfer money between accounts
-    public synchronized boolean transfer(String fromAcc, String toAcc, BigDecimal amount) {
+    // Transfer money between accounts; false (nothing changed) if the payer cannot cover it or the
+    // payee's balance would overflow
+    public boolean transfer(String fromAcc, String toAcc, BigDecimal amount) {
         if (fromAcc.equals(toAcc)) throw new IllegalArgumentException("Cannot transfer to the same account");
-        Account from = getRequired(fromAcc);
-        Account to = getRequired(toAcc);
-        if (amount == null || amount.signum() <= 0) throw new IllegalArgumentException("Amount must be positive");
-        if (from.getBalance().compareTo(amount) < 0) return false; // not enough funds
-        from.transferOut(amount, toAcc); // from account
-        to.transferIn(amount, fromAcc); // to account
+        long amt = Money.requirePositive(amount);
+        int i = stripeIndex(fromAcc), j = stripeIndex(toAcc);
+        ReentrantLock first = stripes[Math.min(i, j)], second = stripes[Math.max(i, j)];
+        lock(Math.min(i, j));
+        lock(Math.max(i, j)); // same stripe: ReentrantLock just counts the hold twice
+        long start = metrics.counted(i, BankMetrics.TRANSFER);
+        try {
+            Account from = getRequired(fromAcc);
+            Account to = getRequired(toAcc);
+            // not enough funds, or a credit that would overflow: refused before either side changes
+            if (from.available() < amt || to.headroom() < amt) {
+                metrics.failed(i, BankMetrics.TRANSFER);
+                return false;
+            }
+            long now = System.currentTimeMillis();
+            from.transferOut(amt, toAcc, now); // from account
+            to.transferIn(amt, fromAcc, now); // to account
+            if (journal != null) journal.appendTransfer(fromAcc, toAcc, amt, now);
+            return true;
+        } finally {
+            second.unlock();
+            first.unlock();
+            metrics.end(BankMetrics.TRANSFER, start);
+        }
+    }
+
+    // ---------- Batches ----------
+    // Both batch calls validate every request up front (IllegalArgumentException before anything
+    // changes), lock each stripe involved once, stamp the batch with one time and journal it as
+    // one record, so a single save() commits the whole batch.
+
+    // All-or-nothing: balances are checked after netting the whole batch, so an account may pay
+    // out money it receives later in the same batch (its statement can dip below zero inside the
+    // batch). Returns false, changing nothing, if any account would end up overdrawn or past the
+    // largest balance.
+    public boolean transferBatch(List<TransferRequest> batch) {
+        int n = batch.size();
+        String[] from = new String[n], to = new String[n];
+        long[] cents = new long[n];
+        prepareBatch(batch, from, to, cents);
+        if (n == 0) return true;
+        int[] locked = lockStripes(from, to);
+        long start = metrics.counted(locked[0], BankMetrics.TRANSFER_BATCH);
+        try {
+            Account[] src = new Account[n], dst = new Account[n];
+            for (int i = 0; i < n; i++) {
+                src[i] = getRequired(from[i]);
+                dst[i] = getRequired(to[i]);
+            }
+            if (!covered(src, dst, cents)) {
+                metrics.failed(locked[0], BankMetrics.TRANSFER_BATCH);
+                return false;
+            }
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < n; i++) {
+                src[i].transferOut(cents[i], to[i], now);
+                dst[i].transferIn(cents[i], from[i], now);
+            }
+            if (journal != null) journal.appendBatch(from, to, cents, n, now);
+            return true;
+        } finally {
+            unlockStripes(locked);
+            metrics.end(BankMetrics.TRANSFER_BATCH, start);
+        }
+    }
+
+    // Whether every account in the batch covers its debits after netting, with no balance going
+    // past Long.MAX_VALUE at any point of the batch
+    private static boolean covered(Account[] src, Account[] dst, long[] cents) {
+        Map<Account, long[]> totals = new IdentityHashMap<>(); // {credits, debits} per account
+        for (int i = 0; i < src.length; i++) {
+            long[] out = totals.computeIfAbsent(src[i], k -> new long[2]);
+            if (out[1] > Long.MAX_VALUE - cents[i]) return false; // debits past any balance
+            out[1] += cents[i];
+            long[] in = totals.computeIfAbsent(dst[i], k -> new long[2]);
+            if (in[0] > Long.MAX_VALUE - cents[i]) return false; // credits alone overflow
+            in[0] += cents[i];
+        }
+        for (Map.Entry<Account, long[]> e : totals.entrySet()) {
+            Account a = e.getKey();
+            long credits = e.getValue()[0];
+            if (a.headroom() < credits) return false; // no balance in the batch exceeds balance + credits
+            if (a.available() + credits < e.getValue()[1]) return false; // not enough funds after netting
+        }
         return true;
     }
 
+    // Per item: requests are applied in order, each one only if its source account can cover it
+    // at that point (exactly like calling transfer() in a loop). result[i] tells whether item i ran.
+    public boolean[] transferEach(List<TransferRequest> batch) {
+        int n = batch.size();
+        String[] from = new String[n], to = new String[n];
+        long[] cents = new long[n];
+        prepareBatch(batch, from, to, cents);
+        if (n == 0) return new boolean[0];
+        int[] locked = lockStripes(from, to);
+        long start = metrics.counted(locked[0], BankMetrics.TRANSFER_EACH);
+        try {
+            Account[] src = new Account[n], dst = new Account[n];
+            for (int i = 0; i < n; i++) {
+                src[i] = getRequired(from[i]);
+                dst[i] = getRequired(to[i]);
+            }
+            boolean[] done = new boolean[n];
+            long now = System.currentTimeMillis();
+            int applied = 0;
+            for (int i = 0; i < n; i++) {
+                long amt = cents[i];
+                if (src[i].available() < amt || dst[i].headroom() < amt) continue;
+                src[i].transferOut(amt, to[i], now);
+                dst[i].transferIn(amt, from[i], now);
+                done[i] = true;
+                from[applied] = from[i]; // compact the applied ones for the journal record
+                to[applied] = to[i];
+                cents[applied++] = amt;
+            }
+            if (applied < n) metrics.failed(locked[0], BankMetrics.TRANSFER_EACH); // at least one item skipped
+            if (journal != null && applied > 0) journal.appendBatch(from, to, cents, applied, now);
+            return done;
+        } finally {
+            unlockStripes(locked);
+            metrics.end(BankMetrics.TRANSFER_EACH, start);
+        }
+    }
+
+    private static void prepareBatch(List<TransferRequest> batch, String[] from, String[] to, long[] cents) {
+        int i = 0;
+        for (TransferRequest r : batch) {
+            if (r.getFromAcc().equals(r.getToAcc())) {
+                throw new IllegalArgumentException("Cannot transfer to the same account (item " + i + ")");
+            }
+            from[i] = r.getFromAcc();
+            to[i] = r.getToAcc();
+            cents[i++] = Money.requirePositive(r.getAmount());
+        }
+    }
+
     // close account 
-    public synchronized boolean closeAccount(String accNo) {
-        return accounts.remove(accNo) != null;
+    public boolean closeAccount(String accNo) {
+        int s = stripeIndex(accNo);
+        lock(s);
+        try {
+            metrics.counted(s, BankMetrics.CLOSE);
+            Account a = accounts.get(accNo);
+            if (a == null || a.hasHolds() || !unregister(accNo)) { // holds: a cross-shard transfer is in flight
+                metrics.failed(s, BankMetrics.CLOSE);
+                return false;
+            }
+            if (journal != null) journal.appendClose(accNo);
+            return true;
+        } finally {
+            stripes[s].unlock();
+        }
+    }
+
+    // ---------- Listing (views of the sorted index, nothing is copied or sorted) ----------
+    // Views are weakly consistent: iterating never blocks or throws while accounts are opened or
+    // closed, and shows each account at most once.
+
+    // list all accounts sorted by account number (numerically, so ACC999999 < ACC1000000)
+    public Collection<Account> listAccounts() { return Collections.unmodifiableCollection(index.values()); }
+
+    // Accounts whose numbers (without "ACC") lie in [fromNumber, toNumber], in order
+    public Collection<Account> listAccounts(long fromNumber, long toNumber) {
+        if (fromNumber > toNumber) return Collections.emptyList();
+        return Collections.unmodifiableCollection(index.subMap(fromNumber, true, toNumber, true).values());
+    }
+
+    // One page: at most limit accounts numbered fromNumber..toNumber. For the next page pass the
+    // last number returned + 1 as fromNumber. Costs O(log N + limit).
+    public List<Account> listAccounts(long fromNumber, long toNumber, int limit) {
+        List<Account> page = new ArrayList<>(Math.min(Math.max(limit, 0), 1024));
+        for (Account a : listAccounts(fromNumber, toNumber)) {
+            if (page.size() >= limit) break;
+            page.add(a);
+        }
+        return page;
+    }
+
+    // Numeric part of an account number ("ACC100100" -> 100100)
+    public static long accountKey(String accNo) {
+        if (accNo == null || !accNo.startsWith("ACC")) throw new IllegalArgumentException("Bad account number: " + accNo);
+        return Long.parseLong(accNo.substring(3));
+    }
+
+    private void register(Account a) {
+        index.put(accountKey(a.getAccountNumber()), a);
+        accounts.put(a.getAccountNumber(), a);
+        metrics.opened(a);
+    }
+
+    private boolean unregister(String accNo) {
+        Account a = accounts.remove(accNo);
+        if (a == null) return false;
+        index.remove(accountKey(accNo), a);
+        metrics.closed(a);
+        return true;
+    }
+
+    // ---------- History queries (O(log N) per call, see Account) ----------
+    public BigDecimal balanceAt(String accNo, LocalDateTime at) { return getRequired(accNo).getBalanceAt(at); }
+
+    public HistoryTotals totals(String accNo, LocalDateTime from, LocalDateTime to) {
+        return getRequired(accNo).getTotals(from, to);
+    }
+
+    // One page of the transactions in [from, to): entries offset .. offset + limit - 1 of that range
+    public List<Transaction> history(String accNo, LocalDateTime from, LocalDateTime to, int offset, int limit) {
+        List<Transaction> range = getRequired(accNo).getTransactions(from, to);
+        int start = Math.min(Math.max(offset, 0), range.size());
+        return range.subList(start, Math.min(range.size(), start + Math.max(limit, 0)));
+    }
+
+    // ---------- Replication support (see Replicator and Standby) ----------
+    interface IOTask<T> {
+        T run() throws IOException;
+    }
+
+    Journal journal() { return journal; }
+
+    transient volatile Replicator replicator; // set while a Replicator ships this bank's journal
+
+    // Run task with every stripe held, so no mutation is running or half-applied
+    <T> T quiesced(IOTask<T> task) throws IOException {
+        lockAll();
+        try {
+            return task.run();
+        } finally {
+            unlockAll();
+        }
+    }
+
+    // Pin the last checkpoint for a replica (caller has quiesced the bank): hard-links its snapshot
+    // to `link` and keeps the history blocks and pages it refers to from being reused until
+    // unpinReplica(). Returns the bytes of the history file to send with it. The snapshot covers
+    // the journal up to journalSeq(); the records after that complete it.
+    long pinReplica(Path link) throws IOException {
+        Path snapshot = Paths.get(dataFile);
+        Files.deleteIfExists(link);
+        try {
+            Files.createLink(link, snapshot); // a later checkpoint replaces the file, not this inode
+        } catch (IOException | UnsupportedOperationException e) {
+            Files.copy(snapshot, link);
+        }
+        if (history == null) return 0;
+        history.pin();
+        return history.blocks() * HistoryStore.BLOCK;
+    }
+
+    void unpinReplica() {
+        if (history != null) history.unpin();
+    }
+
+    // Release the journal and history files; the bank must not be used afterwards
+    void closeFiles() throws IOException {
+        if (journal != null) journal.close();
+        if (history != null) history.close();
+        if (archive != null) archive.close();
+    }
+
+    // ---------- Shard support (see ShardedBank) ----------
+    // From now on number new accounts so that number % shards == shard
+    void numberAccounts(int shard, int shards) {
+        accountStep = shards;
+        nextAccount.updateAndGet(n -> n + Math.floorMod(shard - n, shards));
     }
 
-    // list all accounts sorted by account number
-    public Collection<Account> listAccounts() {
-        List<Account> list = new ArrayList<>(accounts.values());
-        list.sort(Comparator.comparing(Account::getAccountNumber));
-        return list;
+    void lockAccount(String accNo) { lock(stripeIndex(accNo)); }
+
+    void unlockAccount(String accNo) { stripes[stripeIndex(accNo)].unlock(); }
+
+    // Existing account or IllegalArgumentException
+    Account requireAccount(String accNo) { return getRequired(accNo); }
+
+    // This shard's side of cross-shard transfer `link` (caller holds the account's stripe)
+    void linkOut(long link, String fromAcc, String toAcc, long amount, long at) {
+        getRequired(fromAcc).transferOut(amount, toAcc, at);
+        linkSeq.accumulateAndGet(link, Math::max);
+        if (journal != null) journal.appendLink(Journal.LINK_OUT, link, fromAcc, toAcc, amount, at);
+    }
+
+    void linkIn(long link, String fromAcc, String toAcc, long amount, long at) {
+        getRequired(toAcc).transferIn(amount, fromAcc, at);
+        linkSeq.accumulateAndGet(link, Math::max);
+        if (journal != null) journal.appendLink(Journal.LINK_IN, link, fromAcc, toAcc, amount, at);
+    }
+
+    // True if this shard's side of `link` is already applied (valid between load and forgetReplayedLinks).
+    // Every link up to snapshotLinkSeq is: snapshots are taken with no transfer in flight, and
+    // ShardedBank logs no new link while an earlier one is in doubt.
+    boolean hasLink(long link) { return link <= snapshotLinkSeq || replayedLinks.contains(link); }
+
+    void forgetReplayedLinks() { replayedLinks = new HashSet<>(); }
+
+    // ---------- Bulk import support (see BulkImporter; the caller has quiesced the bank) ----------
+    String nextAccountNumber() { return newAccountNumber(); }
+
+    // Standbys cannot replay a bulk import, so refuse one while any is attached (they would diverge
+    // silently); later ones resync by snapshot, see markImported
+    void checkImportAllowed() {
+        Replicator r = replicator;
+        if (r != null && r.followers() > 0) {
+            throw new IllegalStateException("Cannot import while " + r.followers() + " standby(s) follow this bank");
+        }
+    }
+
+    // Journal that rows were imported, just before the checkpoint that makes them durable: the
+    // snapshot then covers a seq no follower has, so every follower catches up by snapshot
+    void markImported(String source, long rows) {
+        if (journal != null) journal.appendImport(source, rows, System.currentTimeMillis());
+    }
+
+    // Add an account built outside createAccount (its number is not taken, see BulkImporter)
+    void putImported(Account acc) {
+        if (history != null) acc.getLedger().attach(history, archive);
+        register(acc);
+        nextAccount.accumulateAndGet(accountKey(acc.getAccountNumber()) + 1, Math::max);
+    }
+
+    // ---------- Journal replay (records were validated when first applied) ----------
+    void applyCreate(String accNo, String holderName, String pinHash, long initial, long at) {
+        Account acc = new Account(accNo, holderName, PinHash.fromHex(pinHash), initial, at);
+        if (history != null) acc.getLedger().attach(history, archive);
+        register(acc);
+        nextAccount.accumulateAndGet(accountKey(accNo) + 1, Math::max);
+    }
+
+    void applyDeposit(String accNo, long amount, long at) {
+        getRequired(accNo).deposit(amount, at);
+    }
+
+    void applyWithdraw(String accNo, long amount, long at) {
+        getRequired(accNo).withdraw(amount, at);
+    }
+
+    void applyTransfer(String fromAcc, String toAcc, long amount, long at) {
+        getRequired(fromAcc).transferOut(amount, toAcc, at);
+        getRequired(toAcc).transferIn(amount, fromAcc, at);
+    }
+
+    void applyClose(String accNo) { unregister(accNo); }
+
+    void applyLinkOut(long link, String fromAcc, String toAcc, long amount, long at) {
+        getRequired(fromAcc).transferOut(amount, toAcc, at);
+        linkSeq.accumulateAndGet(link, Math::max);
+        replayedLinks.add(link);
+    }
+
+    void applyLinkIn(long link, String fromAcc, String toAcc, long amount, long at) {
+        getRequired(toAcc).transferIn(amount, fromAcc, at);
+        linkSeq.accumulateAndGet(link, Math::max);
+        replayedLinks.add(link);
     }
 
     // Get account or throw exception if not found
@@ -114,16 +876,54 @@ public class Bank implements Serializable {
     }
 
     // ---------- Export ----------
-    // export transaction history ti CSV
+    // export transaction history ti CSV (gzip-compressed when the file name ends in .gz)
     public boolean exportStatementCsv(String accNo, String filePath) {
+        return exportStatementCsv(accNo, filePath, filePath.endsWith(".gz"));
+    }
+
+    public boolean exportStatementCsv(String accNo, String filePath, boolean gzip) {
         Account a = accounts.get(accNo);
         if (a == null) return false;
-        try (PrintWriter pw = new PrintWriter(new FileWriter(filePath))) {
-            pw.println("Timestamp,Type,Amount,BalanceAfter,Note");
-            for (Transaction t : a.getTransactions()) pw.println(t.toCsvRow());
+        long start = System.nanoTime();
+        try {
+            new StatementWriter().write(a.getLedger(), Paths.get(filePath), gzip); // reads the ledger, no lock needed
             return true;
         } catch (IOException e) {
+            metrics.fail(BankMetrics.EXPORT);
             return false;
+        } finally {
+            metrics.time(BankMetrics.EXPORT, System.nanoTime() - start);
         }
     }
+
+    // Export every account's statement to dir/<account number>.csv (or .csv.gz), in parallel on
+    // the common fork-join pool. progress (may be null) gets (done, total) about every 1% and at
+    // the end, from worker threads. Returns the number of statements written; a failed account
+    // is skipped.
+    public int exportAllStatements(String dir, boolean gzip, BiConsumer<Integer, Integer> progress) throws IOException {
+        Path out = Files.createDirectories(Paths.get(dir));
+        Account[] all = accounts.values().toArray(new Account[0]);
+        int total = all.length;
+        String suffix = gzip ? ".csv.gz" : ".csv";
+        AtomicInteger done = new AtomicInteger(), written = new AtomicInteger();
+        int step = Math.max(1, total / 100);
+        // a few slices per worker so an account with a huge history does not hold up the rest
+        int slices = Math.min(total, ForkJoinPool.getCommonPoolParallelism() * 8);
+        IntStream.range(0, slices).parallel().forEach(s -> {
+            StatementWriter w = new StatementWriter(); // one buffer per slice
+            for (int i = s; i < total; i += slices) {
+                long start = System.nanoTime();
+                try {
+                    w.write(all[i].getLedger(), out.resolve(all[i].getAccountNumber() + suffix), gzip);
+                    written.incrementAndGet();
+                } catch (IOException e) {
+                    metrics.fail(BankMetrics.EXPORT); // skipped, shows up in the returned count
+                }
+                metrics.time(BankMetrics.EXPORT, System.nanoTime() - start);
+                int d = done.incrementAndGet();
+                if (progress != null && (d % step == 0 || d == total)) progress.accept(d, total);
+            }
+        });
+        return written.get();
+    }
 }
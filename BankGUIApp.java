@@ -1,13 +1,35 @@
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 //GUI-based Bank application
 public class BankGUIApp {
     private static final String DATA_FILE = "accounts.dat"; // Data file for persistence
     private Bank bank; // Bank object managing accounts
 
+    // Bank calls and saves run on this worker, never on the event dispatch thread; results come
+    // back to the EDT. Saves are debounced: a burst of operations is committed together, at most
+    // SAVE_DELAY_MS after the first of them (and always on exit), so steady use cannot starve it.
+    private static final long SAVE_DELAY_MS = 500;
+    private final ScheduledExecutorService worker = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "bank-worker");
+        t.setDaemon(true);
+        return t;
+    });
+    private ScheduledFuture<?> pendingSave; // touched on the worker thread only
+
     private JFrame frame; // Main application window
     private JPanel mainPanel; // Currently displayed panel
 
@@ -22,9 +44,19 @@ public class BankGUIApp {
     }
 
     public BankGUIApp() {
-        bank = Bank.load(DATA_FILE); // Load saved bank data or initialize new
+        try {
+            bank = Bank.load(DATA_FILE); // Load saved bank data or initialize new
+        } catch (UncheckedIOException e) { // never start empty over an unreadable file
+            JOptionPane.showMessageDialog(null, "Cannot load " + DATA_FILE + ": " + e.getCause().getMessage(),
+                    "Error", JOptionPane.ERROR_MESSAGE);
+            System.exit(1);
+        }
         frame = new JFrame("Bank Management System");
-        frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        frame.setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
+        frame.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) { exit(); }
+        });
         frame.setSize(800, 550);
         frame.setLocationRelativeTo(null);
         frame.setResizable(false);
@@ -56,6 +88,56 @@ public class BankGUIApp {
         return btn;
     }
 
+    // ---------- Background work ----------
+    // Run a bank call on the worker, then hand its result (or show its error) on the EDT
+    private <T> void async(Supplier<T> call, Consumer<T> onDone) {
+        frame.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        CompletableFuture.supplyAsync(call, worker).whenCompleteAsync((result, error) -> {
+            frame.setCursor(Cursor.getDefaultCursor());
+            if (error == null) {
+                onDone.accept(result);
+                return;
+            }
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            JOptionPane.showMessageDialog(frame, "Error: " + cause.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+        }, SwingUtilities::invokeLater);
+    }
+
+    // Queue a save after the operations already submitted; a save already waiting covers this one
+    private void scheduleSave() {
+        worker.execute(() -> {
+            if (pendingSave != null && !pendingSave.isDone()) return;
+            pendingSave = worker.schedule(this::saveNow, SAVE_DELAY_MS, TimeUnit.MILLISECONDS);
+        });
+    }
+
+    private void saveNow() {
+        if (!bank.save(DATA_FILE)) {
+            SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(frame,
+                    "❌ Could not save " + DATA_FILE, "Error", JOptionPane.ERROR_MESSAGE));
+        }
+    }
+
+    // Finish queued work, save once more, then quit. If that save fails, ask first: quitting would
+    // lose the changes since the last save that worked.
+    private void exit() {
+        frame.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        CompletableFuture.supplyAsync(() -> {
+            if (pendingSave != null) pendingSave.cancel(false);
+            return bank.save(DATA_FILE);
+        }, worker).whenCompleteAsync((saved, error) -> {
+            frame.setCursor(Cursor.getDefaultCursor());
+            if (error != null || !saved) {
+                int quit = JOptionPane.showConfirmDialog(frame, "❌ Could not save " + DATA_FILE
+                        + ".\nQuit anyway? Changes since the last save are lost.", "Error",
+                        JOptionPane.YES_NO_OPTION, JOptionPane.ERROR_MESSAGE);
+                if (quit != JOptionPane.YES_OPTION) return;
+            }
+            frame.dispose();
+            System.exit(0);
+        }, SwingUtilities::invokeLater);
+    }
+
     private void showMainMenu() {
         mainPanel = new JPanel(new BorderLayout());
         mainPanel.setBackground(new Color(240, 240, 240)); // Solid light background
@@ -86,10 +168,7 @@ public class BankGUIApp {
         // Buttons actions
         createBtn.addActionListener(e -> showCreateAccount());
         loginBtn.addActionListener(e -> showLogin());
-        exitBtn.addActionListener(e -> {
-            bank.save(DATA_FILE);
-            frame.dispose();
-        });
+        exitBtn.addActionListener(e -> exit());
 
         menuPanel.add(createBtn);
         menuPanel.add(loginBtn);
@@ -116,17 +195,14 @@ public class BankGUIApp {
 
         int option = JOptionPane.showConfirmDialog(frame, message, "Create Account", JOptionPane.OK_CANCEL_OPTION);
         if (option == JOptionPane.OK_OPTION) {
-            try {
-                String name = nameField.getText().trim();
-                String pin = pinField.getText().trim();
-                BigDecimal deposit = new BigDecimal(depositField.getText().trim());
-                Account acc = bank.createAccount(name, pin, deposit);
-                bank.save(DATA_FILE);
+            String name = nameField.getText().trim();
+            String pin = pinField.getText().trim();
+            String deposit = depositField.getText().trim();
+            async(() -> bank.createAccount(name, pin, new BigDecimal(deposit)), acc -> {
                 JOptionPane.showMessageDialog(frame, "✅ Account created: " + acc.getAccountNumber());
                 showMainMenu();
-            } catch (Exception ex) {
-                JOptionPane.showMessageDialog(frame, "Error: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
-            }
+            });
+            scheduleSave();
         }
     }
 
@@ -142,12 +218,14 @@ public class BankGUIApp {
 
         int option = JOptionPane.showConfirmDialog(frame, message, "Login", JOptionPane.OK_CANCEL_OPTION);
         if (option == JOptionPane.OK_OPTION) {
-            Account acc = bank.authenticate(accField.getText().trim(), pinField.getText().trim());
-            if (acc != null) {
-                showAccountMenu(acc);
-            } else {
-                JOptionPane.showMessageDialog(frame, "❌ Invalid account or PIN", "Error", JOptionPane.ERROR_MESSAGE);
-            }
+            String accNo = accField.getText().trim(), pin = pinField.getText().trim();
+            async(() -> bank.authenticate(accNo, pin), acc -> {
+                if (acc != null) {
+                    showAccountMenu(acc);
+                } else {
+                    JOptionPane.showMessageDialog(frame, "❌ Invalid account or PIN", "Error", JOptionPane.ERROR_MESSAGE);
+                }
+            });
         }
     }
 
@@ -180,25 +258,21 @@ public class BankGUIApp {
         // Deposit
         depBtn.addActionListener(e -> {
             String amt = JOptionPane.showInputDialog(frame, "Deposit amount:");
-            try {
-                bank.deposit(acc.getAccountNumber(), new BigDecimal(amt));
-                bank.save(DATA_FILE);
-                JOptionPane.showMessageDialog(frame, "Deposited. New balance: " + acc.getBalance());
-            } catch (Exception ex) {
-                JOptionPane.showMessageDialog(frame, "Error: " + ex.getMessage());
-            }
+            if (amt == null) return;
+            async(() -> {
+                bank.deposit(acc.getAccountNumber(), new BigDecimal(amt.trim()));
+                return acc.getBalance();
+            }, bal -> JOptionPane.showMessageDialog(frame, "Deposited. New balance: " + bal));
+            scheduleSave();
         });
         // Withdraw
         witBtn.addActionListener(e -> {
             String amt = JOptionPane.showInputDialog(frame, "Withdraw amount:");
-            try {
-                boolean ok = bank.withdraw(acc.getAccountNumber(), new BigDecimal(amt));
-                bank.save(DATA_FILE);
-                JOptionPane.showMessageDialog(frame,
-                        ok ? "Withdrawn. New balance: " + acc.getBalance() : "Insufficient funds.");
-            } catch (Exception ex) {
-                JOptionPane.showMessageDialog(frame, "Error: " + ex.getMessage());
-            }
+            if (amt == null) return;
+            async(() -> bank.withdraw(acc.getAccountNumber(), new BigDecimal(amt.trim())), ok ->
+                    JOptionPane.showMessageDialog(frame,
+                            ok ? "Withdrawn. New balance: " + acc.getBalance() : "Insufficient funds."));
+            scheduleSave();
         });
         // Transfer
         transBtn.addActionListener(e -> {
@@ -207,44 +281,43 @@ public class BankGUIApp {
             Object[] msg = { "To Account:", toAcc, "Amount:", amt };
             int opt = JOptionPane.showConfirmDialog(frame, msg, "Transfer", JOptionPane.OK_CANCEL_OPTION);
             if (opt == JOptionPane.OK_OPTION) {
-                try {
-                    boolean ok = bank.transfer(acc.getAccountNumber(), toAcc.getText().trim(),
-                            new BigDecimal(amt.getText().trim()));
-                    bank.save(DATA_FILE);
-                    JOptionPane.showMessageDialog(frame,
-                            ok ? "Transferred." : "Insufficient funds or invalid account.");
-                } catch (Exception ex) {
-                    JOptionPane.showMessageDialog(frame, "Error: " + ex.getMessage());
-                }
+                String to = toAcc.getText().trim(), amount = amt.getText().trim();
+                async(() -> bank.transfer(acc.getAccountNumber(), to, new BigDecimal(amount)), ok ->
+                        JOptionPane.showMessageDialog(frame,
+                                ok ? "Transferred." : "Insufficient funds or invalid account."));
+                scheduleSave();
             }
         });
-        // Transfer history
+        // Transfer history (table only materializes the rows on screen)
         histBtn.addActionListener(e -> {
-            JTextArea area = new JTextArea();
-            acc.getTransactions().forEach(t -> area.append(t + "\n"));
-            area.setEditable(false);
-            area.setFont(new Font("Monospaced", Font.PLAIN, 14));
-            JScrollPane scrollPane = new JScrollPane(area);
-            scrollPane.setPreferredSize(new Dimension(500, 300));
+            JTable table = new JTable(new HistoryTableModel(acc, worker));
+            table.setFont(new Font("Monospaced", Font.PLAIN, 14));
+            table.setRowHeight(20);
+            table.setFillsViewportHeight(true);
+            JScrollPane scrollPane = new JScrollPane(table);
+            scrollPane.setPreferredSize(new Dimension(700, 300));
             JOptionPane.showMessageDialog(frame, scrollPane, "Transaction History", JOptionPane.INFORMATION_MESSAGE);
         });
         // Export CSV
         exportBtn.addActionListener(e -> {
             String fileName = acc.getAccountNumber() + "_statement.csv";
-            if (bank.exportStatementCsv(acc.getAccountNumber(), fileName))
-                JOptionPane.showMessageDialog(frame, "✅ Exported to: " + fileName);
-            else
-                JOptionPane.showMessageDialog(frame, "❌ Export failed.");
+            async(() -> bank.exportStatementCsv(acc.getAccountNumber(), fileName), ok -> {
+                if (ok)
+                    JOptionPane.showMessageDialog(frame, "✅ Exported to: " + fileName);
+                else
+                    JOptionPane.showMessageDialog(frame, "❌ Export failed.");
+            });
         });
         // Close account
         closeBtn.addActionListener(e -> {
             int conf = JOptionPane.showConfirmDialog(frame, "Are you sure? This cannot be undone.", "Close Account",
                     JOptionPane.YES_NO_OPTION);
             if (conf == JOptionPane.YES_OPTION) {
-                bank.closeAccount(acc.getAccountNumber());
-                bank.save(DATA_FILE);
-                JOptionPane.showMessageDialog(frame, "Account closed.");
-                showMainMenu();
+                async(() -> bank.closeAccount(acc.getAccountNumber()), ok -> {
+                    JOptionPane.showMessageDialog(frame, "Account closed.");
+                    showMainMenu();
+                });
+                scheduleSave();
             }
         });
         // Logout
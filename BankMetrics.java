@@ -0,0 +1,281 @@
+import javax.management.*;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+// Counters and latency histograms for one Bank, readable as plain text (toText) or over JMX
+// (register). Built to stay off the hot path:
+//   - operations that already hold a stripe lock count themselves in that stripe's row of plain
+//     longs (no atomics; rows are 128 bytes apart so stripes do not share cache lines), everything
+//     else (including lock-free deposits and withdrawals) counts in LongAdders;
+//   - latency is measured for 1 in SAMPLE calls of the frequent operations (every SAMPLE-th count
+//     of a stripe row, a random pick for authenticate; every call of save, checkpoint, load and
+//     export) into lock-free LatencyHistograms. Locked operations are timed from the moment they
+//     hold their locks; the wait for those is measured on its own;
+//   - lock wait is only timed when a stripe is actually contended (tryLock failed).
+// Counts are exact; readers may see a count a few operations old. A scrape costs the same however
+// many accounts the bank has (the transaction total is kept as entries are appended), and a JMX
+// read of one attribute computes only that attribute.
+public final class BankMetrics implements DynamicMBean {
+    static final int CREATE = 0, DEPOSIT = 1, WITHDRAW = 2, TRANSFER = 3, TRANSFER_BATCH = 4,
+            TRANSFER_EACH = 5, CLOSE = 6, // counted under a stripe lock
+            AUTHENTICATE = 7, SAVE = 8, CHECKPOINT = 9, LOAD = 10, EXPORT = 11;
+    private static final String[] NAMES = { "create", "deposit", "withdraw", "transfer", "transferBatch",
+            "transferEach", "close", "authenticate", "save", "checkpoint", "load", "export" };
+    private static final int LOCKED = 7, OPS = NAMES.length;
+    private static final int ROW = 16; // per stripe: [op] = calls, [8 + op] = failures
+    private static final int SAMPLE = 64; // power of two
+
+    private final Bank bank;
+    private final long[] stripeCounts;
+    private final LongAdder[] counts = new LongAdder[OPS], failures = new LongAdder[OPS];
+    private final LatencyHistogram[] latency = new LatencyHistogram[OPS];
+    private final LongAdder lockWaits = new LongAdder();
+    private final LatencyHistogram lockWait = new LatencyHistogram();
+    private final LongAdder journalBytes = new LongAdder();
+    private final LatencyHistogram fsync = new LatencyHistogram();
+    private final LongAdder snapshotBytes = new LongAdder(), snapshots = new LongAdder();
+    private final LongAdder transactions = new LongAdder(); // ledger entries of the open accounts
+    private volatile ObjectName registered;
+    private volatile MBeanInfo info;
+
+    BankMetrics(Bank bank, int stripes) {
+        this.bank = bank;
+        stripeCounts = new long[stripes * ROW];
+        for (int op = 0; op < OPS; op++) {
+            counts[op] = new LongAdder();
+            failures[op] = new LongAdder();
+            latency[op] = new LatencyHistogram();
+        }
+    }
+
+    // ---------- Recording ----------
+    // Start time if this call is sampled, else 0 (pass it to end)
+    static long start() {
+        return (ThreadLocalRandom.current().nextInt() & (SAMPLE - 1)) == 0 ? System.nanoTime() : 0L;
+    }
+
+    void end(int op, long start) {
+        if (start != 0) latency[op].record(System.nanoTime() - start);
+    }
+
+    // One call / failure of a LOCKED op; the caller holds the lock of stripe. counted returns the
+    // start time when this call is sampled, else 0
+    long counted(int stripe, int op) {
+        long n = ++stripeCounts[stripe * ROW + op];
+        return (n & (SAMPLE - 1)) == 0 ? System.nanoTime() : 0L;
+    }
+
+    void failed(int stripe, int op) { stripeCounts[stripe * ROW + 8 + op]++; }
+
+    // One call / failure of any other op, or of a LOCKED op done without the lock
+    void count(int op) { counts[op].increment(); }
+
+    void fail(int op) { failures[op].increment(); }
+
+    // One call of a rare op, always timed
+    void time(int op, long nanos) {
+        counts[op].increment();
+        latency[op].record(nanos);
+    }
+
+    void lockWait(long nanos) {
+        lockWaits.increment();
+        lockWait.record(nanos);
+    }
+
+    void journalSync(long bytes, long nanos) {
+        journalBytes.add(bytes);
+        fsync.record(nanos);
+    }
+
+    void snapshotWritten(long bytes) {
+        snapshotBytes.add(bytes);
+        snapshots.increment();
+    }
+
+    // An account joins the bank (created, loaded or imported) / leaves it (closed). Its ledger
+    // counts its own appends in between; no entry is appended while either runs.
+    void opened(Account a) {
+        Ledger l = a.getLedger();
+        transactions.add(l.size());
+        l.countIn(transactions);
+    }
+
+    void closed(Account a) {
+        Ledger l = a.getLedger();
+        l.countIn(null);
+        transactions.add(-l.size());
+    }
+
+    // ---------- Reading ----------
+    public long getCount(String op) { return calls(index(op)); }
+
+    public long getFailures(String op) { return failed(index(op)); }
+
+    private long calls(int op) { return (op < LOCKED ? stripeSum(op) : 0) + counts[op].sum(); }
+
+    private long failed(int op) { return (op < LOCKED ? stripeSum(8 + op) : 0) + failures[op].sum(); }
+
+    private long stripeSum(int column) {
+        long n = 0;
+        for (int k = column; k < stripeCounts.length; k += ROW) n += stripeCounts[k];
+        return n;
+    }
+
+    private static int index(String op) {
+        for (int i = 0; i < OPS; i++) if (NAMES[i].equals(op)) return i;
+        throw new IllegalArgumentException("Unknown operation: " + op);
+    }
+
+    // Every metric by name, in a fixed order (the JMX attributes, and the lines of toText)
+    public Map<String, Number> values() {
+        Map<String, Number> m = new LinkedHashMap<>();
+        for (int op = 0; op < OPS; op++) {
+            String n = NAMES[op];
+            m.put(n + ".count", calls(op));
+            m.put(n + ".failures", failed(op));
+            putLatency(m, n, latency[op].snapshot());
+        }
+        m.put("lockWait.count", lockWaits.sum());
+        putLatency(m, "lockWait", lockWait.snapshot());
+        m.put("journal.bytes", journalBytes.sum());
+        LatencyHistogram.Snapshot f = fsync.snapshot();
+        m.put("fsync.count", f.count);
+        putLatency(m, "fsync", f);
+        m.put("snapshot.count", snapshots.sum());
+        m.put("snapshot.bytes", snapshotBytes.sum());
+        m.put("accounts", (long) bank.accountCount());
+        m.put("transactions", transactions.sum());
+        return m;
+    }
+
+    // One metric by name (as in values), computing only that one; null if there is none
+    public Number value(String name) {
+        switch (name) {
+            case "lockWait.count": return lockWaits.sum();
+            case "journal.bytes": return journalBytes.sum();
+            case "fsync.count": return fsync.snapshot().count;
+            case "snapshot.count": return snapshots.sum();
+            case "snapshot.bytes": return snapshotBytes.sum();
+            case "accounts": return (long) bank.accountCount();
+            case "transactions": return transactions.sum();
+            default: break;
+        }
+        int dot = name.indexOf('.');
+        if (dot < 0) return null;
+        String base = name.substring(0, dot), field = name.substring(dot + 1);
+        int op = -1;
+        for (int i = 0; i < OPS; i++) if (NAMES[i].equals(base)) op = i;
+        if (op >= 0 && field.equals("count")) return calls(op);
+        if (op >= 0 && field.equals("failures")) return failed(op);
+        LatencyHistogram h = op >= 0 ? latency[op] : base.equals("lockWait") ? lockWait : base.equals("fsync") ? fsync : null;
+        return h == null ? null : latency(h.snapshot(), field);
+    }
+
+    // latency in microseconds from the sampled calls
+    private static final String[] LATENCY = { "meanMicros", "p50Micros", "p99Micros", "p999Micros", "maxMicros" };
+
+    private static void putLatency(Map<String, Number> m, String name, LatencyHistogram.Snapshot s) {
+        for (String field : LATENCY) m.put(name + "." + field, latency(s, field));
+    }
+
+    private static Double latency(LatencyHistogram.Snapshot s, String field) {
+        switch (field) {
+            case "meanMicros": return s.mean() / 1000.0;
+            case "p50Micros": return s.quantile(0.50) / 1000.0;
+            case "p99Micros": return s.quantile(0.99) / 1000.0;
+            case "p999Micros": return s.quantile(0.999) / 1000.0;
+            case "maxMicros": return s.max / 1000.0;
+            default: return null;
+        }
+    }
+
+    // One "name value" line per metric, e.g. "transfer.p99Micros 3.2"
+    public String toText() {
+        StringBuilder sb = new StringBuilder(4096);
+        for (Map.Entry<String, Number> e : values().entrySet()) {
+            sb.append(e.getKey()).append(' ');
+            Number v = e.getValue();
+            if (v instanceof Double) sb.append(String.format(Locale.ROOT, "%.3f", v.doubleValue()));
+            else sb.append(v.longValue());
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() { return toText(); }
+
+    // ---------- JMX ----------
+    // Register with the platform MBean server as Bank:type=Metrics,name=<name>
+    public void register(String name) {
+        try {
+            ObjectName on = new ObjectName("Bank:type=Metrics,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, on);
+            registered = on;
+        } catch (JMException e) {
+            throw new IllegalStateException("Cannot register metrics as " + name, e);
+        }
+    }
+
+    public void unregister() {
+        ObjectName on = registered;
+        if (on == null) return;
+        registered = null;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(on);
+        } catch (JMException e) {
+            // already gone
+        }
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Number v = value(attribute);
+        if (v == null) throw new AttributeNotFoundException(attribute);
+        return v;
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList list = new AttributeList();
+        for (String a : attributes) {
+            Number v = value(a);
+            if (v != null) list.add(new Attribute(a, v));
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) { return new AttributeList(); }
+
+    @Override
+    public Object invoke(String action, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(action));
+    }
+
+    // The attribute set never changes, so it is described once, from the names values() gives
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        MBeanInfo i = info;
+        if (i != null) return i;
+        List<MBeanAttributeInfo> attrs = new ArrayList<>();
+        for (Map.Entry<String, Number> e : values().entrySet()) {
+            String type = e.getValue() instanceof Double ? "double" : "long";
+            attrs.add(new MBeanAttributeInfo(e.getKey(), type, e.getKey(), true, false, false));
+        }
+        return info = new MBeanInfo(getClass().getName(), "Bank operation metrics",
+                attrs.toArray(new MBeanAttributeInfo[0]), null, null, null);
+    }
+}
@@ -0,0 +1,289 @@
+import java.io.*;
+import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// Headless line-based TCP front-end for a Bank.
+//
+// One request per line, one response per request, in request order; clients may pipeline (send
+// many requests before reading). Tokens are separated by single spaces; amounts are decimals.
+//
+//   PING                                   -> OK
+//   CREATE <pin> <initial> <holder name>   -> OK <account>
+//   LOGIN <account> <pin>                  -> OK <session>        (ERR ... on a wrong PIN)
+//   LOGOUT <session>                       -> OK
+//   BALANCE <session>                      -> OK <balance>
+//   DEPOSIT <session> <amount>             -> OK <balance>
+//   WITHDRAW <session> <amount>            -> OK <balance>        (ERR insufficient funds)
+//   TRANSFER <session> <to> <amount>       -> OK <balance>        (ERR insufficient funds,
+//                                                                  ERR payee balance would overflow)
+//   HISTORY <session> <offset> <limit>     -> OK <n>, then n CSV rows (StatementWriter format)
+//   EXPORT <session>                       -> OK <file>           (gzip CSV in the export dir)
+//   METRICS                                -> OK <n>, then n "name value" lines (BankMetrics)
+//   QUIT                                   -> OK, then the connection is closed
+//   anything that fails                    -> ERR <message>, and the connection goes on
+//
+// Every connection runs on its own thread: a virtual thread when the JVM has them (21+), else a
+// small-stack platform thread. A connection answers everything it has already received, then
+// commits the journal once (Bank.save, group commit across connections) and only then flushes
+// the responses, so an OK is never sent for a change that is not durable.
+public class BankServer implements Closeable {
+    private static final int BACKLOG = 4096;
+    private static final int MAX_HISTORY_PAGE = 1000;
+
+    private final Bank bank;
+    private final String dataFile;
+    private final Path exportDir;
+    private final ExecutorService connections = newThreadPerTaskExecutor("bank-conn");
+    private volatile ServerSocket server;
+    private volatile boolean closed;
+
+    public BankServer(Bank bank, String dataFile, Path exportDir) {
+        this.bank = bank;
+        this.dataFile = dataFile;
+        this.exportDir = exportDir;
+    }
+
+    // java BankServer [port] [data file] [export dir] [replication port]
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 7070;
+        String file = args.length > 1 ? args[1] : "accounts.dat";
+        Path exports = Paths.get(args.length > 2 ? args[2] : "exports");
+        Bank bank = Bank.load(file);
+        bank.metrics().register(file); // also visible over JMX
+        BankServer s = new BankServer(bank, file, exports);
+        Replicator replicator = args.length > 3 ? new Replicator(bank, file) : null;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                s.close();
+                if (replicator != null) replicator.close();
+            } catch (IOException ignored) { }
+        }));
+        System.out.println("Bank server listening on port " + s.start(port) + " (" + threadKind() + " threads)");
+        if (replicator != null) {
+            System.out.println("Replicating to standbys on port " + replicator.start(Integer.parseInt(args[3])));
+        }
+    }
+
+    // Bind (port 0 = any free port) and start accepting in the background; returns the bound port
+    public int start(int port) throws IOException {
+        Files.createDirectories(exportDir);
+        ServerSocket ss = new ServerSocket();
+        ss.setReuseAddress(true);
+        ss.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), BACKLOG);
+        server = ss;
+        Thread acceptor = new Thread(this::acceptLoop, "bank-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return ss.getLocalPort();
+    }
+
+    // Stop accepting, drop open connections and checkpoint the bank
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        if (server != null) server.close();
+        connections.shutdownNow();
+        try {
+            connections.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        bank.save(dataFile); // full snapshot if unjournaled, else commit
+        bank.checkpoint();
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                Socket s = server.accept();
+                s.setTcpNoDelay(true);
+                connections.execute(() -> serve(s));
+            } catch (IOException e) {
+                if (closed) return; // socket closed by close()
+            } catch (RuntimeException e) { // executor already shut down
+                return;
+            }
+        }
+    }
+
+    // ---------- Connection ----------
+    private void serve(Socket socket) {
+        try (Socket s = socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8), 1 << 14);
+             Writer out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8), 1 << 14)) {
+            StringBuilder reply = new StringBuilder(256);
+            boolean dirty = false; // a change is waiting for its commit
+            String line;
+            while ((line = in.readLine()) != null) {
+                reply.setLength(0);
+                boolean quit = line.equals("QUIT");
+                try {
+                    dirty |= handle(line, reply);
+                } catch (RuntimeException e) { // bad request, or a bank that refuses work: answer it
+                    reply.setLength(0);
+                    reply.append("ERR ").append(e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage());
+                }
+                out.append(reply).append('\n');
+                if (quit || !in.ready()) { // nothing more pipelined: commit once, then answer
+                    if (dirty && !bank.save(dataFile)) {
+                        out.append("ERR commit failed\n"); // earlier OKs in this batch are not durable
+                        out.flush();
+                        return;
+                    }
+                    dirty = false;
+                    out.flush();
+                }
+                if (quit) return;
+            }
+        } catch (IOException e) {
+            // client went away; nothing left to answer
+        }
+    }
+
+    // Run one request, writing its response into reply; true if it changed the bank
+    boolean handle(String line, StringBuilder reply) {
+        String[] t = line.split(" ", 4);
+        switch (t[0]) {
+            case "PING":
+                reply.append("OK");
+                return false;
+            case "QUIT":
+                reply.append("OK");
+                return false;
+            case "CREATE": {
+                need(t, 4, "CREATE <pin> <initial> <holder name>");
+                Account a = bank.createAccount(t[3], t[1], amount(t[2]));
+                reply.append("OK ").append(a.getAccountNumber());
+                return true;
+            }
+            case "LOGIN": {
+                need(t, 3, "LOGIN <account> <pin>");
+                String token = bank.login(t[1], t[2]);
+                reply.append(token == null ? "ERR invalid account or PIN" : "OK " + token);
+                return false;
+            }
+            case "LOGOUT":
+                need(t, 2, "LOGOUT <session>");
+                bank.logout(t[1]);
+                reply.append("OK");
+                return false;
+            case "BALANCE":
+                need(t, 2, "BALANCE <session>");
+                reply.append("OK ").append(session(t[1]).getBalance().toPlainString());
+                return false;
+            case "DEPOSIT": {
+                need(t, 3, "DEPOSIT <session> <amount>");
+                Account a = session(t[1]);
+                bank.deposit(a.getAccountNumber(), amount(t[2]));
+                reply.append("OK ").append(a.getBalance().toPlainString());
+                return true;
+            }
+            case "WITHDRAW": {
+                need(t, 3, "WITHDRAW <session> <amount>");
+                Account a = session(t[1]);
+                if (!bank.withdraw(a.getAccountNumber(), amount(t[2]))) {
+                    reply.append("ERR insufficient funds");
+                    return false;
+                }
+                reply.append("OK ").append(a.getBalance().toPlainString());
+                return true;
+            }
+            case "TRANSFER": {
+                need(t, 4, "TRANSFER <session> <to> <amount>");
+                Account a = session(t[1]);
+                BigDecimal amt = amount(t[3]);
+                if (!bank.transfer(a.getAccountNumber(), t[2], amt)) { // unknown accounts throw
+                    // refused for one of two reasons; the balances tell which (as of just now)
+                    reply.append(a.getBalance().compareTo(amt) < 0 ? "ERR insufficient funds"
+                            : "ERR payee balance would overflow");
+                    return false;
+                }
+                reply.append("OK ").append(a.getBalance().toPlainString());
+                return true;
+            }
+            case "HISTORY": {
+                need(t, 4, "HISTORY <session> <offset> <limit>");
+                int limit = Math.min(Integer.parseInt(t[3]), MAX_HISTORY_PAGE);
+                List<Transaction> page = bank.history(session(t[1]).getAccountNumber(), null, null,
+                        Integer.parseInt(t[2]), limit);
+                reply.append("OK ").append(page.size());
+                for (Transaction tr : page) reply.append('\n').append(tr.toCsvRow());
+                return false;
+            }
+            case "EXPORT": {
+                need(t, 2, "EXPORT <session>");
+                String accNo = session(t[1]).getAccountNumber();
+                Path file = exportDir.resolve(accNo + ".csv.gz").toAbsolutePath();
+                if (!bank.exportStatementCsv(accNo, file.toString(), true)) {
+                    reply.append("ERR export failed");
+                    return false;
+                }
+                reply.append("OK ").append(file);
+                return false;
+            }
+            case "METRICS": {
+                String text = bank.metrics().toText();
+                int lines = 0;
+                for (int k = 0; k < text.length(); k++) if (text.charAt(k) == '\n') lines++;
+                reply.append("OK ").append(lines).append('\n').append(text, 0, Math.max(0, text.length() - 1));
+                return false;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown command: " + t[0]);
+        }
+    }
+
+    private Account session(String token) {
+        Account a = bank.session(token);
+        if (a == null) throw new IllegalArgumentException("Not logged in");
+        return a;
+    }
+
+    private static BigDecimal amount(String s) {
+        try {
+            return new BigDecimal(s);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad amount: " + s);
+        }
+    }
+
+    private static void need(String[] t, int n, String usage) {
+        if (t.length < n) throw new IllegalArgumentException("Usage: " + usage);
+    }
+
+    // ---------- Threads ----------
+    // Executors.newVirtualThreadPerTaskExecutor() when running on a JDK that has it (looked up
+    // reflectively so the code still builds for Java 17), else one daemon platform thread per task
+    static ExecutorService newThreadPerTaskExecutor(String name) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread th = new Thread(null, r, name, 256 * 1024); // small stacks: thousands of connections
+                th.setDaemon(true);
+                return th;
+            });
+        }
+    }
+
+    static String threadKind() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return "virtual";
+        } catch (NoSuchMethodException e) {
+            return "platform";
+        }
+    }
+}
@@ -0,0 +1,872 @@
+import java.io.*;
+import java.math.BigDecimal;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+// Bulk loader for accounts and transaction history, for seeding a bank with production-size data
+// (bench/WorkloadGenerator writes such files). A file is cut into chunks that are parsed in
+// parallel and turned straight into Account and Ledger state: PINs are hashed on the workers and
+// the bank is quiesced once for the whole file instead of taking a stripe lock per row. Rows are
+// not journaled one by one; a journaled bank is checkpointed before an import returns, so the
+// imported data is durable and no later journal record refers to an account the snapshot lacks.
+// Standbys cannot replay that: an import refuses to start while any follows the bank, and the
+// one journal record it writes (Journal.IMPORT) makes standbys that connect later resync by snapshot.
+//
+// Two formats, told apart by the first bytes:
+//   CSV, one row per line (fields may be "quoted", "" inside for a quote, but not span lines;
+//   an optional first line starting with "account" is a header)
+//     accounts      account,name,pin,balance[,openedAt]
+//                   account blank = next free number; pin 4-6 digits or the 64 hex digits of its
+//                   SHA-256; balance like 12.34; openedAt epoch millis or 2024-01-31T09:00 (blank = now)
+//     transactions  account,at,type,amount[,party]
+//                   type DEPOSIT, WITHDRAWAL, TRANSFER_IN or TRANSFER_OUT; party = the other
+//                   account of a transfer (ignored otherwise)
+//   binary  magic "BNKI" | version | kind (1 accounts, 2 transactions) | frame*
+//           frame = byteLength | count | record*   (each frame is parsed on its own)
+//     account      number ("" = next free) | name | pinHash (32 bytes) | balance cents | openedAt
+//     transaction  account | at | type ordinal | amount cents | party ("" = none)
+//     strings as in SnapshotCodec (length + UTF-8)
+// The two rows of a transfer (TRANSFER_OUT on the payer, TRANSFER_IN on the payee, same time and
+// amount, each naming the other) are paired and applied together where the TRANSFER_OUT row is,
+// or not at all. Every account gets its rows in file order, so the outcome is that of applying the
+// file row by row; rows wait only for the rows before them on the same accounts, so the workers
+// share even a file where transfers link nearly every account (see Schedule). Malformed rows and
+// account numbers the bank has handed out already (numbers are never reused, even after a close)
+// fail the import (IOException) before the bank is changed; transactions that do not apply
+// (unknown account, not enough money, a transfer row without its mate, a row dated before the
+// account's latest entry, so before its openedAt too) are skipped and counted in rejected(), a
+// transfer once.
+public class BulkImporter {
+    static final int MAGIC = 0x424E4B49; // "BNKI"
+    static final int VERSION = 1;
+    static final int ACCOUNTS = 1, TRANSACTIONS = 2;
+    private static final int HEADER_BYTES = 12, FRAME_HEADER = 8;
+    private static final long MAX_CHUNK = 64L << 20; // a chunk is mapped in one piece
+    private static final TransactionType[] TYPES = TransactionType.values();
+    private static final byte TRANSFER_OUT = (byte) TransactionType.TRANSFER_OUT.ordinal(),
+            TRANSFER_IN = (byte) TransactionType.TRANSFER_IN.ordinal();
+
+    private final Bank bank;
+    private final AtomicLong rejected = new AtomicLong();
+    private volatile double parallelism;
+
+    public BulkImporter(Bank bank) { this.bank = bank; }
+
+    //   java BulkImporter <data file> <accounts file> [transactions file]
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: java BulkImporter <data file> <accounts file> [transactions file]");
+            System.exit(2);
+        }
+        Bank bank = Bank.load(args[0]);
+        BulkImporter importer = new BulkImporter(bank);
+        long start = System.nanoTime();
+        int accounts = importer.importAccounts(Paths.get(args[1]));
+        System.out.printf("%d accounts in %.1f s%n", accounts, (System.nanoTime() - start) / 1e9);
+        if (args.length > 2) {
+            start = System.nanoTime();
+            long rows = importer.importTransactions(Paths.get(args[2]));
+            System.out.printf("%d transactions (%d rejected) in %.1f s%n", rows, importer.rejected(),
+                    (System.nanoTime() - start) / 1e9);
+        }
+        if (!bank.save(args[0])) System.err.println("Cannot save " + args[0]);
+        bank.closeFiles();
+    }
+
+    // Transactions skipped so far because they could not apply
+    public long rejected() { return rejected.get(); }
+
+    // Rows the last importTransactions could apply at once, on average: rows over the longest
+    // chain of rows that had to wait for each other (1 = strictly one after another)
+    public double parallelism() { return parallelism; }
+
+    // ---------- Accounts ----------
+    private static final class AccountRow {
+        String number; // null = next free number
+        String name;
+        byte[] pinHash;
+        long balance, openedAt;
+    }
+
+    // Add every account in file; returns how many
+    public int importAccounts(Path file) throws IOException {
+        List<List<AccountRow>> chunks = parse(file, ACCOUNTS, new ChunkParser<List<AccountRow>>() {
+            @Override public List<AccountRow> csv(Csv in) throws IOException {
+                List<AccountRow> rows = new ArrayList<>();
+                long now = System.currentTimeMillis();
+                while (in.next()) {
+                    if (in.fields < 4) throw in.error("Expected account,name,pin,balance[,openedAt]");
+                    AccountRow r = new AccountRow();
+                    r.number = in.field(0).isEmpty() ? null : number(in, in.field(0));
+                    r.name = in.field(1).trim();
+                    String pin = in.field(2);
+                    if (pin.matches("\\d{4,6}")) r.pinHash = PinHash.hash(pin);
+                    else if (pin.length() == 2 * PinHash.BYTES) r.pinHash = hex(in, pin);
+                    else throw in.error("PIN must be 4-6 digits or a SHA-256 hash");
+                    r.balance = cents(in, in.field(3));
+                    r.openedAt = in.fields > 4 && !in.field(4).isEmpty() ? time(in, in.field(4)) : now;
+                    if (r.name.isEmpty()) throw in.error("Name required");
+                    if (r.balance < 0) throw in.error("Negative balance");
+                    rows.add(r);
+                }
+                return rows;
+            }
+
+            @Override public List<AccountRow> binary(ByteBuffer in, int count, String where) throws IOException {
+                List<AccountRow> rows = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    AccountRow r = new AccountRow();
+                    String n = SnapshotCodec.getString(in);
+                    r.number = n.isEmpty() ? null : n;
+                    r.name = SnapshotCodec.getString(in);
+                    r.pinHash = new byte[PinHash.BYTES];
+                    in.get(r.pinHash);
+                    r.balance = in.getLong();
+                    r.openedAt = in.getLong();
+                    if (r.name.isEmpty() || r.balance < 0 || (r.number != null && !isAccountNumber(r.number))) {
+                        throw new IOException(where + ": bad account record " + i);
+                    }
+                    rows.add(r);
+                }
+                return rows;
+            }
+        });
+        List<AccountRow> rows = new ArrayList<>();
+        for (List<AccountRow> c : chunks) rows.addAll(c);
+        return bank.quiesced(() -> {
+            bank.checkImportAllowed();
+            Set<String> seen = new HashSet<>();
+            List<AccountRow> numbered = new ArrayList<>(), unnumbered = new ArrayList<>();
+            long next = bank.nextAccountNumberValue(); // every number below it is (or was) taken
+            for (AccountRow r : rows) {
+                if (r.number == null) {
+                    unnumbered.add(r);
+                } else {
+                    if (!seen.add(r.number) || bank.getAccount(r.number) != null) {
+                        throw new IOException(file + ": account " + r.number + " already exists");
+                    }
+                    if (Bank.accountKey(r.number) < next) {
+                        throw new IOException(file + ": account " + r.number + " was handed out before (new numbers start at ACC" + next + ")");
+                    }
+                    numbered.add(r);
+                }
+            }
+            // numbered accounts first: they move the next free number past themselves
+            numbered.parallelStream().forEach(this::open);
+            for (AccountRow r : unnumbered) r.number = bank.nextAccountNumber();
+            unnumbered.parallelStream().forEach(this::open);
+            bank.markImported(file.toString(), rows.size());
+            bank.checkpoint();
+            return rows.size();
+        });
+    }
+
+    private void open(AccountRow r) {
+        bank.putImported(new Account(r.number, r.name, r.pinHash, r.balance, r.openedAt));
+    }
+
+    // ---------- Transactions ----------
+    // One parsed chunk, column by column; the apply phase adds the per-row state
+    private static final class TxChunk {
+        long[] key = new long[1024], party = new long[1024]; // account numbers; party -1 = none
+        long[] at = new long[1024], amount = new long[1024];
+        byte[] type = new byte[1024];
+        int n;
+        int[] slot;     // AccountTable slot of the row's account, -1 = unknown
+        long[] mate;    // other row of a transfer (chunk << 32 | row), -1 = none
+        boolean[] skip; // rejected up front
+
+        void add(long k, long t, byte ty, long amt, long p) {
+            if (n == at.length) {
+                int cap = n * 2;
+                key = Arrays.copyOf(key, cap);
+                party = Arrays.copyOf(party, cap);
+                at = Arrays.copyOf(at, cap);
+                amount = Arrays.copyOf(amount, cap);
+                type = Arrays.copyOf(type, cap);
+            }
+            key[n] = k;
+            at[n] = t;
+            type[n] = ty;
+            amount[n] = amt;
+            party[n] = p;
+            n++;
+        }
+
+        boolean isTransfer(int i) { return type[i] == TRANSFER_OUT || type[i] == TRANSFER_IN; }
+
+        // Row i of this chunk and row j of d are the two sides of one transfer
+        boolean mates(int i, TxChunk d, int j) {
+            return type[i] != d.type[j] && d.isTransfer(j) && at[i] == d.at[j] && amount[i] == d.amount[j]
+                    && key[i] == d.party[j] && party[i] == d.key[j];
+        }
+
+        // Row i is applied on its own: not skipped, and not the TRANSFER_IN half of a pair
+        boolean applies(int i) { return !skip[i] && (mate[i] < 0 || type[i] == TRANSFER_OUT); }
+    }
+
+    // A transfer as both of its rows describe it, for pairing them up
+    private static final class TransferKey {
+        final long payer, payee, at, amount;
+
+        TransferKey(TxChunk c, int i) {
+            boolean out = c.type[i] == TRANSFER_OUT;
+            payer = out ? c.key[i] : c.party[i];
+            payee = out ? c.party[i] : c.key[i];
+            at = c.at[i];
+            amount = c.amount[i];
+        }
+
+        @Override public boolean equals(Object o) {
+            if (!(o instanceof TransferKey)) return false;
+            TransferKey k = (TransferKey) o;
+            return payer == k.payer && payee == k.payee && at == k.at && amount == k.amount;
+        }
+
+        @Override public int hashCode() { return Long.hashCode(payer * 31 + payee) * 31 + Long.hashCode(at * 31 + amount); }
+    }
+
+    // Accounts by number for the apply phase: open addressing over the numeric keys, so a row
+    // costs one or two array reads instead of hashing a freshly parsed String
+    private static final class AccountTable {
+        private final long[] keys;
+        private final Account[] values;
+        private final int mask;
+
+        AccountTable(Collection<Account> accounts) {
+            int cap = Integer.highestOneBit(Math.max(16, accounts.size() * 2 - 1)) << 1;
+            keys = new long[cap];
+            values = new Account[cap];
+            mask = cap - 1;
+            for (Account a : accounts) {
+                long k = Bank.accountKey(a.getAccountNumber());
+                int i = home(k);
+                while (values[i] != null) i = (i + 1) & mask;
+                keys[i] = k;
+                values[i] = a;
+            }
+        }
+
+        int capacity() { return values.length; }
+
+        // Slot of account k, -1 if there is none
+        int slotOf(long k) {
+            for (int i = home(k); values[i] != null; i = (i + 1) & mask) if (keys[i] == k) return i;
+            return -1;
+        }
+
+        Account at(int slot) { return values[slot]; }
+
+        private int home(long k) { return (int) ((k * 0x9E3779B97F4A7C15L) >>> 40) & mask; }
+    }
+
+    // Apply every transaction in file to the accounts it names; returns how many rows were applied
+    // (a transfer is two)
+    public long importTransactions(Path file) throws IOException {
+        List<TxChunk> chunks = parse(file, TRANSACTIONS, new ChunkParser<TxChunk>() {
+            @Override public TxChunk csv(Csv in) throws IOException {
+                TxChunk c = new TxChunk();
+                while (in.next()) {
+                    if (in.fields < 4) throw in.error("Expected account,at,type,amount[,party]");
+                    byte type = type(in, in.field(2));
+                    long amount = cents(in, in.field(3));
+                    if (amount <= 0) throw in.error("Amount must be positive");
+                    String party = in.fields > 4 ? in.field(4).trim() : "";
+                    c.add(Bank.accountKey(number(in, in.field(0))), time(in, in.field(1)), type, amount,
+                            isAccountNumber(party) ? Bank.accountKey(party) : -1);
+                }
+                return c;
+            }
+
+            @Override public TxChunk binary(ByteBuffer in, int count, String where) throws IOException {
+                TxChunk c = new TxChunk();
+                for (int i = 0; i < count; i++) {
+                    long key = key(in);
+                    long at = in.getLong();
+                    byte type = in.get();
+                    long amount = in.getLong();
+                    long party = key(in);
+                    if (key < 0 || type <= TransactionType.INITIAL.ordinal() || type >= TYPES.length || amount <= 0) {
+                        throw new IOException(where + ": bad transaction record " + i);
+                    }
+                    c.add(key, at, type, amount, party);
+                }
+                return c;
+            }
+        });
+        return bank.quiesced(() -> {
+            bank.checkImportAllowed();
+            AccountTable accounts = new AccountTable(bank.accountsView());
+            rejected.addAndGet(prepare(chunks, accounts));
+            Schedule schedule = new Schedule(chunks, accounts);
+            ForkJoinPool.commonPool().invoke(schedule.new Run(null, -1));
+            parallelism = schedule.parallelism();
+            rejected.addAndGet(schedule.failed.sum());
+            long applied = schedule.applied.sum();
+            bank.markImported(file.toString(), applied);
+            bank.checkpoint();
+            return applied;
+        });
+    }
+
+    // The rows to apply as a dependency graph: each one waits for the row before it on each of
+    // its accounts (two for a transfer) and for nothing else. Any order that keeps to that gives
+    // every account its rows in file order, so all orders end in the same state, and rows on
+    // unrelated accounts run on different workers even when transfers link every account to
+    // every other (a Zipf workload puts nearly all of them in one connected group, which grouping
+    // accounts by worker would have run on one thread).
+    private static final class Schedule {
+        final List<TxChunk> chunks;
+        final AccountTable accounts;
+        final int[] chunk, row;            // where unit u (a row to apply) is in the file
+        final int[] first, second;         // slots of its accounts; second -1 = none
+        final int[] nextFirst, nextSecond; // next unit on the same account, -1 = none
+        final AtomicIntegerArray waiting;  // units before it on its accounts not applied yet
+        final int[] roots;                 // units waiting for nothing
+        final long longest;                // units in the longest chain of waits
+        final LongAdder applied = new LongAdder(), failed = new LongAdder();
+
+        // Units in file order, each linked behind the last unit before it on each of its accounts
+        Schedule(List<TxChunk> chunks, AccountTable accounts) {
+            this.chunks = chunks;
+            this.accounts = accounts;
+            int n = 0;
+            for (TxChunk c : chunks) for (int i = 0; i < c.n; i++) if (c.applies(i)) n = Math.addExact(n, 1);
+            chunk = new int[n];
+            row = new int[n];
+            first = new int[n];
+            second = new int[n];
+            nextFirst = new int[n];
+            nextSecond = new int[n];
+            waiting = new AtomicIntegerArray(n);
+            int[] last = new int[accounts.capacity()], depth = new int[n];
+            Arrays.fill(last, -1);
+            int u = 0, rootCount = 0;
+            long deepest = 0;
+            for (int ci = 0; ci < chunks.size(); ci++) {
+                TxChunk c = chunks.get(ci);
+                for (int i = 0; i < c.n; i++) {
+                    if (!c.applies(i)) continue;
+                    long m = c.mate[i];
+                    chunk[u] = ci;
+                    row[u] = i;
+                    first[u] = c.slot[i];
+                    second[u] = m < 0 ? -1 : chunks.get((int) (m >>> 32)).slot[(int) m];
+                    nextFirst[u] = nextSecond[u] = -1;
+                    int p = follow(last, first[u], u), q = second[u] < 0 ? -1 : follow(last, second[u], u);
+                    int w = (p < 0 ? 0 : 1) + (q < 0 ? 0 : 1);
+                    waiting.set(u, w);
+                    if (w == 0) rootCount++;
+                    depth[u] = 1 + Math.max(p < 0 ? 0 : depth[p], q < 0 ? 0 : depth[q]);
+                    deepest = Math.max(deepest, depth[u]);
+                    u++;
+                }
+            }
+            roots = new int[rootCount];
+            for (int k = 0, r = 0; k < n; k++) if (waiting.get(k) == 0) roots[r++] = k;
+            longest = deepest;
+        }
+
+        // Put unit u behind the last unit on slot; returns that unit, -1 if none
+        private int follow(int[] last, int slot, int u) {
+            int p = last[slot];
+            last[slot] = u;
+            if (p >= 0 && first[p] == slot) nextFirst[p] = u;
+            else if (p >= 0) nextSecond[p] = u;
+            return p;
+        }
+
+        double parallelism() { return longest == 0 ? 1 : (double) chunk.length / longest; }
+
+        void apply(int u) {
+            TxChunk c = chunks.get(chunk[u]);
+            int i = row[u];
+            boolean ok = c.mate[i] < 0 ? BulkImporter.apply(accounts.at(first[u]), c, i)
+                    : transfer(accounts.at(first[u]), accounts.at(second[u]), c, i); // its TRANSFER_IN row goes with it
+            if (!ok) failed.increment();
+            else applied.add(c.mate[i] < 0 ? 1 : 2);
+        }
+
+        // Applies units one after another from `from`, going on with the first unit each one
+        // releases and forking a new Run for any other; the root (from = -1) forks one per root unit
+        final class Run extends CountedCompleter<Void> {
+            private final int from;
+
+            Run(CountedCompleter<?> parent, int from) {
+                super(parent);
+                this.from = from;
+            }
+
+            @Override
+            public void compute() {
+                if (from < 0) {
+                    setPendingCount(roots.length);
+                    for (int r : roots) new Run(this, r).fork();
+                    tryComplete();
+                    return;
+                }
+                for (int u = from; u >= 0; ) {
+                    apply(u);
+                    int a = released(nextFirst[u]), b = released(nextSecond[u]);
+                    if (a >= 0 && b >= 0) {
+                        addToPendingCount(1);
+                        new Run(this, b).fork();
+                    }
+                    u = a >= 0 ? a : b;
+                }
+                tryComplete();
+            }
+
+            // v if this was the last unit it waited for, else -1
+            private int released(int v) { return v >= 0 && waiting.decrementAndGet(v) == 0 ? v : -1; }
+        }
+    }
+
+    // Pair the two rows of every transfer: a TRANSFER_OUT of the payer naming the payee and a
+    // TRANSFER_IN of the payee naming the payer, at the same time for the same amount (equal
+    // transfers pair up in file order). Rows that cannot apply at all (unknown account, transfer
+    // row without its mate, transfer to the same account) are skipped; returns how many rejections
+    // that makes, one per transfer.
+    private static long prepare(List<TxChunk> chunks, AccountTable accounts) {
+        Map<TransferKey, ArrayDeque<Long>> outs = new HashMap<>(), ins = new HashMap<>(); // rows missing their mate
+        long refused = 0;
+        for (int ci = 0; ci < chunks.size(); ci++) {
+            TxChunk c = chunks.get(ci);
+            c.slot = new int[c.n];
+            c.mate = new long[c.n];
+            c.skip = new boolean[c.n];
+            for (int i = 0; i < c.n; i++) c.slot[i] = accounts.slotOf(c.key[i]);
+            Arrays.fill(c.mate, -1);
+            for (int i = 0; i < c.n; i++) {
+                if (!c.isTransfer(i) || c.mate[i] >= 0) continue;
+                long ref = (long) ci << 32 | i;
+                if (c.party[i] < 0) { // names no account: nothing to pair with
+                    c.skip[i] = true;
+                    refused++;
+                } else if (i + 1 < c.n && c.mates(i, c, i + 1)) { // the usual layout: both rows together
+                    c.mate[i] = ref + 1;
+                    c.mate[i + 1] = ref;
+                } else {
+                    TransferKey k = new TransferKey(c, i);
+                    boolean out = c.type[i] == TRANSFER_OUT;
+                    ArrayDeque<Long> q = (out ? ins : outs).get(k);
+                    if (q == null) {
+                        (out ? outs : ins).computeIfAbsent(k, x -> new ArrayDeque<>()).add(ref);
+                        continue;
+                    }
+                    long other = q.poll();
+                    if (q.isEmpty()) (out ? ins : outs).remove(k);
+                    c.mate[i] = other;
+                    chunks.get((int) (other >>> 32)).mate[(int) other] = ref;
+                }
+            }
+        }
+        for (Map<TransferKey, ArrayDeque<Long>> left : List.of(outs, ins)) {
+            for (ArrayDeque<Long> q : left.values()) {
+                for (long ref : q) chunks.get((int) (ref >>> 32)).skip[(int) ref] = true;
+                refused += q.size();
+            }
+        }
+        for (int ci = 0; ci < chunks.size(); ci++) {
+            TxChunk c = chunks.get(ci);
+            for (int i = 0; i < c.n; i++) {
+                if (c.skip[i]) continue;
+                long m = c.mate[i];
+                if (m < 0) { // deposit or withdrawal
+                    if (c.slot[i] < 0) {
+                        c.skip[i] = true;
+                        refused++;
+                    }
+                    continue;
+                }
+                if (m < ((long) ci << 32 | i)) continue; // pair checked at its first row
+                TxChunk mc = chunks.get((int) (m >>> 32));
+                int j = (int) m, a = c.slot[i], b = mc.slot[j];
+                if (a < 0 || b < 0 || a == b) {
+                    c.skip[i] = mc.skip[j] = true;
+                    refused++;
+                }
+            }
+        }
+        return refused;
+    }
+
+    private static boolean apply(Account a, TxChunk c, int i) {
+        long amount = c.amount[i], at = c.at[i];
+        if (backdated(a, at)) return false;
+        try {
+            switch (TYPES[c.type[i]]) {
+                case DEPOSIT:
+                    a.deposit(amount, at);
+                    return true;
+                case WITHDRAWAL:
+                    return a.withdraw(amount, at);
+                default:
+                    return false;
+            }
+        } catch (ArithmeticException e) { // balance overflow
+            return false;
+        }
+    }
+
+    // Both rows of the transfer whose TRANSFER_OUT row is row i of c, or neither
+    private static boolean transfer(Account payer, Account payee, TxChunk c, int i) {
+        long amount = c.amount[i], at = c.at[i];
+        if (backdated(payer, at) || backdated(payee, at)) return false;
+        if (payer.getBalanceCents() < amount || payee.getBalanceCents() > Long.MAX_VALUE - amount) return false;
+        payer.transferOut(amount, payee.getAccountNumber(), at);
+        payee.transferIn(amount, payer.getAccountNumber(), at);
+        return true;
+    }
+
+    // A row dated before the account's latest entry (the opening one at least): the ledger keeps
+    // entries in time order, so it would have to move the row's date
+    private static boolean backdated(Account a, long at) {
+        Ledger l = a.getLedger();
+        return at < l.timeAt(l.size() - 1);
+    }
+
+    // ---------- Chunked parsing ----------
+    private interface ChunkParser<T> {
+        T csv(Csv in) throws IOException;
+        T binary(ByteBuffer in, int count, String where) throws IOException;
+    }
+
+    // Cut file into chunks (CSV lines or binary frames), parse them in parallel; results in file order
+    private static <T> List<T> parse(Path file, int kind, ChunkParser<T> parser) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = ch.size();
+            ByteBuffer head = ByteBuffer.allocate(HEADER_BYTES);
+            while (head.hasRemaining() && ch.read(head, head.position()) > 0) { }
+            boolean binary = head.position() >= 4 && head.getInt(0) == MAGIC;
+            long[] bounds;
+            if (binary) {
+                if (head.position() < HEADER_BYTES || head.getInt(4) != VERSION) throw new IOException(file + ": unsupported batch file version");
+                if (head.getInt(8) != kind) throw new IOException(file + ": not a " + (kind == ACCOUNTS ? "accounts" : "transactions") + " file");
+                bounds = frames(ch, size, file);
+            } else {
+                bounds = lines(ch, size);
+            }
+            List<T> out = new ArrayList<>(Collections.nCopies(bounds.length - 1, null));
+            try {
+                IntStream.range(0, bounds.length - 1).parallel().forEach(k -> {
+                    long from = bounds[k], len = bounds[k + 1] - from;
+                    try {
+                        MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, from, len);
+                        T result;
+                        if (binary) {
+                            int count = buf.getInt(4);
+                            buf.position(FRAME_HEADER);
+                            result = parser.binary(buf, count, file + " at byte " + from);
+                            if (buf.hasRemaining()) throw new IOException(file + " at byte " + from + ": frame longer than its records");
+                        } else {
+                            result = parser.csv(new Csv(buf, from, file, k == 0));
+                        }
+                        out.set(k, result);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    } catch (RuntimeException e) { // BufferUnderflowException and the like: a truncated record
+                        throw new UncheckedIOException(new IOException(file + " at byte " + from + ": corrupt batch", e));
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            return out;
+        }
+    }
+
+    // Chunk bounds at line starts, at most MAX_CHUNK apart and a few per worker
+    private static long[] lines(FileChannel ch, long size) throws IOException {
+        int parts = (int) Math.max(ForkJoinPool.getCommonPoolParallelism() * 4L, (size + MAX_CHUNK - 1) / MAX_CHUNK);
+        long[] bounds = new long[parts + 1];
+        ByteBuffer b = ByteBuffer.allocate(4096);
+        int n = 1;
+        for (int k = 1; k < parts; k++) {
+            long pos = Math.max(bounds[n - 1], size * k / parts);
+            long found = size;
+            scan:
+            while (pos < size) { // the line start after pos
+                b.clear();
+                int r = ch.read(b, pos);
+                if (r <= 0) break;
+                for (int i = 0; i < r; i++) {
+                    if (b.get(i) == '\n') {
+                        found = pos + i + 1;
+                        break scan;
+                    }
+                }
+                pos += r;
+            }
+            if (found > bounds[n - 1] && found < size) bounds[n++] = found;
+        }
+        bounds[n++] = size;
+        return Arrays.copyOf(bounds, n);
+    }
+
+    // Frame bounds after the file header
+    private static long[] frames(FileChannel ch, long size, Path file) throws IOException {
+        long[] bounds = new long[64];
+        int n = 0;
+        long pos = HEADER_BYTES;
+        ByteBuffer head = ByteBuffer.allocate(FRAME_HEADER);
+        bounds[n++] = pos;
+        while (pos < size) {
+            head.clear();
+            while (head.hasRemaining() && ch.read(head, pos + head.position()) > 0) { }
+            if (head.hasRemaining()) throw new IOException(file + ": truncated frame at byte " + pos);
+            long len = head.getInt(0);
+            if (len < 0 || pos + FRAME_HEADER + len > size) throw new IOException(file + ": truncated frame at byte " + pos);
+            pos += FRAME_HEADER + len;
+            if (n == bounds.length) bounds = Arrays.copyOf(bounds, n * 2);
+            bounds[n++] = pos;
+        }
+        return Arrays.copyOf(bounds, n);
+    }
+
+    // CSV lines of one chunk, split into fields
+    private static final class Csv {
+        private final ByteBuffer in;
+        private final long base;
+        private final Path file;
+        private boolean first;
+        private byte[] scratch = new byte[256];
+        private String[] values = new String[8];
+        private long lineStart;
+        int fields;
+
+        Csv(ByteBuffer in, long base, Path file, boolean first) {
+            this.in = in;
+            this.base = base;
+            this.file = file;
+            this.first = first;
+        }
+
+        String field(int i) { return values[i]; }
+
+        // Read the next non-empty line; false at the end of the chunk
+        boolean next() throws IOException {
+            while (in.hasRemaining()) {
+                lineStart = in.position();
+                fields = 0;
+                boolean more = true;
+                while (more) more = readField();
+                if (fields == 1 && values[0].isEmpty()) continue; // blank line
+                if (first) {
+                    first = false;
+                    if (values[0].regionMatches(true, 0, "account", 0, 7)) continue; // header
+                }
+                return true;
+            }
+            return false;
+        }
+
+        // One field into values[fields++]; false if it ended the line
+        private boolean readField() throws IOException {
+            int n = 0;
+            boolean quoted = in.hasRemaining() && in.get(in.position()) == '"', ended = true;
+            if (quoted) in.get();
+            while (in.hasRemaining()) {
+                byte c = in.get();
+                if (quoted) {
+                    if (c == '"') {
+                        if (in.hasRemaining() && in.get(in.position()) == '"') in.get();
+                        else { quoted = false; continue; }
+                    } else if (c == '\n') {
+                        throw error("Unterminated quote");
+                    }
+                } else if (c == ',') {
+                    ended = false;
+                    break;
+                } else if (c == '\n') {
+                    break;
+                } else if (c == '\r') {
+                    continue;
+                }
+                if (n == scratch.length) scratch = Arrays.copyOf(scratch, n * 2);
+                scratch[n++] = c;
+            }
+            if (quoted) throw error("Unterminated quote");
+            if (fields == values.length) values = Arrays.copyOf(values, fields * 2);
+            values[fields++] = new String(scratch, 0, n, StandardCharsets.UTF_8);
+            return !ended;
+        }
+
+        IOException error(String message) {
+            return new IOException(file + " at byte " + (base + lineStart) + ": " + message);
+        }
+    }
+
+    // ---------- Field parsing ----------
+    // "ACC" and a number without leading zeros, as Bank hands them out
+    private static boolean isAccountNumber(String s) {
+        if (s.length() < 4 || s.length() > 21 || !s.startsWith("ACC") || (s.charAt(3) == '0' && s.length() > 4)) return false;
+        for (int i = 3; i < s.length(); i++) if (s.charAt(i) < '0' || s.charAt(i) > '9') return false;
+        return true;
+    }
+
+    // Numeric part of a binary-encoded account number, read without making a String; -1 if it is
+    // not one (e.g. "" for no party). The string is always stepped over.
+    private static long key(ByteBuffer in) {
+        int len = in.getInt(), p = in.position();
+        if (len < 0 || in.remaining() < len) throw new BufferUnderflowException(); // truncated record
+        in.position(p + len);
+        if (len < 4 || len > 21) return -1;
+        if (in.get(p) != 'A' || in.get(p + 1) != 'C' || in.get(p + 2) != 'C' || (in.get(p + 3) == '0' && len > 4)) return -1;
+        long k = 0;
+        for (int i = p + 3; i < p + len; i++) {
+            int d = in.get(i) - '0';
+            if (d < 0 || d > 9) return -1;
+            k = k * 10 + d;
+        }
+        return k;
+    }
+
+    private static String number(Csv in, String s) throws IOException {
+        s = s.trim();
+        if (!isAccountNumber(s)) throw in.error("Bad account number " + s);
+        return s;
+    }
+
+    private static byte[] hex(Csv in, String s) throws IOException {
+        try {
+            return PinHash.fromHex(s);
+        } catch (IllegalArgumentException e) {
+            throw in.error("Bad PIN hash");
+        }
+    }
+
+    private static long cents(Csv in, String s) throws IOException {
+        try {
+            return Money.toCents(new BigDecimal(s.trim()));
+        } catch (ArithmeticException | NumberFormatException e) {
+            throw in.error("Bad amount " + s);
+        }
+    }
+
+    private static long time(Csv in, String s) throws IOException {
+        s = s.trim();
+        try {
+            if (s.indexOf('-') > 0) return LocalDateTime.parse(s).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            return Long.parseLong(s);
+        } catch (RuntimeException e) {
+            throw in.error("Bad time " + s);
+        }
+    }
+
+    private static byte type(Csv in, String s) throws IOException {
+        try {
+            TransactionType t = TransactionType.valueOf(s.trim());
+            if (t != TransactionType.INITIAL) return (byte) t.ordinal();
+        } catch (IllegalArgumentException e) {
+            // fall through
+        }
+        throw in.error("Bad type " + s);
+    }
+
+    // ---------- Writing batch files ----------
+    // Writes a batch file of one kind: binary when the name ends in .bin, CSV otherwise
+    static final class Writer implements Closeable {
+        private static final int FRAME_BYTES = 1 << 20;
+        private final OutputStream out;
+        private final boolean binary;
+        private ByteBuffer frame;
+        private int count;
+        private final StringBuilder line = new StringBuilder(128);
+
+        Writer(Path file, int kind) throws IOException {
+            out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16);
+            binary = file.getFileName().toString().endsWith(".bin");
+            if (binary) {
+                ByteBuffer head = ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(VERSION).putInt(kind);
+                out.write(head.array());
+                frame = ByteBuffer.allocate(FRAME_BYTES);
+                frame.position(FRAME_HEADER);
+            } else {
+                out.write((kind == ACCOUNTS ? "account,name,pin,balance,openedAt\n" : "account,at,type,amount,party\n")
+                        .getBytes(StandardCharsets.US_ASCII));
+            }
+        }
+
+        // number null = let the importer pick one; CSV files carry the hex of pinHash
+        void account(String number, String name, byte[] pinHash, long balance, long openedAt) throws IOException {
+            if (binary) {
+                room(SnapshotCodec.maxStringSize(number == null ? "" : number) + SnapshotCodec.maxStringSize(name) + 48);
+                SnapshotCodec.putString(frame, number == null ? "" : number);
+                SnapshotCodec.putString(frame, name);
+                frame.put(pinHash).putLong(balance).putLong(openedAt);
+                count++;
+            } else {
+                line.setLength(0);
+                if (number != null) line.append(number);
+                line.append(',');
+                quoted(name);
+                line.append(',').append(PinHash.toHex(pinHash)).append(',').append(Money.toDecimal(balance).toPlainString())
+                        .append(',').append(openedAt).append('\n');
+                out.write(line.toString().getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        void transaction(String account, long at, TransactionType type, long amount, String party) throws IOException {
+            if (binary) {
+                room(SnapshotCodec.maxStringSize(account) + SnapshotCodec.maxStringSize(party == null ? "" : party) + 17);
+                SnapshotCodec.putString(frame, account);
+                frame.putLong(at).put((byte) type.ordinal()).putLong(amount);
+                SnapshotCodec.putString(frame, party == null ? "" : party);
+                count++;
+            } else {
+                line.setLength(0);
+                line.append(account).append(',').append(at).append(',').append(type.name()).append(',')
+                        .append(Money.toDecimal(amount).toPlainString()).append(',');
+                if (party != null) quoted(party);
+                line.append('\n');
+                out.write(line.toString().getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        private void quoted(String s) {
+            if (s.indexOf(',') < 0 && s.indexOf('"') < 0) line.append(s);
+            else line.append('"').append(s.replace("\"", "\"\"")).append('"');
+        }
+
+        // Make room for one record of up to `bytes`, ending the current frame if needed
+        private void room(int bytes) throws IOException {
+            if (frame.remaining() >= bytes) return;
+            flushFrame();
+            if (frame.remaining() < bytes) {
+                frame = ByteBuffer.allocate(FRAME_HEADER + bytes);
+                frame.position(FRAME_HEADER);
+            }
+        }
+
+        private void flushFrame() throws IOException {
+            if (count == 0) return;
+            frame.putInt(0, frame.position() - FRAME_HEADER).putInt(4, count);
+            out.write(frame.array(), 0, frame.position());
+            frame.clear().position(FRAME_HEADER);
+            count = 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (binary) flushFrame();
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,188 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Cold tier of transaction history: compressed, immutable segment files in <data file>.archive/.
+// Each history compaction (Bank.checkpoint with a retention set) writes one new segment
+//
+//   magic "BNKA" | version | chunk*      chunk = rawLength | length | crc | deflated bytes
+//
+// where every chunk is one full Ledger chunk deflated on its own, so a reader gets any chunk back
+// with one positioned read. Ledgers keep the (segment, offset) of their archived chunks; segment
+// files are never modified, and opened for reading on first use.
+final class HistoryArchive implements Closeable {
+    private static final int MAGIC = 0x424E4B41; // "BNKA"
+    private static final int VERSION = 1;
+    private static final int FILE_HEADER = 8, CHUNK_HEADER = 12;
+    private static final String SUFFIX = ".seg";
+
+    private final Path dir;
+    private final ConcurrentHashMap<Integer, FileChannel> readers = new ConcurrentHashMap<>();
+    private int nextSegment; // guarded by this
+
+    private HistoryArchive(Path dir, int nextSegment) {
+        this.dir = dir;
+        this.nextSegment = nextSegment;
+    }
+
+    // Open the archive in dir (created with the first segment); new segments are numbered after
+    // every file already there, so a segment left behind by a crash is never overwritten
+    static HistoryArchive open(Path dir) throws IOException {
+        int next = 0;
+        for (Path p : files(dir)) next = Math.max(next, number(p) + 1);
+        return new HistoryArchive(dir, next);
+    }
+
+    // Every segment file in dir
+    static List<Path> files(Path dir) throws IOException {
+        List<Path> out = new ArrayList<>();
+        if (!Files.isDirectory(dir)) return out;
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            for (Path p : ds) out.add(p);
+        }
+        return out;
+    }
+
+    // ---------- Writing ----------
+    Segment newSegment() throws IOException {
+        int n;
+        synchronized (this) { n = nextSegment++; }
+        Files.createDirectories(dir);
+        return new Segment(n, FileChannel.open(dir.resolve(n + SUFFIX), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.WRITE));
+    }
+
+    // One segment being written (by one thread); durable once finish() returns
+    final class Segment implements Closeable {
+        final int number;
+        private final FileChannel ch;
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        private byte[] out = new byte[1 << 16];
+        private long position;
+
+        private Segment(int number, FileChannel ch) throws IOException {
+            this.number = number;
+            this.ch = ch;
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER).putInt(MAGIC).putInt(VERSION);
+            header.flip();
+            write(header);
+        }
+
+        // Deflate raw[0, len) as one chunk; returns its offset in this segment
+        long append(byte[] raw, int len) throws IOException {
+            deflater.reset();
+            deflater.setInput(raw, 0, len);
+            deflater.finish();
+            int n = 0;
+            while (!deflater.finished()) {
+                if (n == out.length) out = java.util.Arrays.copyOf(out, out.length * 2);
+                n += deflater.deflate(out, n, out.length - n);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(out, 0, n);
+            long at = position;
+            ByteBuffer b = ByteBuffer.allocate(CHUNK_HEADER + n);
+            b.putInt(len).putInt(n).putInt((int) crc.getValue()).put(out, 0, n).flip();
+            write(b);
+            return at;
+        }
+
+        private void write(ByteBuffer b) throws IOException {
+            while (b.hasRemaining()) position += ch.write(b);
+        }
+
+        // Force the segment to disk (before any snapshot refers to it)
+        void finish() throws IOException {
+            ch.force(true);
+            close();
+        }
+
+        @Override
+        public void close() throws IOException {
+            deflater.end();
+            ch.close();
+        }
+    }
+
+    // ---------- Reading (any thread) ----------
+    // Inflated bytes of the chunk at offset of segment
+    byte[] read(int segment, long offset) {
+        try {
+            FileChannel ch = readers.computeIfAbsent(segment, this::openReader);
+            ByteBuffer head = ByteBuffer.allocate(CHUNK_HEADER);
+            readFully(ch, head, offset);
+            int rawLen = head.getInt(0), len = head.getInt(4);
+            if (rawLen < 0 || len < 0 || offset + CHUNK_HEADER + len > ch.size()) {
+                throw new IOException("Bad archive chunk at " + segment + ":" + offset);
+            }
+            ByteBuffer body = ByteBuffer.allocate(len);
+            readFully(ch, body, offset + CHUNK_HEADER);
+            CRC32 crc = new CRC32();
+            crc.update(body.array(), 0, len);
+            if ((int) crc.getValue() != head.getInt(8)) throw new IOException("Archive chunk checksum mismatch at " + segment + ":" + offset);
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(body.array(), 0, len);
+                byte[] raw = new byte[rawLen];
+                int n = 0;
+                while (n < rawLen && !inflater.finished()) n += inflater.inflate(raw, n, rawLen - n);
+                if (n != rawLen) throw new IOException("Archive chunk at " + segment + ":" + offset + " is short");
+                return raw;
+            } finally {
+                inflater.end();
+            }
+        } catch (IOException | DataFormatException e) {
+            throw new UncheckedIOException(e instanceof IOException ? (IOException) e : new IOException(e));
+        }
+    }
+
+    private FileChannel openReader(int segment) {
+        try {
+            FileChannel ch = FileChannel.open(dir.resolve(segment + SUFFIX), StandardOpenOption.READ);
+            ByteBuffer head = ByteBuffer.allocate(FILE_HEADER);
+            readFully(ch, head, 0);
+            if (head.getInt(0) != MAGIC || head.getInt(4) != VERSION) {
+                ch.close();
+                throw new IOException("Not a history archive segment: " + dir.resolve(segment + SUFFIX));
+            }
+            return ch;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer b, long pos) throws IOException {
+        while (b.hasRemaining()) {
+            int n = ch.read(b, pos + b.position());
+            if (n < 0) throw new IOException("Unexpected end of archive segment");
+        }
+    }
+
+    private static int number(Path p) {
+        String name = p.getFileName().toString();
+        try {
+            return Integer.parseInt(name.substring(0, name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (FileChannel ch : readers.values()) ch.close();
+        readers.clear();
+    }
+}
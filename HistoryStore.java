@@ -0,0 +1,206 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+
+// Paged, memory-mapped storage for transaction history that no longer fits the live Ledger tail.
+// The file (<data file>.history) is a sequence of blocks; each block holds one full Ledger chunk
+// as CHUNK fixed-width records [time 8][amount 8][balance 8][party 4][type 1][pad 3]. Blocks are
+// written once and never changed. The file is mapped SEGMENT bytes at a time on first touch, so
+// history costs no heap and is only paged in by the OS when something reads it.
+// The chunk a ledger is still filling lives in pages: some blocks are cut into PAGES_PER_BLOCK
+// pages of PAGE records, a ledger takes one page per PAGE entries and appends its records in
+// place, and once the chunk is full it is copied into a block of its own and the pages go back.
+// Pages are the only records written after they are referenced, and only past the entries a
+// snapshot counts.
+// Blocks whose chunks were moved to the HistoryArchive are released and written again later, so
+// with a history retention the file stops growing; released pages work the same way. A released
+// block or page is reused only once the snapshot that stops referring to it is on disk (see
+// checkpointed), so the snapshot a crash recovers from stays intact. Lock-free readers still
+// holding the old chunk need no grace period: Ledger re-checks the chunk after every read from
+// the store and retries on the newer copy.
+final class HistoryStore implements Closeable {
+    static final int RECORD = 32;
+    static final int BLOCK = Ledger.CHUNK * RECORD; // 128 KiB
+    private static final int BLOCKS_PER_SEGMENT = 512;
+    private static final long SEGMENT = (long) BLOCK * BLOCKS_PER_SEGMENT; // 64 MiB
+    static final int PAGE_BITS = 5, PAGE = 1 << PAGE_BITS; // 32 records (1 KiB) per tail page
+    static final int PAGES_PER_BLOCK = Ledger.CHUNK / PAGE;
+    private static final int PAGE_BLOCK_BITS = Ledger.CHUNK_BITS - PAGE_BITS;
+    private static final int TIME = 0, AMOUNT = 8, BALANCE = 16, PARTY = 24, TYPE = 28;
+
+    private final FileChannel channel;
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+    private long blocks; // blocks handed out so far (guarded by this)
+    // Block reuse (guarded by this): free = writable now, released = still referenced by the
+    // snapshot on disk, held = no longer referenced but kept for a pinned replica
+    private BitSet free = new BitSet(), released = new BitSet(), held = new BitSet();
+    private BitSet freePages = new BitSet(), releasedPages = new BitSet(), heldPages = new BitSet(); // same, for pages
+    private int pins; // replicas streaming an older snapshot (guarded by this, see pin)
+
+    private HistoryStore(FileChannel channel, long blocks) {
+        this.channel = channel;
+        this.blocks = blocks;
+    }
+
+    // Open the store; blocks past the count recorded by the last snapshot are reused
+    static HistoryStore open(Path path, long blocks) throws IOException {
+        FileChannel ch = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        return new HistoryStore(ch, blocks);
+    }
+
+    // Append one full chunk of columns; returns its block number
+    long write(long[] time, byte[] type, long[] amount, long[] balance, int[] party) {
+        long block = allocate();
+        MappedByteBuffer seg = segment(block);
+        int base = offset(block, 0);
+        for (int i = 0; i < Ledger.CHUNK; i++, base += RECORD) {
+            seg.putLong(base + TIME, time[i]);
+            seg.putLong(base + AMOUNT, amount[i]);
+            seg.putLong(base + BALANCE, balance[i]);
+            seg.putInt(base + PARTY, party[i]);
+            seg.put(base + TYPE, type[i]);
+        }
+        return block;
+    }
+
+    // Copy one full chunk held in pages (in entry order) into a block of its own; returns the block.
+    // The pages stay as they are until the caller releases them.
+    long write(int[] pages) {
+        long block = allocate();
+        MappedByteBuffer seg = segment(block);
+        for (int k = 0; k < PAGES_PER_BLOCK; k++) {
+            long from = pageBlock(pages[k]);
+            seg.put(offset(block, k * PAGE), segment(from), offset(from, pageRecord(pages[k], 0)), PAGE * RECORD);
+        }
+        return block;
+    }
+
+    private synchronized long allocate() {
+        int f = free.nextSetBit(0);
+        if (f < 0) return blocks++;
+        free.clear(f);
+        return f;
+    }
+
+    // ---------- Pages ----------
+    // A page for PAGE more entries of a chunk being filled; a new page block is cut when none is free
+    synchronized int allocatePage() {
+        int p = freePages.nextSetBit(0);
+        if (p < 0) {
+            p = Math.toIntExact(allocate() << PAGE_BLOCK_BITS);
+            freePages.set(p + 1, p + PAGES_PER_BLOCK);
+            return p;
+        }
+        freePages.clear(p);
+        return p;
+    }
+
+    // Where record i (of PAGE) of page p lives: block and record within it, for the reads below
+    static long pageBlock(int page) { return page >>> PAGE_BLOCK_BITS; }
+
+    static int pageRecord(int page, int i) {
+        return (page & (PAGES_PER_BLOCK - 1)) << PAGE_BITS | (i & (PAGE - 1));
+    }
+
+    // Write record i of a page (the ledger's writer; readers only look below the published size)
+    void put(long block, int i, long time, byte type, long amount, long balance, int party) {
+        MappedByteBuffer seg = segment(block);
+        int base = offset(block, i);
+        seg.putLong(base + TIME, time);
+        seg.putLong(base + AMOUNT, amount);
+        seg.putLong(base + BALANCE, balance);
+        seg.putInt(base + PARTY, party);
+        seg.put(base + TYPE, type);
+    }
+
+    // page no longer belongs to any ledger (its chunk was copied into a block)
+    synchronized void releasePage(int page) { releasedPages.set(page); }
+
+    // ---------- Reads (absolute gets, safe from any thread) ----------
+    long time(long block, int i) { return segment(block).getLong(offset(block, i) + TIME); }
+    long amount(long block, int i) { return segment(block).getLong(offset(block, i) + AMOUNT); }
+    long balance(long block, int i) { return segment(block).getLong(offset(block, i) + BALANCE); }
+    int party(long block, int i) { return segment(block).getInt(offset(block, i) + PARTY); }
+    byte type(long block, int i) { return segment(block).get(offset(block, i) + TYPE); }
+
+    synchronized long blocks() { return blocks; }
+
+    // block no longer belongs to any ledger (its chunk was archived)
+    synchronized void release(long block) { released.set(Math.toIntExact(block)); }
+
+    // A snapshot not referring to any released block or page is on disk: they are free (or, while
+    // pinned, held until unpin)
+    synchronized void checkpointed() {
+        (pins == 0 ? free : held).or(released);
+        (pins == 0 ? freePages : heldPages).or(releasedPages);
+        released = new BitSet();
+        releasedPages = new BitSet();
+    }
+
+    // Keep every block the snapshot on disk refers to from being reused until unpin(), e.g. while
+    // a replica copies the file past later checkpoints
+    synchronized void pin() { pins++; }
+
+    synchronized void unpin() {
+        if (--pins > 0) return;
+        free.or(held);
+        freePages.or(heldPages);
+        held = new BitSet();
+        heldPages = new BitSet();
+    }
+
+    // At load, before anything reads the store: the blocks holding a page in use are page blocks,
+    // with their other pages free; every other block below blocks() that is not in use is free
+    synchronized void freeAllBut(BitSet used, BitSet usedPages) {
+        free = new BitSet();
+        free.set(0, Math.toIntExact(blocks));
+        free.andNot(used);
+        freePages = new BitSet();
+        for (int p = usedPages.nextSetBit(0); p >= 0; p = usedPages.nextSetBit(p + PAGES_PER_BLOCK)) {
+            p &= -PAGES_PER_BLOCK; // first page of its block
+            free.clear(Math.toIntExact(pageBlock(p)));
+            freePages.set(p, p + PAGES_PER_BLOCK);
+        }
+        freePages.andNot(usedPages);
+    }
+
+    // Flush every mapped segment to disk (before a snapshot starts referring to the blocks)
+    void force() {
+        for (MappedByteBuffer seg : segments) if (seg != null) seg.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        force();
+        channel.close();
+    }
+
+    private static int offset(long block, int i) {
+        return (int) (block % BLOCKS_PER_SEGMENT) * BLOCK + i * RECORD;
+    }
+
+    private MappedByteBuffer segment(long block) {
+        int s = (int) (block / BLOCKS_PER_SEGMENT);
+        MappedByteBuffer[] segs = segments;
+        if (s < segs.length && segs[s] != null) return segs[s];
+        synchronized (this) {
+            segs = segments;
+            if (s < segs.length && segs[s] != null) return segs[s];
+            segs = Arrays.copyOf(segs, Math.max(segs.length, s + 1)); // never mutate the published array
+            try {
+                segs[s] = channel.map(FileChannel.MapMode.READ_WRITE, s * SEGMENT, SEGMENT); // grows the file
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            segments = segs;
+            return segs[s];
+        }
+    }
+}
@@ -0,0 +1,77 @@
+import javax.swing.SwingUtilities;
+import javax.swing.table.AbstractTableModel;
+import java.time.format.DateTimeFormatter;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+// JTable model over an account's history that only materializes what is on screen.
+// Rows come from the ledger view (fixed at the size it had when the model was built) in pages
+// of PAGE transactions; a small LRU of pages backs scrolling, so a history of millions of
+// entries costs a few pages of objects no matter how far the user scrolls. Pages are read on
+// the loader (the GUI's bank worker), never on the EDT, since a page may come from the history
+// file or an archived chunk: a row shows blank until its page arrives, then repaints.
+final class HistoryTableModel extends AbstractTableModel {
+    private static final long serialVersionUID = 1L;
+    private static final int PAGE = 256, CACHED_PAGES = 16;
+    private static final String[] COLUMNS = { "Time", "Type", "Amount", "Balance", "Note" };
+    private static final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private final List<Transaction> rows;
+    private final Executor loader;
+    // Both touched on the EDT only, so they need no locking
+    private final Map<Integer, Transaction[]> pages = new LinkedHashMap<Integer, Transaction[]>(CACHED_PAGES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Transaction[]> eldest) {
+            return size() > CACHED_PAGES;
+        }
+    };
+    private final Set<Integer> loading = new HashSet<>();
+
+    HistoryTableModel(Account account, Executor loader) {
+        this.rows = account.getTransactions();
+        this.loader = loader;
+    }
+
+    @Override public int getRowCount() { return rows.size(); }
+    @Override public int getColumnCount() { return COLUMNS.length; }
+    @Override public String getColumnName(int c) { return COLUMNS[c]; }
+
+    @Override
+    public Object getValueAt(int row, int col) {
+        Transaction t = row(row);
+        if (t == null) return ""; // page still loading
+        switch (col) {
+            case 0: return FORMAT.format(t.getTimestamp());
+            case 1: return t.getType();
+            case 2: return t.getAmount();
+            case 3: return t.getBalanceAfter();
+            default: return t.getNote() == null ? "" : t.getNote();
+        }
+    }
+
+    // Row i, or null while its page is being loaded
+    private Transaction row(int i) {
+        Transaction[] page = pages.get(i / PAGE);
+        if (page != null) return page[i % PAGE];
+        load(i / PAGE);
+        return null;
+    }
+
+    // Read page p on the loader, then cache it and repaint its rows on the EDT
+    private void load(int p) {
+        if (!loading.add(p)) return;
+        int start = p * PAGE, end = Math.min(rows.size(), start + PAGE);
+        CompletableFuture.supplyAsync(() -> rows.subList(start, end).toArray(new Transaction[0]), loader)
+                .whenCompleteAsync((page, error) -> {
+                    loading.remove(p);
+                    if (error != null) return; // left blank; scrolling back asks again
+                    pages.put(p, page);
+                    fireTableRowsUpdated(start, end - 1);
+                }, SwingUtilities::invokeLater);
+    }
+}
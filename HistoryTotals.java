@@ -0,0 +1,29 @@
+import java.math.BigDecimal;
+
+// Count and total amount per TransactionType over a time range of one account's history
+public final class HistoryTotals {
+    private final long[] sums; // [type * 2] = count, [type * 2 + 1] = amount in cents
+
+    HistoryTotals(long[] sums) { this.sums = sums; }
+
+    public long getCount(TransactionType type) { return sums[type.ordinal() * 2]; }
+    public BigDecimal getTotal(TransactionType type) { return Money.toDecimal(sums[type.ordinal() * 2 + 1]); }
+
+    // Number of entries of any type
+    public long getCount() {
+        long n = 0;
+        for (int k = 0; k < sums.length; k += 2) n += sums[k];
+        return n;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (TransactionType t : TransactionType.values()) {
+            if (getCount(t) == 0) continue;
+            if (sb.length() > 0) sb.append(" | ");
+            sb.append(t).append(": ").append(getCount(t)).append(" x, ").append(getTotal(t));
+        }
+        return sb.length() == 0 ? "no transactions" : sb.toString();
+    }
+}
@@ -0,0 +1,380 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+// Append-only write-ahead journal of Bank mutations.
+// Every record is [length][crc32][seq][type][time][fields...]. Appends only go into an in-memory
+// buffer; sync() writes everything pending and fsyncs once, so concurrent committers share a
+// single fsync (group commit). On open, a torn or corrupt tail is cut off so recovery is repeatable.
+// A sync that fails leaves the journal failed: what reached the disk is unknown, so every later
+// append or sync throws until the owner reopens it (and replays what is really there).
+final class Journal implements Closeable {
+    static final byte CREATE = 1, DEPOSIT = 2, WITHDRAW = 3, TRANSFER = 4, CLOSE = 5, BATCH = 6, LINK_OUT = 7, LINK_IN = 8,
+            IMPORT = 9;
+    private static final int HEADER = 8; // length + crc
+
+    private final FileChannel channel;
+    private ByteBuffer pending = ByteBuffer.allocate(1 << 16); // appended but not yet written
+    private ByteBuffer spare = ByteBuffer.allocate(1 << 16);   // swapped in while a flush is running
+    private final Object syncLock = new Object();              // only one flusher at a time
+    private long lastSeq;    // seq of the last appended record
+    private long durableSeq; // seq of the last record forced to disk
+    private long size;       // bytes currently in the file
+    private volatile IOException failure; // set by the first failed sync
+    BankMetrics metrics;     // bytes and fsync time of each sync, if set
+    volatile Listener listener; // sees every committed batch (replication), if set
+
+    private Journal(FileChannel channel, long size, long lastSeq) {
+        this.channel = channel;
+        this.size = size;
+        this.lastSeq = lastSeq;
+        this.durableSeq = lastSeq;
+    }
+
+    // Receives each replayed record: its seq and its body positioned at the type byte
+    interface Replay {
+        void apply(long seq, ByteBuffer rec);
+    }
+
+    // Called by the committing thread right after each fsync with the records it made durable
+    // (whole records, headers included) and the seq of the last one. Must copy and return quickly.
+    interface Listener {
+        void committed(ByteBuffer records, long lastSeq);
+    }
+
+    // Open (or create) the journal and replay every intact record newer than afterSeq into bank.
+    // The records replayed must continue afterSeq without a gap (afterSeq < 0: replay them all,
+    // from whatever seq the file starts at); a gap throws IOException.
+    static Journal open(Path path, long afterSeq, Bank bank) throws IOException {
+        return open(path, afterSeq, (seq, rec) -> apply(bank, rec));
+    }
+
+    static Journal open(Path path, long afterSeq, Replay replay) throws IOException {
+        long valid = 0, last = Math.max(afterSeq, 0);
+        long expect = afterSeq < 0 ? -1 : afterSeq + 1; // seq the next replayed record must have
+        if (Files.exists(path)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+                long end = Files.size(path);
+                CRC32 crc = new CRC32();
+                while (valid + HEADER <= end) {
+                    int len = in.readInt();
+                    int sum = in.readInt();
+                    if (len <= 0 || valid + HEADER + len > end) break; // torn tail
+                    byte[] body = new byte[len];
+                    in.readFully(body);
+                    crc.reset();
+                    crc.update(body);
+                    if ((int) crc.getValue() != sum) break; // corrupt tail
+                    ByteBuffer rec = ByteBuffer.wrap(body);
+                    long seq = rec.getLong();
+                    if (seq > afterSeq) {
+                        if (expect >= 0 && seq != expect) {
+                            throw new IOException(path + " jumps from seq " + (expect - 1) + " to " + seq);
+                        }
+                        replay.apply(seq, rec);
+                        expect = seq + 1;
+                        last = seq;
+                    }
+                    valid += HEADER + len;
+                }
+            }
+        }
+        FileChannel ch = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        if (ch.size() > valid) ch.truncate(valid); // drop anything after the last good record
+        ch.position(valid);
+        return new Journal(ch, valid, last);
+    }
+
+    // Decode one record body (positioned after seq) and apply it to bank
+    static void apply(Bank bank, ByteBuffer rec) {
+        byte type = rec.get();
+        long at = rec.getLong();
+        switch (type) {
+            case CREATE:
+                bank.applyCreate(getString(rec), getString(rec), getString(rec), rec.getLong(), at);
+                break;
+            case DEPOSIT:
+                bank.applyDeposit(getString(rec), rec.getLong(), at);
+                break;
+            case WITHDRAW:
+                bank.applyWithdraw(getString(rec), rec.getLong(), at);
+                break;
+            case TRANSFER:
+                bank.applyTransfer(getString(rec), getString(rec), rec.getLong(), at);
+                break;
+            case CLOSE:
+                bank.applyClose(getString(rec));
+                break;
+            case BATCH: // transfers of one batch, replayed together or (torn record) not at all
+                for (int n = rec.getInt(); n > 0; n--) bank.applyTransfer(getString(rec), getString(rec), rec.getLong(), at);
+                break;
+            case LINK_OUT: // one side of a cross-shard transfer, see ShardedBank
+                bank.applyLinkOut(rec.getLong(), getString(rec), getString(rec), rec.getLong(), at);
+                break;
+            case LINK_IN:
+                bank.applyLinkIn(rec.getLong(), getString(rec), getString(rec), rec.getLong(), at);
+                break;
+            case IMPORT: // a bulk import's data is in the snapshot written right after this record;
+                break;   // without that snapshot the import never finished, so there is nothing to redo
+            default:
+                throw new IllegalStateException("Unknown journal record type: " + type);
+        }
+    }
+
+    // ---------- Appends (callers hold the lock of every account they touch) ----------
+    synchronized void appendCreate(String accNo, String holderName, String pinHash, long initial, long at) {
+        int start = begin(CREATE, at);
+        putString(accNo);
+        putString(holderName);
+        putString(pinHash);
+        putLong(initial);
+        end(start);
+    }
+
+    synchronized void appendDeposit(String accNo, long amount, long at) {
+        int start = begin(DEPOSIT, at);
+        putString(accNo);
+        putLong(amount);
+        end(start);
+    }
+
+    synchronized void appendWithdraw(String accNo, long amount, long at) {
+        int start = begin(WITHDRAW, at);
+        putString(accNo);
+        putLong(amount);
+        end(start);
+    }
+
+    // Returns the record's seq
+    synchronized long appendTransfer(String fromAcc, String toAcc, long amount, long at) {
+        int start = begin(TRANSFER, at);
+        putString(fromAcc);
+        putString(toAcc);
+        putLong(amount);
+        end(start);
+        return lastSeq;
+    }
+
+    // Transfers [0, n) of a batch as a single record
+    synchronized void appendBatch(String[] fromAcc, String[] toAcc, long[] amount, int n, long at) {
+        int start = begin(BATCH, at);
+        ensure(4);
+        pending.putInt(n);
+        for (int i = 0; i < n; i++) {
+            putString(fromAcc[i]);
+            putString(toAcc[i]);
+            putLong(amount[i]);
+        }
+        end(start);
+    }
+
+    // One shard's side (LINK_OUT or LINK_IN) of cross-shard transfer `link`
+    synchronized void appendLink(byte type, long link, String fromAcc, String toAcc, long amount, long at) {
+        int start = begin(type, at);
+        putLong(link);
+        putString(fromAcc);
+        putString(toAcc);
+        putLong(amount);
+        end(start);
+    }
+
+    // Marks a BulkImporter run (source file, rows); it carries no data, see Bank.markImported
+    synchronized void appendImport(String source, long rows, long at) {
+        int start = begin(IMPORT, at);
+        putString(source);
+        putLong(rows);
+        end(start);
+    }
+
+    synchronized void appendClose(String accNo) {
+        int start = begin(CLOSE, 0L);
+        putString(accNo);
+        end(start);
+    }
+
+    // ---------- Commit ----------
+    // Make every record appended so far durable. Threads arriving while a flush is in
+    // progress find their records already covered and return without another fsync.
+    void sync() throws IOException {
+        long target;
+        synchronized (this) { target = lastSeq; }
+        synchronized (syncLock) {
+            checkHealthy();
+            if (durableSeq >= target) return;
+            ByteBuffer batch;
+            long upTo;
+            synchronized (this) {
+                batch = pending;
+                pending = spare;
+                upTo = lastSeq;
+            }
+            batch.flip();
+            ByteBuffer written = batch.duplicate();
+            long start = System.nanoTime(), bytes = batch.remaining();
+            try {
+                while (batch.hasRemaining()) size += channel.write(batch);
+                channel.force(false);
+            } catch (IOException e) {
+                failure = e; // part of the batch may be on disk, and a retried fsync proves nothing
+                throw e;
+            } finally {
+                batch.clear();
+                synchronized (this) { spare = batch; } // never leave pending and spare sharing a buffer
+            }
+            if (metrics != null) metrics.journalSync(bytes, System.nanoTime() - start);
+            Listener l = listener;
+            if (l != null && written.hasRemaining()) l.committed(written, upTo);
+            durableSeq = upTo;
+        }
+    }
+
+    // Throws the failure of an earlier sync, if any
+    void checkHealthy() throws IOException {
+        IOException f = failure;
+        if (f != null) throw new IOException("Journal failed earlier; reopen to recover", f);
+    }
+
+    // Discard the file contents once a snapshot covers them (sequence numbers keep counting)
+    void truncate() throws IOException {
+        synchronized (syncLock) {
+            checkHealthy();
+            synchronized (this) {
+                pending.clear();
+                durableSeq = lastSeq;
+            }
+            channel.truncate(0);
+            channel.position(0);
+            channel.force(false);
+            size = 0;
+        }
+    }
+
+    synchronized long lastSeq() { return lastSeq; }
+
+    // Seq of the last record forced to disk
+    long committedSeq() {
+        synchronized (syncLock) { return durableSeq; }
+    }
+
+    // ---------- Replication ----------
+    // The committed records after afterSeq, exactly as they are in the file (headers included);
+    // null if the file no longer reaches back to afterSeq + 1 because a checkpoint dropped them.
+    // Callers sync first so that everything up to lastSeq() is in the file.
+    byte[] committedAfter(long afterSeq) throws IOException {
+        synchronized (syncLock) {
+            ByteBuffer all = ByteBuffer.allocate((int) size);
+            while (all.hasRemaining()) {
+                if (channel.read(all, all.position()) < 0) throw new EOFException("Journal shrank while reading");
+            }
+            all.flip();
+            while (all.remaining() >= HEADER + 8) {
+                int pos = all.position();
+                long seq = all.getLong(pos + HEADER);
+                if (seq > afterSeq) {
+                    return seq == afterSeq + 1 ? Arrays.copyOfRange(all.array(), pos, all.limit()) : null;
+                }
+                all.position(pos + HEADER + all.getInt(pos));
+            }
+            return durableSeq == afterSeq ? new byte[0] : null;
+        }
+    }
+
+    // Check the record at in's position and step over it; returns its body, positioned at the seq
+    static ByteBuffer checkedRecord(ByteBuffer in) throws IOException {
+        if (in.remaining() < HEADER) throw new IOException("Truncated journal record");
+        int len = in.getInt(), sum = in.getInt();
+        if (len <= 8 || len > in.remaining()) throw new IOException("Bad journal record length " + len);
+        ByteBuffer body = in.slice();
+        body.limit(len);
+        CRC32 crc = new CRC32();
+        crc.update(body.duplicate());
+        if ((int) crc.getValue() != sum) throw new IOException("Journal record checksum mismatch");
+        in.position(in.position() + len);
+        return body;
+    }
+
+    // Append a record received from a primary verbatim, keeping its seq (bytes off..off+len of b)
+    synchronized void appendReplicated(byte[] b, int off, int len, long seq) {
+        checkAppendable();
+        ensure(len);
+        pending.put(b, off, len);
+        lastSeq = seq;
+    }
+
+    // Continue numbering after seq (a file emptied by truncate() restarts at 0 when reopened)
+    synchronized void skipTo(long seq) {
+        if (seq <= lastSeq) return;
+        lastSeq = seq;
+        durableSeq = Math.max(durableSeq, seq);
+    }
+
+    long size() {
+        synchronized (syncLock) { return size; }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (failure == null) sync();
+        } finally {
+            channel.close();
+        }
+    }
+
+    // ---------- Encoding ----------
+    private int begin(byte type, long at) {
+        checkAppendable();
+        ensure(HEADER + 17);
+        int start = pending.position();
+        pending.position(start + HEADER);
+        pending.putLong(++lastSeq);
+        pending.put(type);
+        pending.putLong(at);
+        return start;
+    }
+
+    private void checkAppendable() {
+        if (failure != null) throw new IllegalStateException("Journal failed earlier; reopen to recover", failure);
+    }
+
+    private void end(int start) {
+        int len = pending.position() - start - HEADER;
+        CRC32 crc = new CRC32();
+        crc.update(pending.array(), start + HEADER, len);
+        pending.putInt(start, len);
+        pending.putInt(start + 4, (int) crc.getValue());
+    }
+
+    private void putLong(long v) {
+        ensure(8);
+        pending.putLong(v);
+    }
+
+    private void putString(String s) {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        ensure(4 + b.length);
+        pending.putInt(b.length);
+        pending.put(b);
+    }
+
+    static String getString(ByteBuffer rec) {
+        byte[] b = new byte[rec.getInt()];
+        rec.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    private void ensure(int n) {
+        if (pending.remaining() >= n) return;
+        ByteBuffer bigger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + n));
+        pending.flip();
+        bigger.put(pending);
+        pending = bigger;
+    }
+}
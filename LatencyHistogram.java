@@ -0,0 +1,76 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Lock-free HDR-style histogram of durations in nanoseconds.
+// Log-linear buckets: values below 16 get their own bucket, above that every power of two is
+// split into 16 equal sub-buckets, so any recorded value is known to within 1/16 (6.25%) over the
+// whole long range with under a thousand counters. Recording is one bucket increment plus a max
+// update that only writes when the value is a new maximum.
+final class LatencyHistogram {
+    private static final int SUB_BITS = 4, SUB = 1 << SUB_BITS;
+    private static final int BUCKETS = SUB + (63 - SUB_BITS) * SUB;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong max = new AtomicLong();
+
+    void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        counts.incrementAndGet(bucket(nanos));
+        long m = max.get();
+        while (nanos > m && !max.compareAndSet(m, nanos)) m = max.get();
+    }
+
+    static int bucket(long v) {
+        if (v < SUB) return (int) v;
+        int high = 63 - Long.numberOfLeadingZeros(v); // >= SUB_BITS
+        return SUB + (high - SUB_BITS) * SUB + (int) ((v >>> (high - SUB_BITS)) & (SUB - 1));
+    }
+
+    // Middle of bucket b's value range
+    static long middle(int b) {
+        if (b < SUB) return b;
+        int shift = (b - SUB) / SUB;
+        long low = (long) (SUB + (b - SUB) % SUB) << shift;
+        return low + ((1L << shift) >> 1);
+    }
+
+    // Consistent-enough copy for reporting (each bucket is read once; concurrent records may or
+    // may not be included)
+    Snapshot snapshot() {
+        long[] c = new long[BUCKETS];
+        long n = 0;
+        for (int b = 0; b < BUCKETS; b++) n += c[b] = counts.get(b);
+        return new Snapshot(c, n, max.get());
+    }
+
+    static final class Snapshot {
+        private final long[] counts;
+        final long count, max;
+
+        private Snapshot(long[] counts, long count, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.max = max;
+        }
+
+        // Value at quantile q (0..1), in nanoseconds; 0 when empty
+        long quantile(double q) {
+            if (count == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(q * count)), seen = 0;
+            for (int b = 0; b < counts.length; b++) {
+                seen += counts[b];
+                if (seen >= rank) return Math.min(middle(b), max);
+            }
+            return max;
+        }
+
+        double mean() {
+            if (count == 0) return 0;
+            double sum = 0;
+            for (int b = 0; b < counts.length; b++) {
+                if (counts[b] != 0) sum += (double) counts[b] * Math.min(middle(b), max);
+            }
+            return sum / count;
+        }
+    }
+}
@@ -0,0 +1,765 @@
+import java.io.*;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+import java.util.function.LongConsumer;
+
+// Columnar transaction history of one account.
+// Entries are stored column by column (epoch millis, type, amount, balance, counterparty id) in
+// chunks of CHUNK entries, so appending never copies old history and one entry costs ~29 bytes.
+// A chunk starts small and doubles up to CHUNK, so short histories (and tails) stay small too.
+// Once a HistoryStore is attached, history leaves the heap altogether: the chunk being filled is
+// appended to store pages (a page per HistoryStore.PAGE entries, only the page numbers stay on the
+// heap), and when it fills up it is copied into a block of its own; reads are then served from
+// the mapped store.
+// Spilled chunks older than the bank's history retention are compacted into a HistoryArchive
+// segment (see archive): the heap keeps a small descriptor per chunk (its time range and closing
+// balance, enough for time searches and balance checkpoints) and reads inflate the chunk on demand,
+// with the last DECODED_CHUNKS inflated across all ledgers kept.
+// Writers append one at a time (under the account's stripe lock, or as the account's publisher of
+// optimistic updates, see Account.publish); readers need no lock: an entry is fully written
+// before the volatile size is bumped, replaced chunks are published through volatiles, and a
+// value read from store pages or a block only counts if they still belong to that chunk (see
+// current).
+final class Ledger implements Serializable {
+    private static final long serialVersionUID = 1L;
+    static final int CHUNK_BITS = 12, CHUNK = 1 << CHUNK_BITS; // 4096 entries per full chunk
+    private static final int FIRST_CAPACITY = 4, FIRST_PAGES = 2;
+    private static final TransactionType[] TYPES = TransactionType.values();
+
+    // One chunk of columns: either on the heap (arrays filled in place, only read below the
+    // published size), being filled in store pages (arrays null, pages filled in place), spilled to
+    // the store (arrays null, block >= 0) or archived (arrays null, segment >= 0; the inflated copy
+    // is cached in decoded)
+    private static final class Chunk {
+        final long[] time, amount, balance;
+        final byte[] type;
+        final int[] party;
+        final int[] pages;
+        final long block;
+        final int segment;
+        final long offset, firstTime, lastTime, lastBalance;
+        volatile Chunk decoded;
+
+        Chunk(int capacity) {
+            time = new long[capacity];
+            amount = new long[capacity];
+            balance = new long[capacity];
+            type = new byte[capacity];
+            party = new int[capacity];
+            pages = null;
+            block = -1;
+            segment = -1;
+            offset = firstTime = lastTime = lastBalance = 0;
+        }
+
+        Chunk(int[] pages) {
+            time = amount = balance = null;
+            type = null;
+            party = null;
+            this.pages = pages;
+            block = -1;
+            segment = -1;
+            offset = firstTime = lastTime = lastBalance = 0;
+        }
+
+        Chunk(long block) {
+            time = amount = balance = null;
+            type = null;
+            party = pages = null;
+            this.block = block;
+            segment = -1;
+            offset = firstTime = lastTime = lastBalance = 0;
+        }
+
+        Chunk(int segment, long offset, long firstTime, long lastTime, long lastBalance) {
+            time = amount = balance = null;
+            type = null;
+            party = pages = null;
+            block = -1;
+            this.segment = segment;
+            this.offset = offset;
+            this.firstTime = firstTime;
+            this.lastTime = lastTime;
+            this.lastBalance = lastBalance;
+        }
+
+        boolean archived() { return segment >= 0; }
+
+        boolean onHeap() { return time != null; }
+
+        int capacity() { return time.length; }
+
+        // Where entry off of a store chunk (paged or spilled) lives: block, and record in it
+        long blockOf(int off) { return pages == null ? block : HistoryStore.pageBlock(pages[off >>> HistoryStore.PAGE_BITS]); }
+
+        int recordOf(int off) { return pages == null ? off : HistoryStore.pageRecord(pages[off >>> HistoryStore.PAGE_BITS], off); }
+
+        Chunk grow(int capacity, int used) {
+            Chunk c = new Chunk(capacity);
+            System.arraycopy(time, 0, c.time, 0, used);
+            System.arraycopy(amount, 0, c.amount, 0, used);
+            System.arraycopy(balance, 0, c.balance, 0, used);
+            System.arraycopy(type, 0, c.type, 0, used);
+            System.arraycopy(party, 0, c.party, 0, used);
+            return c;
+        }
+    }
+
+    private transient volatile Chunk[] chunks = { new Chunk(FIRST_CAPACITY) };
+    private transient volatile int size;
+    private transient int spilled; // chunks [0, spilled) live in store blocks or the archive
+    private transient int archived; // chunks [0, archived) live in the archive
+    private transient HistoryStore store; // null = keep everything on the heap
+    private transient HistoryArchive archive;
+    private transient volatile LongAdder counter; // counts every append for BankMetrics, or null
+    // Inflated archived chunks in the order they were inflated, shared by every ledger (guarded by
+    // itself). A FIFO, not an LRU: a hit on c.decoded takes no lock and moves nothing.
+    private static final int DECODED_CHUNKS = 64; // ~7.5 MB of heap at most
+    private static final Map<Chunk, Boolean> DECODED = new LinkedHashMap<Chunk, Boolean>() {
+        @Override protected boolean removeEldestEntry(Map.Entry<Chunk, Boolean> eldest) {
+            if (size() <= DECODED_CHUNKS) return false;
+            eldest.getKey().decoded = null; // readers already holding it keep their copy
+            return true;
+        }
+    };
+    // Counterparty dictionary: transfers store the other account number, other entries their note.
+    // Each distinct string is kept once per ledger and referenced by id (-1 = no note).
+    private transient volatile String[] parties = new String[2];
+    private transient int partyCount;
+    private transient Map<String, Integer> partyIds = new HashMap<>();
+    // Time-range index: per-type [count, amount] totals, kept by append. rows[k] covers entries
+    // [0, k * CHUNK) for every k <= sealed (the full chunks); run covers the chunk being filled,
+    // [sealed * CHUNK, sealed * CHUNK + runCount), and is read under the runSeq seqlock. Both go in
+    // the snapshot, so a query reads at most half a chunk of entries per end and a load reads none.
+    private static final int STRIDE = 2 * TYPES.length;
+    private transient volatile long[] rows = new long[2 * STRIDE]; // null until attach rebuilds them
+    private transient volatile int sealed;
+    private transient long[] run = new long[STRIDE];
+    private transient int runCount;
+    private transient volatile int runSeq; // odd while append changes run
+    private static final VarHandle RUN_SEQ;
+    static {
+        try {
+            RUN_SEQ = MethodHandles.lookup().findVarHandle(Ledger.class, "runSeq", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // ---------- Writes (one writer at a time, see above) ----------
+    // party is the counterparty account for transfers, otherwise the note (or null)
+    // Timestamps never go backwards (a wall clock stepping back is clamped to the previous entry),
+    // which keeps every time-range query a binary search.
+    void append(TransactionType type, long amount, long balance, String party, long at) {
+        int i = size;
+        if (i > 0) at = Math.max(at, timeAt(i - 1));
+        int ci = i >>> CHUNK_BITS, off = i & (CHUNK - 1), id = partyId(party);
+        byte t = (byte) type.ordinal();
+        Chunk c = store != null ? paged(ci, off) : onHeap(ci, off);
+        if (c.onHeap()) {
+            c.time[off] = at;
+            c.type[off] = t;
+            c.amount[off] = amount;
+            c.balance[off] = balance;
+            c.party[off] = id;
+        } else {
+            store.put(c.blockOf(off), c.recordOf(off), at, t, amount, balance, id);
+        }
+        count(t, amount, off == CHUNK - 1);
+        size = i + 1; // publish
+        LongAdder n = counter;
+        if (n != null) n.increment();
+        if (off == CHUNK - 1 && store != null) toBlock(ci);
+    }
+
+    // Count every entry appended from now on in n (null: stop counting)
+    void countIn(LongAdder n) { counter = n; }
+
+    // Heap chunk ci with room for entry off (no store): a new chunk starts small and doubles
+    private Chunk onHeap(int ci, int off) {
+        Chunk[] cs = chunks;
+        if (ci == cs.length || cs[ci] == null) {
+            cs = Arrays.copyOf(cs, Math.max(cs.length, ci * 2));
+            cs[ci] = new Chunk(FIRST_CAPACITY);
+            chunks = cs;
+        } else if (off == cs[ci].capacity()) {
+            cs = cs.clone();
+            cs[ci] = cs[ci].grow(Math.min(CHUNK, off * 2), off);
+            chunks = cs;
+        }
+        return cs[ci];
+    }
+
+    // Paged chunk ci with a page for entry off (store attached): one more page every PAGE entries,
+    // the page list doubling like a heap chunk
+    private Chunk paged(int ci, int off) {
+        Chunk[] cs = chunks;
+        Chunk c = ci < cs.length ? cs[ci] : null;
+        if ((off & (HistoryStore.PAGE - 1)) != 0) return c;
+        int k = off >>> HistoryStore.PAGE_BITS;
+        if (c == null || c.pages == null || k == c.pages.length) {
+            c = new Chunk(c == null || c.pages == null ? new int[FIRST_PAGES] : Arrays.copyOf(c.pages, 2 * k));
+            cs = ci < cs.length ? cs.clone() : Arrays.copyOf(cs, Math.max(cs.length * 2, ci + 1));
+            cs[ci] = c;
+            chunks = cs;
+        }
+        c.pages[k] = store.allocatePage(); // visible to readers once the entry using it is published
+        return c;
+    }
+
+    // Paged chunk ci is full: copy it into one block and hand its pages back
+    private void toBlock(int ci) {
+        Chunk c = chunks[ci];
+        Chunk[] cs = chunks.clone();
+        cs[ci] = new Chunk(store.write(c.pages));
+        chunks = cs; // readers of the paged chunk retry on the block (see current)
+        spilled = ci + 1;
+        for (int p : c.pages) store.releasePage(p);
+    }
+
+    // Add the entry being appended to run; the last entry of a chunk turns run into the next row
+    private void count(int type, long amount, boolean full) {
+        int s = runSeq;
+        RUN_SEQ.setOpaque(this, s + 1);
+        VarHandle.storeStoreFence();
+        run[type * 2]++;
+        run[type * 2 + 1] += amount;
+        runCount++;
+        if (full) {
+            int f = sealed;
+            long[] r = rows;
+            if (r.length < (f + 2) * STRIDE) rows = r = Arrays.copyOf(r, 2 * (f + 2) * STRIDE);
+            for (int k = 0; k < STRIDE; k++) r[(f + 1) * STRIDE + k] = r[f * STRIDE + k] + run[k];
+            sealed = f + 1;
+            Arrays.fill(run, 0);
+            runCount = 0;
+        }
+        RUN_SEQ.setRelease(this, s + 2);
+    }
+
+    // Start keeping history in store: every full chunk is spilled and the rest paged right away;
+    // archived chunks are read from archive
+    void attach(HistoryStore store, HistoryArchive archive) {
+        this.store = store;
+        this.archive = archive;
+        spill(size >>> CHUNK_BITS);
+        pageTail();
+        if (rows == null) summarize();
+    }
+
+    // Store blocks this ledger refers to
+    void forEachBlock(LongConsumer action) {
+        Chunk[] cs = chunks;
+        for (int k = archived; k < spilled; k++) action.accept(cs[k].block);
+    }
+
+    // Store pages this ledger refers to (those of the chunk being filled)
+    void forEachPage(IntConsumer action) {
+        int tail = size - spilled * CHUNK;
+        Chunk c = tail > 0 ? chunks[spilled] : null;
+        if (c == null || c.pages == null) return;
+        for (int k = 0, used = (tail + HistoryStore.PAGE - 1) >>> HistoryStore.PAGE_BITS; k < used; k++) action.accept(c.pages[k]);
+    }
+
+    // Compact the leading spilled chunks whose last entry is before `before` into segment and hand
+    // their store blocks to released; returns the number of entries archived. The caller excludes
+    // writers and forces segment before any snapshot refers to it.
+    int archive(long before, HistoryArchive.Segment segment, LongConsumer released) throws IOException {
+        if (store == null) return 0;
+        Chunk[] old = chunks;
+        int k = archived;
+        while (k < spilled && store.time(old[k].block, CHUNK - 1) < before) k++;
+        if (k == archived) return 0;
+        Chunk[] cs = old.clone();
+        byte[] raw = new byte[CHUNK * ENTRY_BYTES];
+        for (int j = archived; j < k; j++) {
+            long block = old[j].block;
+            pack(block, raw);
+            cs[j] = new Chunk(segment.number, segment.append(raw, raw.length), store.time(block, 0),
+                    store.time(block, CHUNK - 1), store.balance(block, CHUNK - 1));
+        }
+        chunks = cs; // readers of the old chunks see the change when they re-check (see current)
+        for (int j = archived; j < k; j++) released.accept(old[j].block);
+        int moved = (k - archived) * CHUNK;
+        archived = k;
+        return moved;
+    }
+
+    // Archived form of a full chunk: whole columns, times and balances as deltas, so the deflater
+    // sees long runs of small numbers
+    private static final int ENTRY_BYTES = 29;
+
+    private void pack(long block, byte[] raw) {
+        ByteBuffer b = ByteBuffer.wrap(raw);
+        long prev = 0;
+        for (int i = 0; i < CHUNK; i++) { long t = store.time(block, i); b.putLong(t - prev); prev = t; }
+        for (int i = 0; i < CHUNK; i++) b.put(store.type(block, i));
+        for (int i = 0; i < CHUNK; i++) b.putLong(store.amount(block, i));
+        prev = 0;
+        for (int i = 0; i < CHUNK; i++) { long v = store.balance(block, i); b.putLong(v - prev); prev = v; }
+        for (int i = 0; i < CHUNK; i++) b.putInt(store.party(block, i));
+    }
+
+    private static Chunk unpack(byte[] raw) {
+        if (raw.length != CHUNK * ENTRY_BYTES) throw new IllegalStateException("Corrupt archived chunk");
+        ByteBuffer b = ByteBuffer.wrap(raw);
+        Chunk c = new Chunk(CHUNK);
+        long prev = 0;
+        for (int i = 0; i < CHUNK; i++) c.time[i] = prev += b.getLong();
+        b.get(c.type);
+        for (int i = 0; i < CHUNK; i++) c.amount[i] = b.getLong();
+        prev = 0;
+        for (int i = 0; i < CHUNK; i++) c.balance[i] = prev += b.getLong();
+        for (int i = 0; i < CHUNK; i++) c.party[i] = b.getInt();
+        return c;
+    }
+
+    // Heap copy of archived chunk c, inflated on first use
+    private Chunk inflated(Chunk c) {
+        Chunk d = c.decoded;
+        if (d != null) return d;
+        d = unpack(archive.read(c.segment, c.offset));
+        c.decoded = d;
+        synchronized (DECODED) { DECODED.put(c, Boolean.TRUE); }
+        return d;
+    }
+
+    // Move full chunks [spilled, upTo) to the store
+    private void spill(int upTo) {
+        if (spilled >= upTo) return;
+        Chunk[] cs = chunks.clone();
+        for (; spilled < upTo; spilled++) {
+            Chunk c = cs[spilled];
+            cs[spilled] = new Chunk(store.write(c.time, c.type, c.amount, c.balance, c.party));
+        }
+        chunks = cs; // readers holding the old heap chunk keep reading it; new readers go to the store
+    }
+
+    // Move the heap tail (the chunk being filled) into store pages
+    private void pageTail() {
+        int tail = size - spilled * CHUNK;
+        Chunk h = tail > 0 ? chunks[spilled] : null;
+        if (h == null || !h.onHeap()) return;
+        int[] pages = new int[pageCapacity((tail + HistoryStore.PAGE - 1) >>> HistoryStore.PAGE_BITS)];
+        Chunk c = new Chunk(pages);
+        for (int off = 0; off < tail; off++) {
+            if ((off & (HistoryStore.PAGE - 1)) == 0) pages[off >>> HistoryStore.PAGE_BITS] = store.allocatePage();
+            store.put(c.blockOf(off), c.recordOf(off), h.time[off], h.type[off], h.amount[off], h.balance[off], h.party[off]);
+        }
+        Chunk[] cs = chunks.clone();
+        cs[spilled] = c;
+        chunks = cs;
+    }
+
+    private static int pageCapacity(int pages) {
+        return Math.max(FIRST_PAGES, Integer.highestOneBit(Math.max(1, pages - 1)) << 1);
+    }
+
+    private int partyId(String party) {
+        if (party == null) return -1;
+        Integer id = partyIds.get(party);
+        if (id != null) return id;
+        String[] ps = parties;
+        if (partyCount == ps.length) parties = ps = Arrays.copyOf(ps, ps.length * 2);
+        ps[partyCount] = party; // visible to readers once the entry using it is published
+        partyIds.put(party, partyCount);
+        return partyCount++;
+    }
+
+    // ---------- Reads (any thread) ----------
+    int size() { return size; }
+
+    long timeAt(int i) {
+        int off = i & (CHUNK - 1);
+        while (true) {
+            Chunk c = chunk(i);
+            if (c.archived()) {
+                if (off == 0) return c.firstTime;
+                if (off == CHUNK - 1) return c.lastTime;
+                c = inflated(c);
+            }
+            if (c.onHeap()) return c.time[off];
+            long v = store.time(c.blockOf(off), c.recordOf(off));
+            if (current(c, i)) return v;
+        }
+    }
+
+    TransactionType typeAt(int i) {
+        int off = i & (CHUNK - 1);
+        while (true) {
+            Chunk c = chunk(i);
+            if (c.archived()) c = inflated(c);
+            if (c.onHeap()) return TYPES[c.type[off]];
+            byte v = store.type(c.blockOf(off), c.recordOf(off));
+            if (current(c, i)) return TYPES[v];
+        }
+    }
+
+    long amountAt(int i) {
+        int off = i & (CHUNK - 1);
+        while (true) {
+            Chunk c = chunk(i);
+            if (c.archived()) c = inflated(c);
+            if (c.onHeap()) return c.amount[off];
+            long v = store.amount(c.blockOf(off), c.recordOf(off));
+            if (current(c, i)) return v;
+        }
+    }
+
+    // The closing balance of an archived chunk is kept on the heap, so balances as of any time
+    // before the retention horizon need no inflating
+    long balanceAt(int i) {
+        int off = i & (CHUNK - 1);
+        while (true) {
+            Chunk c = chunk(i);
+            if (c.archived()) {
+                if (off == CHUNK - 1) return c.lastBalance;
+                c = inflated(c);
+            }
+            if (c.onHeap()) return c.balance[off];
+            long v = store.balance(c.blockOf(off), c.recordOf(off));
+            if (current(c, i)) return v;
+        }
+    }
+
+    // Raw counterparty (or note) of entry i, without the "to "/"from " prefix
+    String partyAt(int i) {
+        int off = i & (CHUNK - 1);
+        while (true) {
+            Chunk c = chunk(i);
+            if (c.archived()) c = inflated(c);
+            int id;
+            if (c.onHeap()) {
+                id = c.party[off];
+            } else {
+                id = store.party(c.blockOf(off), c.recordOf(off));
+                if (!current(c, i)) continue;
+            }
+            return id < 0 ? null : parties[id];
+        }
+    }
+
+    String noteAt(int i) {
+        String party = partyAt(i);
+        if (party == null) return null;
+        switch (typeAt(i)) {
+            case TRANSFER_OUT: return "to " + party;
+            case TRANSFER_IN: return "from " + party;
+            default: return party;
+        }
+    }
+
+    private Chunk chunk(int i) { return chunks[i >>> CHUNK_BITS]; }
+
+    // A value read from store chunk c only counts if c still holds entry i: once c is copied into a
+    // block or archived, its pages or block may be reused (see HistoryStore.checkpointed) and the
+    // caller retries with the newer chunk. The fence keeps the store read before the check, as in StampedLock.validate.
+    private boolean current(Chunk c, int i) {
+        VarHandle.loadLoadFence();
+        return chunk(i) == c;
+    }
+
+    // ---------- Time-range queries (any thread) ----------
+    // Index of the first entry with time >= t (size() if none), by binary search; archived chunks
+    // are narrowed down by their time range first, so at most one of them is inflated
+    int indexOf(long t) {
+        int lo = 0, hi = size;
+        Chunk[] cs = chunks;
+        int a = Math.min(archived, cs.length), k = 0, khi = a;
+        while (k < khi) { // first archived chunk ending at or after t
+            int mid = (k + khi) >>> 1;
+            if (cs[mid] == null || !cs[mid].archived() || cs[mid].lastTime >= t) khi = mid;
+            else k = mid + 1;
+        }
+        lo = Math.min(hi, k << CHUNK_BITS); // every archived chunk before k ends before t
+        if (k < a && cs[k].archived()) {
+            if (cs[k].firstTime >= t) return lo;
+            hi = Math.min(hi, (k + 1) << CHUNK_BITS);
+        }
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (timeAt(mid) < t) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    // Balance after the last entry at or before t (0 before the account was opened)
+    long balanceAsOf(long t) {
+        int i = t == Long.MAX_VALUE ? size : indexOf(t + 1);
+        return i == 0 ? 0 : balanceAt(i - 1);
+    }
+
+    // Per-type totals of entries [from, to): out[type * 2] = count, out[type * 2 + 1] = amount.
+    // Two rows plus at most CHUNK / 2 entries read per end.
+    long[] totals(int from, int to) {
+        long[] out = new long[STRIDE], start = new long[STRIDE];
+        prefix(to, out);
+        prefix(from, start);
+        for (int k = 0; k < STRIDE; k++) out[k] -= start[k];
+        return out;
+    }
+
+    // Totals of entries [0, i) into out (i <= size): the row or run around i, minus or plus the
+    // entries between it and i, read from the nearer end of i's chunk
+    private void prefix(int i, long[] out) {
+        int ci = i >>> CHUNK_BITS, off = i & (CHUNK - 1);
+        if (ci < sealed || off == 0) { // a full chunk (its last entry is counted before size moves)
+            long[] r = rows;
+            if (off < CHUNK / 2) {
+                System.arraycopy(r, ci * STRIDE, out, 0, STRIDE);
+                for (int j = i - off; j < i; j++) add(out, j, 1);
+            } else {
+                System.arraycopy(r, (ci + 1) * STRIDE, out, 0, STRIDE);
+                for (int j = i, end = (ci + 1) << CHUNK_BITS; j < end; j++) add(out, j, -1);
+            }
+            return;
+        }
+        long[] r, tail = new long[STRIDE];
+        int f, count;
+        while (true) {
+            int s = (int) RUN_SEQ.getAcquire(this);
+            f = sealed;
+            r = rows;
+            count = runCount;
+            System.arraycopy(run, 0, tail, 0, STRIDE);
+            VarHandle.loadLoadFence();
+            if ((s & 1) == 0 && s == (int) RUN_SEQ.getOpaque(this)) break;
+            Thread.onSpinWait();
+        }
+        if (f > ci) { // the chunk filled up meanwhile
+            prefix(i, out);
+            return;
+        }
+        System.arraycopy(r, ci * STRIDE, out, 0, STRIDE);
+        if (off <= count - off) {
+            for (int j = i - off; j < i; j++) add(out, j, 1);
+        } else {
+            for (int k = 0; k < STRIDE; k++) out[k] += tail[k];
+            for (int j = i, end = i - off + count; j < end; j++) add(out, j, -1);
+        }
+    }
+
+    private void add(long[] row, int j, int sign) {
+        int t = typeAt(j).ordinal() * 2;
+        row[t] += sign;
+        row[t + 1] += sign * amountAt(j);
+    }
+
+    // Rows and run from the entries themselves, for snapshots written before they were kept
+    // (before anyone reads or appends)
+    private void summarize() {
+        int n = size, f = n >>> CHUNK_BITS;
+        long[] r = new long[(f + 2) * STRIDE], row = new long[STRIDE];
+        for (int i = 0; i < n; i++) {
+            add(row, i, 1);
+            if ((i & (CHUNK - 1)) == CHUNK - 1) System.arraycopy(row, 0, r, ((i >>> CHUNK_BITS) + 1) * STRIDE, STRIDE);
+        }
+        for (int k = 0; k < STRIDE; k++) run[k] = row[k] - r[f * STRIDE + k];
+        runCount = n - f * CHUNK;
+        sealed = f;
+        rows = r;
+    }
+
+    // Materialize entry i as a Transaction
+    Transaction get(int i) {
+        if (i < 0 || i >= size) throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+        return new Transaction(typeAt(i), amountAt(i), balanceAt(i), noteAt(i), timeAt(i));
+    }
+
+    // Read-only List view of the entries present right now (later appends are not included)
+    List<Transaction> view() {
+        final int n = size;
+        return new ReadOnlyView(n);
+    }
+
+    private final class ReadOnlyView extends AbstractList<Transaction> implements RandomAccess {
+        private final int n;
+
+        ReadOnlyView(int n) { this.n = n; }
+
+        @Override public Transaction get(int i) {
+            if (i < 0 || i >= n) throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + n);
+            return Ledger.this.get(i);
+        }
+
+        @Override public int size() { return n; }
+    }
+
+    // Rebuild a ledger from materialized transactions (older accounts.dat files)
+    static Ledger of(List<Transaction> transactions) {
+        Ledger l = new Ledger();
+        for (Transaction t : transactions) {
+            long at = t.getTimestamp().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            l.append(t.getType(), Money.toCents(t.getAmount()), Money.toCents(t.getBalanceAfter()),
+                    partyOf(t.getType(), t.getNote()), at);
+        }
+        return l;
+    }
+
+    private static String partyOf(TransactionType type, String note) {
+        if (note == null) return null;
+        if (type == TransactionType.TRANSFER_OUT && note.startsWith("to ")) return note.substring(3);
+        if (type == TransactionType.TRANSFER_IN && note.startsWith("from ")) return note.substring(5);
+        return note;
+    }
+
+    // ---------- Encoding (shared by SnapshotCodec and Java serialization) ----------
+    // Spilled chunks are written as block numbers and a paged tail as page numbers (the store must
+    // be forced first), archived ones as their descriptors behind a negative count (older snapshots
+    // have none), a heap tail as primitive columns; nothing is one-object-per-entry. FORMAT 2 adds
+    // the totals rows and run; format 1 ledgers rebuild their rows once.
+    static final int FORMAT = 2;
+
+    int maxEncodedSize() {
+        int n = size, tail = n - spilled * CHUNK;
+        Chunk t = tail > 0 ? chunks[spilled] : null;
+        int bytes = 16 + 8 * (spilled - archived) + 8 * STRIDE * ((n >>> CHUNK_BITS) + 1);
+        bytes += t != null && t.pages != null ? 4 * t.pages.length : ENTRY_BYTES * tail;
+        if (archived > 0) bytes += 4 + 36 * archived;
+        String[] ps = parties;
+        for (int i = 0; i < partyCount; i++) bytes += SnapshotCodec.maxStringSize(ps[i]);
+        return bytes;
+    }
+
+    void encode(ByteBuffer out) {
+        int n = size, tail = n - spilled * CHUNK;
+        Chunk[] cs = chunks;
+        String[] ps = parties;
+        out.putInt(partyCount);
+        for (int i = 0; i < partyCount; i++) SnapshotCodec.putString(out, ps[i]);
+        out.putInt(n);
+        if (archived > 0) {
+            out.putInt(-archived);
+            for (int k = 0; k < archived; k++) {
+                Chunk c = cs[k];
+                out.putInt(c.segment).putLong(c.offset).putLong(c.firstTime).putLong(c.lastTime).putLong(c.lastBalance);
+            }
+        }
+        out.putInt(spilled);
+        for (int k = archived; k < spilled; k++) out.putLong(cs[k].block);
+        long[] r = rows;
+        for (int k = STRIDE, end = ((n >>> CHUNK_BITS) + 1) * STRIDE; k < end; k++) out.putLong(r[k]);
+        for (int k = 0; k < STRIDE; k++) out.putLong(run[k]);
+        Chunk t = tail > 0 ? cs[spilled] : null;
+        if (t != null && t.pages != null) {
+            int used = (tail + HistoryStore.PAGE - 1) >>> HistoryStore.PAGE_BITS;
+            out.putInt(used);
+            for (int k = 0; k < used; k++) out.putInt(t.pages[k]);
+            return;
+        }
+        out.putInt(-1); // heap tail
+        for (int i = spilled * CHUNK; i < n; i++) {
+            Chunk c = cs[i >>> CHUNK_BITS];
+            int off = i & (CHUNK - 1);
+            out.putLong(c.time[off]);
+            out.put(c.type[off]);
+            out.putLong(c.amount[off]);
+            out.putLong(c.balance[off]);
+            out.putInt(c.party[off]);
+        }
+    }
+
+    // Spilled, paged and archived chunks come back as references only; the owning Bank attaches
+    // the store and the archive
+    static Ledger decode(ByteBuffer in, int format) {
+        Ledger l = new Ledger();
+        l.decodeFrom(in, format);
+        return l;
+    }
+
+    private void decodeFrom(ByteBuffer in, int format) {
+        int np = in.getInt();
+        for (int i = 0; i < np; i++) partyId(SnapshotCodec.getString(in));
+        int n = in.getInt();
+        int count = in.getInt();
+        archived = count < 0 ? -count : 0;
+        if (n < 0 || archived > n / CHUNK) throw new IllegalStateException("Corrupt ledger");
+        Chunk[] cs = new Chunk[Math.max(1, (n + CHUNK - 1) >>> CHUNK_BITS)];
+        for (int k = 0; k < archived; k++) {
+            cs[k] = new Chunk(in.getInt(), in.getLong(), in.getLong(), in.getLong(), in.getLong());
+            if (cs[k].segment < 0) throw new IllegalStateException("Corrupt ledger");
+        }
+        if (archived > 0) count = in.getInt();
+        spilled = count;
+        if (spilled < archived || spilled > n / CHUNK) throw new IllegalStateException("Corrupt ledger");
+        for (int k = archived; k < spilled; k++) cs[k] = new Chunk(in.getLong());
+        int f = n >>> CHUNK_BITS, tail = n - spilled * CHUNK;
+        run = new long[STRIDE];
+        if (format >= 2) {
+            long[] r = new long[(f + 2) * STRIDE];
+            for (int k = STRIDE, end = (f + 1) * STRIDE; k < end; k++) r[k] = in.getLong();
+            for (int k = 0; k < STRIDE; k++) run[k] = in.getLong();
+            runCount = n - f * CHUNK;
+            sealed = f;
+            rows = r;
+        }
+        int pages = in.getInt();
+        if (pages >= 0) { // paged tail
+            if (pages != (tail + HistoryStore.PAGE - 1) >>> HistoryStore.PAGE_BITS || (tail > 0 && spilled != f)) {
+                throw new IllegalStateException("Corrupt ledger");
+            }
+            if (tail > 0) {
+                int[] ps = new int[pageCapacity(pages)];
+                for (int k = 0; k < pages; k++) {
+                    if ((ps[k] = in.getInt()) < 0) throw new IllegalStateException("Corrupt ledger");
+                }
+                cs[spilled] = new Chunk(ps);
+            }
+        }
+        // Fill a heap tail column by column, each chunk sized to what it holds
+        for (int i = pages >= 0 ? n : spilled * CHUNK; i < n; ) {
+            int ci = i >>> CHUNK_BITS, used = Math.min(CHUNK, n - i);
+            Chunk c = cs[ci] = new Chunk(Math.max(FIRST_CAPACITY, Integer.highestOneBit(Math.max(1, used - 1)) << 1));
+            for (int off = 0; off < used; off++, i++) {
+                c.time[off] = in.getLong();
+                c.type[off] = in.get();
+                c.amount[off] = in.getLong();
+                c.balance[off] = in.getLong();
+                c.party[off] = in.getInt();
+                if (c.type[off] < 0 || c.type[off] >= TYPES.length || c.party[off] >= partyCount) {
+                    throw new IllegalStateException("Corrupt ledger entry " + i);
+                }
+            }
+        }
+        if (cs[0] == null) cs[0] = new Chunk(FIRST_CAPACITY); // empty ledger
+        chunks = cs;
+        size = n;
+        if (format < 2) {
+            if (spilled == 0 && pages < 0) summarize(); // everything is on the heap
+            else rows = null; // needs the store: attach rebuilds them
+        }
+    }
+
+    // A negative format number goes before the length (older streams start with the length)
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        ByteBuffer b = ByteBuffer.allocate(maxEncodedSize());
+        encode(b);
+        out.writeInt(-FORMAT);
+        out.writeInt(b.position());
+        out.write(b.array(), 0, b.position());
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        int len = in.readInt(), format = 1;
+        if (len < 0) {
+            format = -len;
+            if (format > FORMAT) throw new InvalidObjectException("Unsupported ledger format " + format);
+            len = in.readInt();
+        }
+        byte[] b = new byte[len];
+        in.readFully(b);
+        chunks = new Chunk[] { new Chunk(FIRST_CAPACITY) };
+        parties = new String[2];
+        partyIds = new HashMap<>();
+        rows = new long[2 * STRIDE];
+        decodeFrom(ByteBuffer.wrap(b), format);
+    }
+}
@@ -0,0 +1,29 @@
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+// Fixed-point money: amounts are carried internally as a long count of minor units (cents).
+// BigDecimal only appears at the public API boundary, where it is rounded HALF_UP to cents.
+final class Money {
+    static final int SCALE = 2; // digits after the decimal point
+
+    private Money() {}
+
+    // BigDecimal -> cents (ArithmeticException if the amount does not fit in a long)
+    static long toCents(BigDecimal amount) {
+        return amount.setScale(SCALE, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+    }
+
+    // cents -> BigDecimal with scale 2 (exact)
+    static BigDecimal toDecimal(long cents) { return BigDecimal.valueOf(cents, SCALE); }
+
+    // Convert an amount that must be positive once rounded to cents
+    static long requirePositive(BigDecimal amount) {
+        long cents = amount == null ? 0 : toCents(amount);
+        if (cents <= 0) throw new IllegalArgumentException("Amount must be positive.");
+        return cents;
+    }
+
+    // Overflow-checked arithmetic (ArithmeticException instead of silently wrapping)
+    static long add(long a, long b) { return Math.addExact(a, b); }
+    static long subtract(long a, long b) { return Math.subtractExact(a, b); }
+}
@@ -0,0 +1,93 @@
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+// SHA-256 PIN hashing without per-call setup: every thread keeps its own MessageDigest and
+// scratch buffers, so checking a PIN allocates nothing. Hashes are kept as 32 raw bytes;
+// hex only appears at the edges (public getters, Java serialization, the journal).
+final class PinHash {
+    static final int BYTES = 32;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    // Per-thread digest plus input/output scratch space
+    private static final class Scratch {
+        final MessageDigest md;
+        byte[] in = new byte[16];
+        final byte[] out = new byte[BYTES];
+
+        Scratch() {
+            try {
+                md = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e); // every JRE ships SHA-256
+            }
+        }
+    }
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private PinHash() {}
+
+    // Hash s (UTF-8) into a new array
+    static byte[] hash(String s) {
+        return hashInto(s, SCRATCH.get()).clone();
+    }
+
+    // Constant-time check of pin against a stored hash (the time taken does not depend on
+    // where the hashes differ)
+    static boolean matches(byte[] stored, String pin) {
+        return stored != null && pin != null && MessageDigest.isEqual(stored, hashInto(pin, SCRATCH.get()));
+    }
+
+    // Digest into the thread's output buffer; ASCII input (every PIN) is encoded without allocating
+    private static byte[] hashInto(String s, Scratch sc) {
+        int n = s.length();
+        byte[] in;
+        if (isAscii(s)) {
+            if (sc.in.length < n) sc.in = new byte[Math.max(n, sc.in.length * 2)];
+            in = sc.in;
+            for (int i = 0; i < n; i++) in[i] = (byte) s.charAt(i);
+        } else {
+            in = s.getBytes(StandardCharsets.UTF_8);
+            n = in.length;
+        }
+        sc.md.update(in, 0, n);
+        try {
+            sc.md.digest(sc.out, 0, BYTES);
+        } catch (DigestException e) {
+            throw new IllegalStateException(e);
+        }
+        return sc.out;
+    }
+
+    private static boolean isAscii(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) >= 0x80) return false;
+        }
+        return true;
+    }
+
+    // ---------- Hex (edges only) ----------
+    static String toHex(byte[] b) {
+        if (b == null) return null;
+        char[] c = new char[b.length * 2];
+        for (int i = 0; i < b.length; i++) {
+            c[2 * i] = HEX[(b[i] >> 4) & 0xF];
+            c[2 * i + 1] = HEX[b[i] & 0xF];
+        }
+        return new String(c);
+    }
+
+    static byte[] fromHex(String s) {
+        if (s == null) return null;
+        if ((s.length() & 1) != 0) throw new IllegalArgumentException("Bad hex length: " + s.length());
+        byte[] b = new byte[s.length() / 2];
+        for (int i = 0; i < b.length; i++) {
+            int hi = Character.digit(s.charAt(2 * i), 16), lo = Character.digit(s.charAt(2 * i + 1), 16);
+            if (hi < 0 || lo < 0) throw new IllegalArgumentException("Bad hex digit in pin hash");
+            b[i] = (byte) (hi << 4 | lo);
+        }
+        return b;
+    }
+}
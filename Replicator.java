@@ -0,0 +1,276 @@
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Primary side of replication: ships every committed journal record of a Bank to standby
+// processes (see Standby) over TCP.
+//
+// The journal hands each group commit to committed() right after its fsync; the committing
+// thread only copies the batch into every follower's queue, and one sender thread per follower
+// writes whatever has queued up back to back, so followers add no latency to a commit. A follower
+// more than MAX_BACKLOG_BYTES behind is disconnected; it reconnects and catches up.
+//
+// Catch-up: a connecting follower sends the seq of the last record it has. With the bank
+// quiesced the primary commits its journal and queues the journal records after that seq or,
+// when a checkpoint has dropped them, pins its last checkpoint (snapshot, history file and
+// archive segments) and queues every record after it; live batches continue from exactly the
+// next record. The locks are only held for that: the snapshot, history and records are streamed
+// afterwards, while the bank keeps running.
+//
+//   primary -> follower: 'S' snapshotLen snapshot historyLen history segments (name len bytes)*
+//                        | 'R' len records | 'H' committedSeq
+//   follower -> primary: MAGIC lastSeq, then the seq it has made durable after each batch (ack)
+public class Replicator implements Closeable {
+    static final int MAGIC = 0x424E4B52; // "BNKR"
+    private static final long MAX_BACKLOG_BYTES = 64L << 20;
+    private static final long HEARTBEAT_MS = 1000;
+
+    private final Bank bank;
+    private final String dataFile;
+    private final Journal journal;
+    private final CopyOnWriteArrayList<Link> links = new CopyOnWriteArrayList<>();
+    private final ExecutorService threads = BankServer.newThreadPerTaskExecutor("bank-replication");
+    private final AtomicInteger snapshots = new AtomicInteger();
+    private volatile ServerSocket server;
+    private volatile boolean closed;
+
+    public Replicator(Bank bank, String dataFile) {
+        if (bank.journal() == null) throw new IllegalStateException("Replication needs a journaled bank (Bank.load)");
+        this.bank = bank;
+        this.dataFile = dataFile;
+        this.journal = bank.journal();
+    }
+
+    // Listen for standbys on localhost (port 0 = any free port); returns the bound port
+    public int start(int port) throws IOException {
+        ServerSocket ss = new ServerSocket();
+        ss.setReuseAddress(true);
+        ss.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        server = ss;
+        journal.listener = this::committed;
+        bank.replicator = this;
+        Thread acceptor = new Thread(this::acceptLoop, "bank-replication-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return ss.getLocalPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        journal.listener = null;
+        bank.replicator = null;
+        if (server != null) server.close();
+        for (Link l : links) drop(l);
+        threads.shutdownNow();
+    }
+
+    public int followers() { return links.size(); }
+
+    // Committed records the slowest follower has not yet acknowledged as durable (0 without followers)
+    public long maxLag() {
+        long committed = journal.committedSeq(), lag = 0;
+        for (Link l : links) lag = Math.max(lag, committed - l.acked);
+        return lag;
+    }
+
+    // ---------- Journal side (committing thread) ----------
+    private void committed(ByteBuffer records, long lastSeq) {
+        if (links.isEmpty()) return;
+        byte[] copy = new byte[records.remaining()];
+        records.get(copy);
+        for (Link l : links) {
+            if (lastSeq <= l.cutover) continue; // already covered by its catch-up
+            if (l.backlog.addAndGet(copy.length) > MAX_BACKLOG_BYTES) {
+                drop(l); // too far behind: it reconnects and catches up from the journal or a snapshot
+            } else {
+                l.queue.offer(copy);
+            }
+        }
+    }
+
+    // ---------- Followers ----------
+    private final class Link {
+        final Socket socket;
+        final DataInputStream in;
+        final DataOutputStream out;
+        final LinkedBlockingQueue<byte[]> queue = new LinkedBlockingQueue<>();
+        final AtomicLong backlog = new AtomicLong(); // queued bytes
+        volatile long acked;
+        volatile boolean dropped;
+        long cutover;  // last seq sent by the catch-up
+        Path snapshot; // pinned checkpoint, sent before anything else, if set
+        long historyBytes;
+        List<Path> segments;
+
+        Link(Socket socket) throws IOException {
+            this.socket = socket;
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+        }
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                Socket s = server.accept();
+                s.setTcpNoDelay(true);
+                threads.execute(() -> serve(s));
+            } catch (IOException e) {
+                if (closed) return;
+            } catch (RuntimeException e) { // executor already shut down
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket s) {
+        Link l = null;
+        try {
+            l = new Link(s);
+            if (l.in.readInt() != MAGIC) throw new IOException("Not a standby");
+            long have = l.in.readLong();
+            catchUp(l, have);
+            Link link = l;
+            threads.execute(() -> readAcks(link));
+            send(l);
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            // follower gone or refused; it retries on its own
+        } finally {
+            if (l != null) {
+                drop(l);
+                unpin(l);
+            } else {
+                closeQuietly(s);
+            }
+        }
+    }
+
+    // Queue what the follower is missing up to the current last record, then subscribe it to
+    // live batches; runs quiesced so no record can fall between the two. Nothing here is
+    // proportional to the bank: a snapshot is only pinned (hard link), and sent later by send().
+    private void catchUp(Link l, long have) throws IOException {
+        l.acked = have;
+        bank.quiesced(() -> {
+            journal.sync();
+            long last = journal.lastSeq();
+            if (have > last) throw new IOException("Standby is ahead of the primary (" + have + " > " + last + ")");
+            byte[] records = have >= bank.journalSeq() ? journal.committedAfter(have) : null;
+            if (records == null) { // dropped by a checkpoint: its snapshot, then everything after it
+                records = journal.committedAfter(bank.journalSeq());
+                if (records == null) throw new IOException("Journal does not continue the last checkpoint");
+                Path snap = Paths.get(dataFile + ".replica" + snapshots.incrementAndGet());
+                l.historyBytes = bank.pinReplica(snap);
+                l.snapshot = snap;
+                l.segments = HistoryArchive.files(Bank.archivePath(dataFile)); // all complete: no checkpoint runs
+            }
+            if (records.length > 0) {
+                l.queue.offer(records);
+                l.backlog.addAndGet(records.length);
+            }
+            l.cutover = last;
+            links.add(l);
+            return null;
+        });
+    }
+
+    private void send(Link l) throws IOException, InterruptedException {
+        if (l.snapshot != null) {
+            try {
+                sendSnapshot(l);
+            } finally {
+                unpin(l);
+            }
+        }
+        while (!l.dropped) {
+            byte[] b = l.queue.poll(HEARTBEAT_MS, TimeUnit.MILLISECONDS);
+            if (b == null) {
+                l.out.write('H');
+                l.out.writeLong(journal.committedSeq());
+            }
+            for (; b != null; b = l.queue.poll()) { // everything queued so far, one flush
+                l.out.write('R');
+                l.out.writeInt(b.length);
+                l.out.write(b);
+                l.backlog.addAndGet(-b.length);
+            }
+            l.out.flush();
+        }
+    }
+
+    private void sendSnapshot(Link l) throws IOException {
+        l.out.write('S');
+        l.out.writeLong(Files.size(l.snapshot));
+        Files.copy(l.snapshot, l.out);
+        l.out.writeLong(l.historyBytes); // blocks past the snapshot's are harmless: the standby reuses them
+        copy(Bank.historyPath(dataFile), l.historyBytes, l.out);
+        l.out.writeInt(l.segments.size());
+        for (Path seg : l.segments) {
+            l.out.writeUTF(seg.getFileName().toString());
+            l.out.writeLong(Files.size(seg));
+            Files.copy(seg, l.out);
+        }
+        l.out.flush();
+    }
+
+    // Release the checkpoint pinned for l, once sent (or given up)
+    private void unpin(Link l) {
+        Path snap = l.snapshot;
+        if (snap == null) return;
+        l.snapshot = null;
+        bank.unpinReplica();
+        try {
+            Files.deleteIfExists(snap);
+        } catch (IOException ignored) {
+        }
+    }
+
+    // The first len bytes of file
+    private static void copy(Path file, long len, OutputStream out) throws IOException {
+        if (len == 0) return;
+        byte[] buf = new byte[1 << 16];
+        try (InputStream in = Files.newInputStream(file)) {
+            while (len > 0) {
+                int n = in.read(buf, 0, (int) Math.min(buf.length, len));
+                if (n < 0) throw new EOFException(file + " is shorter than its blocks");
+                out.write(buf, 0, n);
+                len -= n;
+            }
+        }
+    }
+
+    private void readAcks(Link l) {
+        try {
+            while (!l.dropped) l.acked = l.in.readLong();
+        } catch (IOException e) {
+            drop(l);
+        }
+    }
+
+    private void drop(Link l) {
+        l.dropped = true;
+        links.remove(l);
+        closeQuietly(l.socket);
+    }
+
+    private static void closeQuietly(Socket s) {
+        try {
+            s.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
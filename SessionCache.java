@@ -0,0 +1,75 @@
+import java.security.SecureRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Bounded cache of verified sessions: token -> account number.
+// A successful login gets a random 128-bit token; later operations present the token instead of
+// the PIN, so they skip hashing. Lookups are lock-free. Sessions expire ttlMillis after login,
+// and once more than capacity are live the oldest ones are evicted (FIFO).
+final class SessionCache {
+    private static final class Session {
+        final String token;
+        final String accNo;
+        final long expires;
+
+        Session(String token, String accNo, long expires) {
+            this.token = token;
+            this.accNo = accNo;
+            this.expires = expires;
+        }
+    }
+
+    private final int capacity;
+    private final long ttlMillis;
+    private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Session> order = new ConcurrentLinkedQueue<>(); // oldest first
+    private final AtomicInteger size = new AtomicInteger();
+    private final SecureRandom random = new SecureRandom();
+
+    SessionCache(int capacity, long ttlMillis) {
+        this.capacity = capacity;
+        this.ttlMillis = ttlMillis;
+    }
+
+    // Start a session for an account whose PIN was just verified
+    String open(String accNo) {
+        byte[] b = new byte[16];
+        random.nextBytes(b);
+        long now = System.currentTimeMillis();
+        Session s = new Session(PinHash.toHex(b), accNo, now + ttlMillis);
+        sessions.put(s.token, s);
+        order.add(s);
+        size.incrementAndGet();
+        evict(now);
+        return s.token;
+    }
+
+    // Account number of a live session, or null if unknown, expired or evicted
+    String lookup(String token) {
+        if (token == null) return null;
+        Session s = sessions.get(token);
+        if (s == null) return null;
+        if (System.currentTimeMillis() >= s.expires) {
+            close(token);
+            return null;
+        }
+        return s.accNo;
+    }
+
+    void close(String token) {
+        if (token != null && sessions.remove(token) != null) size.decrementAndGet();
+    }
+
+    // Pop the oldest sessions while over capacity or already closed/expired. Everything expires
+    // within ttlMillis, so the queue never holds more than the logins of one ttl period.
+    private void evict(long now) {
+        for (Session s; (s = order.peek()) != null; ) {
+            boolean live = sessions.get(s.token) == s;
+            if (live && now < s.expires && size.get() <= capacity) return;
+            if (order.remove(s) && sessions.remove(s.token, s)) size.decrementAndGet();
+        }
+    }
+
+    int size() { return size.get(); }
+}
@@ -0,0 +1,237 @@
+import java.io.*;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Accounts partitioned over N independent Bank shards by account number (number % N).
+// Every shard has its own lock stripes, journal, history and snapshot (<file>.shard<i>) and hands
+// out its own account numbers (i, i + N, i + 2N, ...), so operations on one shard never touch
+// another shard's locks, files or counters. The shard count is fixed in <file>.shards.
+//
+// A transfer between two shards is two-phase:
+//   1. prepare: with both accounts locked (lower shard first, so no cycles) funds are checked and
+//      the amount is put on hold on both (Account.hold); then, with the locks released, the
+//      transfer is appended to the transfer log <file>.xfer and fsynced (group commit). From
+//      here on it is decided.
+//   2. commit: both accounts locked again, each shard applies and journals its side under the
+//      log record's number (its link) and the holds are released.
+// Recovery replays the transfer log and re-applies every side a shard does not have yet (see
+// Bank.hasLink), so after a crash a transfer is either complete on both shards or, if its log
+// record never reached disk, on neither. New accounts are committed before they are returned,
+// so a logged transfer never refers to an account that did not survive a crash.
+public class ShardedBank implements Closeable {
+    private final Bank[] shards;
+    private final String[] files;
+    private final Journal transfers;
+    // cross-shard transfers share it, checkpoint() takes it alone before emptying the transfer log
+    private final ReentrantReadWriteLock gate = new ReentrantReadWriteLock();
+    private final AtomicInteger nextShard = new AtomicInteger(); // round-robin for new accounts
+
+    // Open (or create) a bank of `count` shards stored next to file, recovering cross-shard transfers
+    public static ShardedBank open(String file, int count) {
+        if (count < 1) throw new IllegalArgumentException("Need at least one shard");
+        try {
+            Path manifest = Paths.get(file + ".shards");
+            if (Files.exists(manifest)) {
+                int existing = Integer.parseInt(new String(Files.readAllBytes(manifest), StandardCharsets.UTF_8).trim());
+                if (existing != count) throw new IllegalArgumentException(file + " has " + existing + " shards, not " + count);
+            } else {
+                Files.write(manifest, (count + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+            return new ShardedBank(file, count);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open " + file, e);
+        }
+    }
+
+    private ShardedBank(String file, int count) throws IOException {
+        shards = new Bank[count];
+        files = new String[count];
+        for (int i = 0; i < count; i++) {
+            files[i] = file + ".shard" + i;
+            shards[i] = Bank.load(files[i]);
+        }
+        // Roll every logged transfer forward on the shards that are missing their side
+        transfers = Journal.open(Paths.get(file + ".xfer"), -1L, (link, rec) -> {
+            rec.get(); // TRANSFER
+            long at = rec.getLong();
+            String from = Journal.getString(rec), to = Journal.getString(rec);
+            long amount = rec.getLong();
+            Bank src = shardOf(from), dst = shardOf(to);
+            if (!src.hasLink(link)) src.linkOut(link, from, to, amount, at);
+            if (!dst.hasLink(link)) dst.linkIn(link, from, to, amount, at);
+        });
+        long top = 0;
+        for (int i = 0; i < count; i++) {
+            shards[i].forgetReplayedLinks();
+            shards[i].numberAccounts(i, count);
+            top = Math.max(top, shards[i].linkSeq());
+            if (!shards[i].save(files[i])) throw new IOException("Cannot commit recovered " + files[i]);
+        }
+        transfers.skipTo(top); // an emptied log must not hand out links the shards already hold
+    }
+
+    // ---------- Routing ----------
+    public int shardCount() { return shards.length; }
+
+    int shardIndex(String accNo) { return (int) Math.floorMod(Bank.accountKey(accNo), (long) shards.length); }
+
+    Bank shardOf(String accNo) { return shards[shardIndex(accNo)]; }
+
+    // ---------- Operations (single shard: straight to its Bank) ----------
+    // Create an account on the next shard (round-robin) and commit it before returning
+    public Account createAccount(String holderName, String pin, BigDecimal initialDeposit) {
+        int i = Math.floorMod(nextShard.getAndIncrement(), shards.length);
+        Account a = shards[i].createAccount(holderName, pin, initialDeposit);
+        if (!shards[i].save(files[i])) throw new UncheckedIOException(new IOException("Cannot commit " + files[i]));
+        return a;
+    }
+
+    public Account getAccount(String accNo) { return shardOf(accNo).getAccount(accNo); }
+
+    public Account authenticate(String accNo, String pin) { return shardOf(accNo).authenticate(accNo, pin); }
+
+    public void deposit(String accNo, BigDecimal amount) { shardOf(accNo).deposit(accNo, amount); }
+
+    public boolean withdraw(String accNo, BigDecimal amount) { return shardOf(accNo).withdraw(accNo, amount); }
+
+    public boolean closeAccount(String accNo) { return shardOf(accNo).closeAccount(accNo); }
+
+    // Transfer money between accounts, two-phase when they live on different shards. An
+    // UncheckedIOException from the transfer log leaves the transfer in doubt: nothing is applied
+    // now, and the next open() completes it if its log record did reach the disk. Until that open
+    // every cross-shard transfer fails the same way, because a later link applied on the shards
+    // would make recovery take the in-doubt one for applied as well (see Bank.hasLink). Its holds
+    // stay too, so the money it may still move cannot be spent twice.
+    // The fsync runs without the account locks: other operations on the two accounts go on
+    // meanwhile (against the balances net of the holds) and concurrent transfers share the sync.
+    public boolean transfer(String fromAcc, String toAcc, BigDecimal amount) {
+        int i = shardIndex(fromAcc), j = shardIndex(toAcc);
+        if (i == j) return shards[i].transfer(fromAcc, toAcc, amount);
+        long amt = Money.requirePositive(amount);
+        Bank src = shards[i], dst = shards[j];
+        gate.readLock().lock();
+        try {
+            Account from, to;
+            lockBoth(i, fromAcc, j, toAcc);
+            try {
+                from = src.requireAccount(fromAcc);
+                to = dst.requireAccount(toAcc);
+                // not enough funds, or a credit that would overflow after the debit was applied
+                if (from.available() < amt || to.headroom() < amt) return false;
+                transfers.checkHealthy(); // a failed log sync stays failed until the log is reopened
+                from.hold(amt, 0);
+                to.hold(0, amt);
+            } finally {
+                unlockBoth(i, fromAcc, j, toAcc);
+            }
+            long now = System.currentTimeMillis();
+            long link = transfers.appendTransfer(fromAcc, toAcc, amt, now); // phase 1: prepare
+            transfers.sync();
+            lockBoth(i, fromAcc, j, toAcc);
+            try {
+                src.linkOut(link, fromAcc, toAcc, amt, now); // phase 2: commit on both shards
+                dst.linkIn(link, fromAcc, toAcc, amt, now);
+                from.release(amt, 0);
+                to.release(0, amt);
+            } finally {
+                unlockBoth(i, fromAcc, j, toAcc);
+            }
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Transfer log write failed", e);
+        } finally {
+            gate.readLock().unlock();
+        }
+    }
+
+    // Lock the two accounts of a cross-shard transfer, lower shard first
+    private void lockBoth(int i, String a, int j, String b) {
+        shards[Math.min(i, j)].lockAccount(i < j ? a : b);
+        shards[Math.max(i, j)].lockAccount(i < j ? b : a);
+    }
+
+    private void unlockBoth(int i, String a, int j, String b) {
+        shards[Math.max(i, j)].unlockAccount(i < j ? b : a);
+        shards[Math.min(i, j)].unlockAccount(i < j ? a : b);
+    }
+
+    // ---------- Listing ----------
+    // One page across all shards: at most limit accounts numbered fromNumber..toNumber, in order.
+    // Merges one page per shard, so it costs O(shards * (log N + limit)).
+    public List<Account> listAccounts(long fromNumber, long toNumber, int limit) {
+        List<Account> page = new ArrayList<>();
+        for (Bank b : shards) page.addAll(b.listAccounts(fromNumber, toNumber, limit));
+        page.sort(Comparator.comparingLong(a -> Bank.accountKey(a.getAccountNumber())));
+        return page.size() > limit ? new ArrayList<>(page.subList(0, Math.max(limit, 0))) : page;
+    }
+
+    // ---------- Persistence ----------
+    // Commit every shard's journal (the transfer log is already durable when transfer() returns)
+    public boolean save() {
+        boolean ok = true;
+        for (int i = 0; i < shards.length; i++) ok &= shards[i].save(files[i]);
+        return ok;
+    }
+
+    // Snapshot every shard, then empty the transfer log they now cover. Cross-shard transfers
+    // wait for it; a crash part way only means recovery finds sides that are already applied.
+    // A failed transfer log is kept as it is: it may hold an in-doubt transfer to roll forward.
+    public void checkpoint() throws IOException {
+        gate.writeLock().lock();
+        try {
+            transfers.checkHealthy();
+            for (Bank b : shards) b.checkpoint();
+            transfers.truncate();
+        } finally {
+            gate.writeLock().unlock();
+        }
+    }
+
+    // History retention for every shard (see Bank.setHistoryRetention)
+    public void setHistoryRetention(Duration retention) {
+        for (Bank b : shards) b.setHistoryRetention(retention);
+    }
+
+    // Archive every shard's history that ends before `before`; returns the entries archived
+    public long archiveHistory(LocalDateTime before) throws IOException {
+        long archived = 0;
+        for (Bank b : shards) archived += b.archiveHistory(before);
+        return archived;
+    }
+
+    // Checkpoint, then close every shard's files and the transfer log, even when something before
+    // failed; the first failure is rethrown
+    @Override
+    public void close() throws IOException {
+        Throwable failure = null;
+        try {
+            checkpoint();
+        } catch (IOException | RuntimeException e) {
+            failure = e;
+        }
+        for (Bank b : shards) {
+            try {
+                b.closeFiles();
+            } catch (IOException | RuntimeException e) {
+                if (failure == null) failure = e;
+            }
+        }
+        try {
+            transfers.close();
+        } catch (IOException | RuntimeException e) {
+            if (failure == null) failure = e;
+        }
+        if (failure instanceof IOException) throw (IOException) failure;
+        if (failure != null) throw (RuntimeException) failure;
+    }
+}
@@ -0,0 +1,254 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+
+// Versioned, checksummed binary snapshot format for a Bank.
+//
+//   header   magic "BNKS" | version | nextAccount | journalSeq | historyBlocks | accounts | linkSeq | crc
+//   section* length | crc | count | account*          (a length of 0 ends the sections)
+//   footer   offset of every section | sections | crc | footer start | magic "BNKE"
+//
+// Accounts are packed into sections of about SECTION_BYTES, each with its own CRC32. Sections
+// can be decoded one after another from a single reusable buffer (streaming) or, using the
+// footer, independently on the common fork-join pool (parallel). All I/O goes through a
+// FileChannel and direct buffers; there is no reflection and no per-transaction object.
+final class SnapshotCodec {
+    static final int MAGIC = 0x424E4B53;   // "BNKS"
+    // 5: ledgers may refer to archived history, 4: + linkSeq, 3: ledgers keep their totals
+    // (Ledger.FORMAT 2), 2: pin hash as raw bytes (1: hex string); all readable
+    static final int VERSION = 5;
+    private static final int END_MAGIC = 0x424E4B45; // "BNKE"
+    private static final int HEADER_BYTES = 52, V3_HEADER_BYTES = 44, TRAILER_BYTES = 20, SECTION_HEADER = 8;
+    private static final int SECTION_BYTES = 1 << 20;
+
+    private SnapshotCodec() {}
+
+    // ---------- Write ----------
+    // Write bank to file and fsync it (caller holds every stripe and moves the file into place)
+    static void write(Bank bank, Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocateDirect(HEADER_BYTES);
+            header.putInt(MAGIC).putInt(VERSION).putLong(bank.nextAccountNumberValue())
+                  .putLong(bank.journalSeq()).putLong(bank.historyBlocks()).putLong(bank.accountCount())
+                  .putLong(bank.linkSeq());
+            header.putInt(crc(header, 0, HEADER_BYTES - 4)).flip();
+            writeFully(ch, header);
+
+            List<Long> offsets = new ArrayList<>();
+            ByteBuffer buf = ByteBuffer.allocateDirect(SECTION_BYTES);
+            buf.position(SECTION_HEADER + 4);
+            int count = 0;
+            for (Account a : bank.accountsView()) {
+                int need = maxEncodedSize(a);
+                if (count > 0 && buf.remaining() < need) {
+                    offsets.add(ch.position());
+                    writeSection(ch, buf, count);
+                    count = 0;
+                }
+                if (buf.remaining() < need) { // one account bigger than a whole section
+                    buf = ByteBuffer.allocateDirect(SECTION_HEADER + 4 + need);
+                    buf.position(SECTION_HEADER + 4);
+                }
+                encode(a, buf);
+                count++;
+            }
+            if (count > 0) {
+                offsets.add(ch.position());
+                writeSection(ch, buf, count);
+            }
+
+            long footerStart = ch.position();
+            ByteBuffer footer = ByteBuffer.allocateDirect(4 + offsets.size() * 8 + TRAILER_BYTES);
+            footer.putInt(0); // end of sections
+            for (long off : offsets) footer.putLong(off);
+            footer.putInt(offsets.size());
+            footer.putInt(crc(footer, 4, offsets.size() * 8));
+            footer.putLong(footerStart + 4);
+            footer.putInt(END_MAGIC).flip();
+            writeFully(ch, footer);
+            ch.force(true);
+        }
+    }
+
+    private static void writeSection(FileChannel ch, ByteBuffer buf, int count) throws IOException {
+        int len = buf.position() - SECTION_HEADER;
+        buf.putInt(SECTION_HEADER, count);
+        buf.putInt(0, len);
+        buf.putInt(4, crc(buf, SECTION_HEADER, len));
+        buf.flip();
+        writeFully(ch, buf);
+        buf.clear();
+        buf.position(SECTION_HEADER + 4);
+    }
+
+    private static int maxEncodedSize(Account a) {
+        return maxStringSize(a.getAccountNumber()) + maxStringSize(a.getHolderName())
+                + 4 + PinHash.BYTES + 8 + a.getLedger().maxEncodedSize();
+    }
+
+    private static void encode(Account a, ByteBuffer out) {
+        putString(out, a.getAccountNumber());
+        putString(out, a.getHolderName());
+        byte[] pin = a.pinHashBytes();
+        out.putInt(pin.length);
+        out.put(pin);
+        out.putLong(a.getBalanceCents());
+        a.getLedger().encode(out);
+    }
+
+    // ---------- Read ----------
+    // True if the file starts with the snapshot magic number
+    static boolean isSnapshot(FileChannel ch) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(4);
+        return ch.read(b, 0) == 4 && b.getInt(0) == MAGIC;
+    }
+
+    // Decode a snapshot, sections in parallel if asked; IOException on any corruption
+    static Bank read(Path file, boolean parallel) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocateDirect(8);
+            readFully(ch, magic, 0);
+            if (magic.getInt(0) != MAGIC) throw new IOException(file + " is not a bank snapshot");
+            int version = magic.getInt(4);
+            if (version < 1 || version > VERSION) throw new IOException("Unsupported snapshot version " + version);
+            int headerBytes = version < 4 ? V3_HEADER_BYTES : HEADER_BYTES;
+            ByteBuffer header = ByteBuffer.allocateDirect(headerBytes);
+            readFully(ch, header, 0);
+            if (crc(header, 0, headerBytes - 4) != header.getInt(headerBytes - 4)) {
+                throw new IOException("Corrupt snapshot header in " + file);
+            }
+            Bank bank = new Bank();
+            bank.restoreCounters(header.getLong(8), header.getLong(16), header.getLong(24),
+                    version < 4 ? 0L : header.getLong(40));
+            long expected = header.getLong(32);
+            if (parallel) readParallel(ch, bank, version);
+            else readStreaming(ch, bank, version, headerBytes);
+            if (bank.accountCount() != expected) {
+                throw new IOException("Snapshot holds " + bank.accountCount() + " accounts, header says " + expected);
+            }
+            return bank;
+        }
+    }
+
+    // One pass front to back with a single reusable buffer
+    private static void readStreaming(FileChannel ch, Bank bank, int version, int headerBytes) throws IOException {
+        long pos = headerBytes;
+        ByteBuffer head = ByteBuffer.allocateDirect(SECTION_HEADER);
+        ByteBuffer buf = ByteBuffer.allocateDirect(SECTION_BYTES);
+        while (true) {
+            head.clear();
+            readFully(ch, head, pos);
+            int len = head.getInt(0);
+            if (len == 0) return;
+            if (len < 4 || pos + SECTION_HEADER + len > ch.size()) throw new IOException("Corrupt section at " + pos);
+            if (buf.capacity() < len) buf = ByteBuffer.allocateDirect(len);
+            buf.clear().limit(len);
+            readFully(ch, buf, pos + SECTION_HEADER);
+            decodeSection(buf, head.getInt(4), pos, bank, version);
+            pos += SECTION_HEADER + len;
+        }
+    }
+
+    // Locate the sections through the footer and decode them on the fork-join pool
+    private static void readParallel(FileChannel ch, Bank bank, int version) throws IOException {
+        long size = ch.size();
+        ByteBuffer trailer = ByteBuffer.allocateDirect(TRAILER_BYTES);
+        if (size < V3_HEADER_BYTES + TRAILER_BYTES) throw new IOException("Truncated snapshot");
+        readFully(ch, trailer, size - TRAILER_BYTES);
+        if (trailer.getInt(16) != END_MAGIC) throw new IOException("Truncated snapshot (no footer)");
+        int n = trailer.getInt(0);
+        long tableStart = trailer.getLong(8);
+        if (n < 0 || tableStart + n * 8L != size - TRAILER_BYTES) throw new IOException("Corrupt snapshot footer");
+        ByteBuffer table = ByteBuffer.allocateDirect(n * 8);
+        readFully(ch, table, tableStart);
+        if (crc(table, 0, n * 8) != trailer.getInt(4)) throw new IOException("Corrupt snapshot footer");
+        try {
+            IntStream.range(0, n).parallel().forEach(i -> {
+                try {
+                    long pos = table.getLong(i * 8);
+                    ByteBuffer head = ByteBuffer.allocate(SECTION_HEADER);
+                    readFully(ch, head, pos);
+                    int len = head.getInt(0);
+                    if (len < 4 || pos + SECTION_HEADER + len > tableStart) throw new IOException("Corrupt section at " + pos);
+                    ByteBuffer buf = ByteBuffer.allocateDirect(len);
+                    readFully(ch, buf, pos + SECTION_HEADER);
+                    decodeSection(buf, head.getInt(4), pos, bank, version);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static void decodeSection(ByteBuffer buf, int expectedCrc, long pos, Bank bank, int version)
+            throws IOException {
+        if (crc(buf, 0, buf.limit()) != expectedCrc) throw new IOException("Checksum mismatch in section at " + pos);
+        buf.position(0);
+        try {
+            int count = buf.getInt();
+            for (int i = 0; i < count; i++) bank.putRestored(decode(buf, version));
+        } catch (RuntimeException e) { // checksum passed but the content does not parse
+            throw new IOException("Malformed section at " + pos, e);
+        }
+    }
+
+    private static Account decode(ByteBuffer in, int version) {
+        String accNo = getString(in), holder = getString(in);
+        byte[] pinHash;
+        if (version == 1) {
+            pinHash = PinHash.fromHex(getString(in));
+        } else {
+            pinHash = new byte[in.getInt()];
+            in.get(pinHash);
+        }
+        long balance = in.getLong();
+        return new Account(accNo, holder, pinHash, balance, Ledger.decode(in, version < 3 ? 1 : Ledger.FORMAT));
+    }
+
+    // ---------- Helpers ----------
+    static int maxStringSize(String s) { return 4 + 3 * s.length(); } // UTF-8 needs at most 3 bytes per char
+
+    static void putString(ByteBuffer out, String s) {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.putInt(b.length);
+        out.put(b);
+    }
+
+    static String getString(ByteBuffer in) {
+        byte[] b = new byte[in.getInt()];
+        in.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    private static int crc(ByteBuffer buf, int from, int len) {
+        CRC32 crc = new CRC32();
+        ByteBuffer slice = buf.duplicate();
+        slice.limit(from + len).position(from);
+        crc.update(slice);
+        return (int) crc.getValue();
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) ch.write(buf);
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, pos);
+            if (n < 0) throw new IOException("Unexpected end of snapshot at " + pos);
+            pos += n;
+        }
+        buf.flip();
+    }
+}
@@ -0,0 +1,238 @@
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.locks.LockSupport;
+
+// Follower side of replication (see Replicator): keeps a hot copy of a primary bank in its own
+// files (snapshot, journal, history and archive at `file`) and can take over as a normal Bank.
+//
+// Records arrive exactly as the primary journaled them; each one is appended verbatim (same seq)
+// to the local journal and applied with the bank quiesced. Once everything received so far is
+// applied, the local journal is committed and the primary gets an ack, so the lag the primary sees
+// is what this standby has made durable. On a lost connection it reconnects every RETRY_MS and
+// resumes after its last record. promote() stops following and returns the bank, whose journal
+// simply continues the primary's numbering.
+//
+//   java Standby <file> <primary host:port> [serve port]
+//   (type "promote" to take over; with a serve port a BankServer then starts on it)
+public class Standby implements Closeable {
+    private static final long RETRY_MS = 1000;
+
+    private final String file;
+    private final InetSocketAddress primary;
+    private final Thread follower;
+    private volatile Bank bank;
+    private volatile long appliedSeq;  // last record applied here
+    private volatile long primarySeq;  // last record the primary reported committed
+    private volatile long lastHeard;   // System.currentTimeMillis() of the last frame
+    private volatile boolean stopped;
+    private volatile Socket socket;
+
+    public Standby(String file, InetSocketAddress primary) {
+        this.file = file;
+        this.primary = primary;
+        this.bank = Bank.load(file);
+        if (bank.journal() == null) throw new IllegalStateException("Cannot open the journal of " + file);
+        appliedSeq = bank.journal().lastSeq();
+        follower = new Thread(this::run, "bank-standby");
+        follower.setDaemon(true);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: java Standby <file> <primary host:port> [serve port]");
+            System.exit(2);
+        }
+        int colon = args[1].lastIndexOf(':');
+        Standby s = new Standby(args[0], new InetSocketAddress(args[1].substring(0, colon),
+                Integer.parseInt(args[1].substring(colon + 1))));
+        s.start();
+        System.out.println("Following " + args[1] + " from record " + s.appliedSeq() + "; type \"promote\" to take over");
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.trim().equals("promote")) break;
+            System.out.println("applied " + s.appliedSeq() + ", lag " + s.lag() + " records, last heard "
+                    + s.millisSinceHeard() + " ms ago");
+        }
+        Bank bank = s.promote();
+        System.out.println("Promoted at record " + bank.journal().lastSeq());
+        if (args.length > 2) {
+            BankServer server = new BankServer(bank, args[0], Paths.get("exports"));
+            System.out.println("Bank server listening on port " + server.start(Integer.parseInt(args[2])));
+        }
+    }
+
+    public void start() { follower.start(); }
+
+    // Current local bank (replaced when a snapshot arrives); read-only until promoted
+    public Bank bank() { return bank; }
+
+    public long appliedSeq() { return appliedSeq; }
+
+    // Records the primary has committed that are not applied here yet, as far as we know
+    public long lag() { return Math.max(0, primarySeq - appliedSeq); }
+
+    public long millisSinceHeard() { return lastHeard == 0 ? -1 : System.currentTimeMillis() - lastHeard; }
+
+    // Stop following and return the bank, committed and ready to be used as the new primary
+    public Bank promote() throws IOException {
+        stop();
+        Bank b = bank;
+        if (!b.save(file)) throw new IOException("Cannot commit " + file);
+        return b;
+    }
+
+    // Stop following and release the local files
+    @Override
+    public void close() throws IOException {
+        stop();
+        bank.closeFiles();
+    }
+
+    private void stop() {
+        stopped = true;
+        Socket s = socket;
+        if (s != null) {
+            try { s.close(); } catch (IOException ignored) { }
+        }
+        if (follower.isAlive() && Thread.currentThread() != follower) {
+            try {
+                follower.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // ---------- Following ----------
+    private void run() {
+        while (!stopped) {
+            try {
+                follow();
+            } catch (IOException | RuntimeException e) {
+                // primary gone, or the stream broke: reconnect and resume after appliedSeq
+            }
+            if (!stopped) LockSupport.parkNanos(RETRY_MS * 1_000_000L);
+        }
+    }
+
+    private void follow() throws IOException {
+        try (Socket s = new Socket()) {
+            socket = s;
+            if (stopped) return;
+            s.connect(primary);
+            s.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream(), 1 << 16));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+            out.writeInt(Replicator.MAGIC);
+            out.writeLong(appliedSeq);
+            out.flush();
+            boolean unacked = false;
+            while (!stopped) {
+                int frame = in.read();
+                switch (frame) {
+                    case 'R': {
+                        byte[] records = new byte[in.readInt()];
+                        in.readFully(records);
+                        apply(records);
+                        unacked = true;
+                        break;
+                    }
+                    case 'H':
+                        primarySeq = Math.max(primarySeq, in.readLong());
+                        break;
+                    case 'S':
+                        receiveSnapshot(in);
+                        unacked = true;
+                        break;
+                    case -1:
+                        throw new EOFException("Primary closed the connection");
+                    default:
+                        throw new IOException("Bad replication frame " + frame);
+                }
+                lastHeard = System.currentTimeMillis();
+                if (unacked && in.available() == 0) { // drained: one local commit for all of it
+                    if (!bank.save(file)) throw new IOException("Cannot commit " + file);
+                    out.writeLong(appliedSeq);
+                    out.flush();
+                    unacked = false;
+                }
+            }
+        }
+    }
+
+    private void apply(byte[] records) throws IOException {
+        Bank b = bank;
+        Journal journal = b.journal();
+        ByteBuffer buf = ByteBuffer.wrap(records);
+        b.quiesced(() -> {
+            while (buf.hasRemaining()) {
+                int start = buf.position();
+                ByteBuffer rec = Journal.checkedRecord(buf);
+                long seq = rec.getLong();
+                if (seq <= appliedSeq) continue; // already here
+                if (seq != appliedSeq + 1) throw new IOException("Gap in replication stream: " + appliedSeq + " -> " + seq);
+                if (rec.get(rec.position()) == Journal.IMPORT) { // its data is only in the primary's snapshot
+                    throw new IOException("Primary bulk-imported at " + seq + "; resyncing from its snapshot");
+                }
+                journal.appendReplicated(records, start, buf.position() - start, seq);
+                Journal.apply(b, rec);
+                appliedSeq = seq;
+            }
+            return null;
+        });
+        primarySeq = Math.max(primarySeq, appliedSeq);
+    }
+
+    // Replace the local state with the primary's snapshot. The old snapshot and journal are
+    // deleted first, so a crash half way leaves an empty standby that resyncs, never a mix.
+    private void receiveSnapshot(DataInputStream in) throws IOException {
+        Path target = Paths.get(file), history = Paths.get(file + ".history"), archive = Bank.archivePath(file);
+        Path tmp = Paths.get(file + ".incoming"), tmpHistory = Paths.get(file + ".incoming.history");
+        Path tmpArchive = Bank.archivePath(file + ".incoming");
+        clear(tmpArchive);
+        copy(in, tmp, in.readLong());
+        copy(in, tmpHistory, in.readLong());
+        for (int n = in.readInt(); n > 0; n--) {
+            Path seg = tmpArchive.resolve(Paths.get(in.readUTF()).getFileName());
+            Files.createDirectories(tmpArchive);
+            copy(in, seg, in.readLong());
+        }
+        bank.closeFiles();
+        Files.deleteIfExists(target);
+        Files.deleteIfExists(Paths.get(file + ".journal"));
+        Files.move(tmpHistory, history, StandardCopyOption.REPLACE_EXISTING);
+        clear(archive);
+        if (Files.exists(tmpArchive)) Files.move(tmpArchive, archive);
+        Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+        Bank b = Bank.load(file);
+        if (b.journal() == null) throw new IOException("Cannot open the journal of " + file);
+        bank = b;
+        appliedSeq = b.journal().lastSeq();
+        primarySeq = Math.max(primarySeq, appliedSeq);
+    }
+
+    // Delete an archive directory and its segments
+    private static void clear(Path archive) throws IOException {
+        for (Path seg : HistoryArchive.files(archive)) Files.delete(seg);
+        Files.deleteIfExists(archive);
+    }
+
+    private static void copy(DataInputStream in, Path to, long len) throws IOException {
+        byte[] buf = new byte[1 << 16];
+        try (OutputStream out = Files.newOutputStream(to)) {
+            while (len > 0) {
+                int n = in.read(buf, 0, (int) Math.min(buf.length, len));
+                if (n < 0) throw new EOFException("Snapshot cut short");
+                out.write(buf, 0, n);
+                len -= n;
+            }
+        }
+    }
+}
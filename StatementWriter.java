@@ -0,0 +1,166 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.zip.GZIPOutputStream;
+
+// Writes account statements as CSV straight from the Ledger columns.
+// Rows are formatted byte by byte into one reusable buffer (no Transaction, String or formatter
+// per row) and drained to a FileChannel, or through gzip. Output is identical to the old
+// PrintWriter + Transaction.toCsvRow() export. Not thread-safe: use one writer per thread.
+final class StatementWriter {
+    static final String HEADER = "Timestamp,Type,Amount,BalanceAfter,Note";
+    private static final byte[] HEADER_BYTES = (HEADER + System.lineSeparator()).getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NEWLINE = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+    private static final byte[][] TYPE_NAMES = new byte[TransactionType.values().length][];
+    static {
+        for (TransactionType t : TransactionType.values()) TYPE_NAMES[t.ordinal()] = t.name().getBytes(StandardCharsets.US_ASCII);
+    }
+    private static final byte[] TO = "to ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] FROM = "from ".getBytes(StandardCharsets.US_ASCII);
+    private static final long DAY_MILLIS = 86_400_000L;
+
+    private ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+    private final byte[] digits = new byte[20];
+    // Timestamp cache: UTC offset valid for [offsetFrom, offsetTo), "yyyy-MM-dd" of localDay
+    private final ZoneRules rules = ZoneId.systemDefault().getRules();
+    private long offsetFrom = Long.MAX_VALUE, offsetTo = Long.MIN_VALUE;
+    private long offsetMillis;
+    private long localDay = Long.MIN_VALUE;
+    private final byte[] date = new byte[10];
+
+    private interface Sink {
+        void write(byte[] b, int off, int len) throws IOException;
+    }
+
+    // Write the statement of ledger (entries present when the call starts) to file
+    void write(Ledger ledger, Path file, boolean gzip) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (gzip) {
+                try (GZIPOutputStream gz = new GZIPOutputStream(Channels.newOutputStream(ch), 1 << 16)) {
+                    writeRows(ledger, gz::write);
+                }
+            } else {
+                writeRows(ledger, (b, off, len) -> {
+                    ByteBuffer out = ByteBuffer.wrap(b, off, len);
+                    while (out.hasRemaining()) ch.write(out);
+                });
+            }
+        }
+    }
+
+    private void writeRows(Ledger ledger, Sink sink) throws IOException {
+        buf.clear();
+        buf.put(HEADER_BYTES);
+        int n = ledger.size();
+        for (int i = 0; i < n; i++) {
+            String party = ledger.partyAt(i);
+            int need = 120 + (party == null ? 0 : 6 * party.length()); // worst case: every char 3 bytes, doubled quotes
+            if (buf.remaining() < need) {
+                drain(sink);
+                if (buf.capacity() < need) buf = ByteBuffer.allocate(need);
+            }
+            TransactionType type = ledger.typeAt(i);
+            putTimestamp(ledger.timeAt(i));
+            buf.put((byte) ',').put(TYPE_NAMES[type.ordinal()]).put((byte) ',');
+            putCents(ledger.amountAt(i));
+            buf.put((byte) ',');
+            putCents(ledger.balanceAt(i));
+            buf.put((byte) ',').put((byte) '"');
+            if (party != null) {
+                if (type == TransactionType.TRANSFER_OUT) buf.put(TO);
+                else if (type == TransactionType.TRANSFER_IN) buf.put(FROM);
+                putQuoted(party);
+            }
+            buf.put((byte) '"').put(NEWLINE);
+        }
+        drain(sink);
+    }
+
+    private void drain(Sink sink) throws IOException {
+        if (buf.position() > 0) sink.write(buf.array(), 0, buf.position());
+        buf.clear();
+    }
+
+    // ---------- Field formatting ----------
+    // yyyy-MM-dd HH:mm:ss in the system time zone
+    private void putTimestamp(long at) {
+        if (at < offsetFrom || at >= offsetTo) {
+            Instant instant = Instant.ofEpochMilli(at);
+            offsetMillis = rules.getOffset(instant).getTotalSeconds() * 1000L;
+            ZoneOffsetTransition next = rules.nextTransition(instant);
+            offsetFrom = at; // history is (nearly) chronological, so only the upper bound matters
+            offsetTo = next == null ? Long.MAX_VALUE : next.toEpochSecond() * 1000L;
+        }
+        long local = at + offsetMillis;
+        long day = Math.floorDiv(local, DAY_MILLIS);
+        if (day != localDay) {
+            LocalDate d = LocalDate.ofEpochDay(day);
+            int y = d.getYear();
+            date[0] = (byte) ('0' + y / 1000 % 10);
+            date[1] = (byte) ('0' + y / 100 % 10);
+            date[2] = (byte) ('0' + y / 10 % 10);
+            date[3] = (byte) ('0' + y % 10);
+            date[4] = '-';
+            date[5] = (byte) ('0' + d.getMonthValue() / 10);
+            date[6] = (byte) ('0' + d.getMonthValue() % 10);
+            date[7] = '-';
+            date[8] = (byte) ('0' + d.getDayOfMonth() / 10);
+            date[9] = (byte) ('0' + d.getDayOfMonth() % 10);
+            localDay = day;
+        }
+        buf.put(date).put((byte) ' ');
+        int secs = (int) (Math.floorMod(local, DAY_MILLIS) / 1000);
+        put2(secs / 3600);
+        buf.put((byte) ':');
+        put2(secs / 60 % 60);
+        buf.put((byte) ':');
+        put2(secs % 60);
+    }
+
+    private void put2(int v) {
+        buf.put((byte) ('0' + v / 10)).put((byte) ('0' + v % 10));
+    }
+
+    // Same text as BigDecimal.toPlainString() of the amount with scale 2
+    private void putCents(long cents) {
+        if (cents == Long.MIN_VALUE) {
+            buf.put(Money.toDecimal(cents).toPlainString().getBytes(StandardCharsets.US_ASCII));
+            return;
+        }
+        if (cents < 0) {
+            buf.put((byte) '-');
+            cents = -cents;
+        }
+        long units = cents / 100;
+        int k = digits.length;
+        do {
+            digits[--k] = (byte) ('0' + units % 10);
+            units /= 10;
+        } while (units > 0);
+        buf.put(digits, k, digits.length - k).put((byte) '.');
+        put2((int) (cents % 100));
+    }
+
+    // CSV text with quotes doubled; ASCII is copied directly, anything else goes through UTF-8
+    private void putQuoted(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                buf.put(s.substring(i).replace("\"", "\"\"").getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            if (c == '"') buf.put((byte) '"');
+            buf.put((byte) c);
+        }
+    }
+}
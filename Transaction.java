@@ -1,23 +1,42 @@
-import java.io.Serializable;
+import java.io.*;
 import java.math.BigDecimal;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 
-// Enum for transaction categories
-enum TransactionType { INITIAL, DEPOSIT, WITHDRAWAL, TRANSFER_IN, TRANSFER_OUT }
-
-// Representing a single account transaction
+// Representing a single account transaction (an immutable row materialized from an account's Ledger)
 public class Transaction implements Serializable {
     private static final long serialVersionUID = 1L;
 
-    private final LocalDateTime timestamp; // When the transaction happened
-    private final TransactionType type; // Kind of transaction
-    private final BigDecimal amount; // transaction account
-    private final BigDecimal balanceAfter; // Balance after it was applied
-    private final String note; // Optional description
+    // Never reassigned; not final only so readObject can restore them
+    private LocalDateTime timestamp; // When the transaction happened
+    private TransactionType type; // Kind of transaction
+    private long amount; // transaction amount in cents
+    private long balanceAfter; // Balance after it was applied, in cents
+    private String note; // Optional description
+    private static final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"); // thread-safe, shared
+
+    // Serialized form keeps the BigDecimal amounts of older accounts.dat files
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("timestamp", LocalDateTime.class),
+        new ObjectStreamField("type", TransactionType.class),
+        new ObjectStreamField("amount", BigDecimal.class),
+        new ObjectStreamField("balanceAfter", BigDecimal.class),
+        new ObjectStreamField("note", String.class)
+    };
 
     public Transaction(TransactionType type, BigDecimal amount, BigDecimal balanceAfter, String note) {
-        this.timestamp = LocalDateTime.now(); // Set to current time
+        this(type, Money.toCents(amount), Money.toCents(balanceAfter), note, System.currentTimeMillis()); // Set to current time
+    }
+
+    // Transaction in cents at a given epoch-millis time (journal replay passes the recorded time)
+    Transaction(TransactionType type, long amount, long balanceAfter, String note, long at) {
+        this(LocalDateTime.ofInstant(Instant.ofEpochMilli(at), ZoneId.systemDefault()), type, amount, balanceAfter, note);
+    }
+
+    private Transaction(LocalDateTime timestamp, TransactionType type, long amount, long balanceAfter, String note) {
+        this.timestamp = timestamp;
         this.type = type;
         this.amount = amount;
         this.balanceAfter = balanceAfter;
@@ -27,18 +46,36 @@ public class Transaction implements Serializable {
     // Getters
     public LocalDateTime getTimestamp() { return timestamp; }
     public TransactionType getType() { return type; }
-    public BigDecimal getAmount() { return amount; }
-    public BigDecimal getBalanceAfter() { return balanceAfter; }
+    public BigDecimal getAmount() { return Money.toDecimal(amount); }
+    public BigDecimal getBalanceAfter() { return Money.toDecimal(balanceAfter); }
     public String getNote() { return note; }
 
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField f = out.putFields();
+        f.put("timestamp", timestamp);
+        f.put("type", type);
+        f.put("amount", getAmount());
+        f.put("balanceAfter", getBalanceAfter());
+        f.put("note", note);
+        out.writeFields();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField f = in.readFields();
+        timestamp = (LocalDateTime) f.get("timestamp", null);
+        type = (TransactionType) f.get("type", null);
+        amount = Money.toCents((BigDecimal) f.get("amount", null));
+        balanceAfter = Money.toCents((BigDecimal) f.get("balanceAfter", null));
+        note = (String) f.get("note", null);
+    }
+
     // Format transaction as a CSV row, escaping quotes in notes
     public String toCsvRow() {
-        DateTimeFormatter fmt = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
         return String.join(",",
-            fmt.format(timestamp),
+            FORMAT.format(timestamp),
             type.name(),
-            amount.toPlainString(),
-            balanceAfter.toPlainString(),
+            getAmount().toPlainString(),
+            getBalanceAfter().toPlainString(),
             "\"" + (note == null ? "" : note.replace("\"", "\"\"")) + "\""
         );
     }
@@ -46,8 +83,7 @@ public class Transaction implements Serializable {
     // Nicely formatted string for console or GUI history display
     @Override
     public String toString() {
-        DateTimeFormatter fmt = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
-        return fmt.format(timestamp) + " | " + type + " | " + amount + " | Bal: " + balanceAfter +
+        return FORMAT.format(timestamp) + " | " + type + " | " + getAmount() + " | Bal: " + getBalanceAfter() +
                (note == null || note.isEmpty() ? "" : " | " + note);
     }
 }
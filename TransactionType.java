@@ -0,0 +1,3 @@
+// Enum for transaction categories (ordinals are stored in ledgers, snapshots and batch files:
+// only ever append new ones)
+enum TransactionType { INITIAL, DEPOSIT, WITHDRAWAL, TRANSFER_IN, TRANSFER_OUT }
@@ -0,0 +1,21 @@
+import java.math.BigDecimal;
+
+// One entry of a transfer batch (see Bank.transferBatch / Bank.transferEach)
+public final class TransferRequest {
+    private final String fromAcc;
+    private final String toAcc;
+    private final BigDecimal amount;
+
+    public TransferRequest(String fromAcc, String toAcc, BigDecimal amount) {
+        this.fromAcc = fromAcc;
+        this.toAcc = toAcc;
+        this.amount = amount;
+    }
+
+    public String getFromAcc() { return fromAcc; }
+    public String getToAcc() { return toAcc; }
+    public BigDecimal getAmount() { return amount; }
+
+    @Override
+    public String toString() { return fromAcc + " -> " + toAcc + " : " + amount; }
+}
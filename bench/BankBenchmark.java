@@ -0,0 +1,327 @@
+import com.sun.management.ThreadMXBean;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Pattern;
+
+// Throughput benchmarks for Bank operations, persistence and export.
+// A small JMH-style harness (JMH itself cannot reach default-package classes): every benchmark
+// runs for each combination of the parameters, with warmup and measured iterations of a fixed
+// duration on N threads, and reports throughput plus allocation (bytes/op, MB/s) and GC activity
+// per iteration, like JMH with -prof gc.
+//
+//   gradle :bench:run --args="[-p name=v1,v2]... [-wi N] [-i N] [-r seconds] [regex]"
+//   parameters: accounts (default 1000,100000), history (entries per account, default 10,1000),
+//               threads (default 1,4)
+public class BankBenchmark {
+    private static final BigDecimal AMOUNT = new BigDecimal("1.25");
+    private static final String PIN = "1234";
+    private static final int BATCH = 1000;
+
+    // One benchmark operation; thread is 0..threads-1, i counts that thread's invocations
+    interface Op {
+        void run(Fixture f, int thread, long i) throws Exception;
+    }
+
+    private static final class Benchmark {
+        final String name;
+        final boolean journaled;    // needs a Bank loaded from a file
+        final boolean singleThread; // ignore the threads parameter
+        final Op op;
+
+        Benchmark(String name, boolean journaled, boolean singleThread, Op op) {
+            this.name = name;
+            this.journaled = journaled;
+            this.singleThread = singleThread;
+            this.op = op;
+        }
+    }
+
+    private static final List<Benchmark> BENCHMARKS = Arrays.asList(
+        // direct Account update (each thread owns its account, so no Bank locking involved)
+        new Benchmark("account.deposit", false, false, (f, t, i) -> f.accounts[t].deposit(AMOUNT)),
+        new Benchmark("bank.deposit", false, false, (f, t, i) -> f.bank.deposit(f.own(t), AMOUNT)),
+        // every thread deposits into (and every 4th op withdraws from) one merchant account
+        new Benchmark("bank.deposit.hot", false, false, (f, t, i) -> {
+            if ((i & 3) == 3) f.bank.withdraw(f.numbers[0], AMOUNT);
+            else f.bank.deposit(f.numbers[0], AMOUNT);
+        }),
+        // each thread moves money back and forth inside its own pair of accounts
+        new Benchmark("bank.transfer.uncontended", false, false, (f, t, i) -> {
+            String a = f.numbers[(2 * t) % f.numbers.length], b = f.numbers[(2 * t + 1) % f.numbers.length];
+            if ((i & 1) == 0) f.bank.transfer(a, b, AMOUNT);
+            else f.bank.transfer(b, a, AMOUNT);
+        }),
+        // every thread hits the same four accounts
+        new Benchmark("bank.transfer.contended", false, false, (f, t, i) -> {
+            ThreadLocalRandom r = ThreadLocalRandom.current();
+            int a = r.nextInt(4), b = (a + 1 + r.nextInt(3)) % 4;
+            f.bank.transfer(f.numbers[a], f.numbers[b], AMOUNT);
+        }),
+        new Benchmark("bank.transfer.random", false, false, (f, t, i) -> {
+            ThreadLocalRandom r = ThreadLocalRandom.current();
+            int a = r.nextInt(f.numbers.length), b = r.nextInt(f.numbers.length);
+            if (a != b) f.bank.transfer(f.numbers[a], f.numbers[b], AMOUNT);
+        }),
+        // one all-or-nothing batch of BATCH random transfers per op
+        new Benchmark("bank.transferBatch", false, false, (f, t, i) -> f.bank.transferBatch(f.batch)),
+        new Benchmark("bank.authenticate", false, false, (f, t, i) ->
+            f.bank.authenticate(f.numbers[ThreadLocalRandom.current().nextInt(f.numbers.length)], PIN)),
+        // PIN check + new session token (sessions are bounded, old ones get evicted)
+        new Benchmark("bank.login", false, false, (f, t, i) ->
+            f.bank.login(f.numbers[ThreadLocalRandom.current().nextInt(f.numbers.length)], PIN)),
+        // repeated operation inside a session: token lookup, no hashing
+        new Benchmark("bank.session", false, false, (f, t, i) -> f.bank.session(f.tokens[t])),
+        // walk the whole sorted listing
+        new Benchmark("bank.listAccounts", false, false, (f, t, i) -> {
+            long sum = 0;
+            for (Account a : f.bank.listAccounts()) sum += a.getBalanceCents();
+            f.sink(sum);
+        }),
+        // one page of 500 from a random starting number
+        new Benchmark("bank.listAccounts.page", false, false, (f, t, i) -> {
+            long from = Bank.accountKey(f.numbers[ThreadLocalRandom.current().nextInt(f.numbers.length)]);
+            f.sink(f.bank.listAccounts(from, Long.MAX_VALUE, 500).size());
+        }),
+        // per-type totals over the last 30 days, and the balance a day ago
+        new Benchmark("bank.totals", false, false, (f, t, i) -> {
+            LocalDateTime now = LocalDateTime.now();
+            f.sink(f.bank.totals(f.own(t), now.minusDays(30), now).getCount());
+        }),
+        new Benchmark("bank.balanceAt", false, false, (f, t, i) ->
+            f.sink(f.bank.balanceAt(f.own(t), LocalDateTime.now().minusDays(1)).signum())),
+        new Benchmark("bank.exportStatementCsv", false, false, (f, t, i) ->
+            f.bank.exportStatementCsv(f.own(t), f.dir.resolve("statement-" + t + ".csv").toString())),
+        new Benchmark("bank.exportStatementCsv.gz", false, false, (f, t, i) ->
+            f.bank.exportStatementCsv(f.own(t), f.dir.resolve("statement-" + t + ".csv.gz").toString())),
+        // every account's statement per op, on the fork-join pool
+        new Benchmark("bank.exportAllStatements", false, true, (f, t, i) ->
+            f.bank.exportAllStatements(f.dir.resolve("statements").toString(), false, null)),
+        // one journaled deposit + commit; concurrent threads share fsyncs (group commit)
+        new Benchmark("bank.save", true, false, (f, t, i) -> {
+            f.bank.deposit(f.own(t), AMOUNT);
+            f.bank.save(f.file);
+        }),
+        // a whole batch as one journal record and one commit
+        new Benchmark("bank.transferBatch.save", true, false, (f, t, i) -> {
+            f.bank.transferBatch(f.batch);
+            f.bank.save(f.file);
+        }),
+        // random transfers over 4 shards: 3 in 4 are cross-shard (two-phase, one logged fsync each)
+        new Benchmark("sharded.transfer.random", false, false, (f, t, i) -> {
+            String[] n = f.shardedNumbers();
+            ThreadLocalRandom r = ThreadLocalRandom.current();
+            int a = r.nextInt(n.length), b = r.nextInt(n.length);
+            if (a != b) f.sharded.transfer(n[a], n[b], AMOUNT);
+        }),
+        // every thread moves money back and forth between the same two accounts on different shards
+        new Benchmark("sharded.transfer.hot", false, false, (f, t, i) -> {
+            String[] n = f.shardedNumbers();
+            if ((i & 1) == 0) f.sharded.transfer(n[0], n[1], AMOUNT);
+            else f.sharded.transfer(n[1], n[0], AMOUNT);
+        }),
+        new Benchmark("bank.checkpoint", true, true, (f, t, i) -> f.bank.checkpoint()),
+        new Benchmark("bank.load", true, true, (f, t, i) -> Bank.load(f.file))
+    );
+
+    // Bank populated for one parameter combination
+    static final class Fixture {
+        final Path dir;
+        final String file;
+        final Bank bank;
+        final String[] numbers;
+        final Account[] accounts;
+        final List<TransferRequest> batch = new ArrayList<>();
+        final String[] tokens;
+
+        Fixture(int accounts, int history, int threads, boolean journaled) throws IOException {
+            dir = Files.createTempDirectory("bank-bench");
+            file = dir.resolve("accounts.dat").toString();
+            bank = journaled ? Bank.load(file) : new Bank();
+            numbers = new String[accounts];
+            this.accounts = new Account[accounts];
+            for (int i = 0; i < accounts; i++) {
+                this.accounts[i] = bank.createAccount("Holder " + i, PIN, BigDecimal.valueOf(1_000_000_000L));
+                numbers[i] = this.accounts[i].getAccountNumber();
+            }
+            for (int h = 1; h < history; h++) {
+                for (String n : numbers) bank.deposit(n, AMOUNT);
+            }
+            Random r = new Random(42);
+            for (int k = 0; k < BATCH && accounts > 1; k++) {
+                int a = r.nextInt(accounts), b = (a + 1 + r.nextInt(accounts - 1)) % accounts;
+                batch.add(new TransferRequest(numbers[a], numbers[b], AMOUNT));
+            }
+            if (journaled) bank.checkpoint();
+            if (accounts < threads) throw new IllegalArgumentException("need at least one account per thread");
+            tokens = new String[threads];
+            for (int t = 0; t < threads; t++) tokens[t] = bank.login(numbers[t], PIN);
+        }
+
+        String own(int thread) { return numbers[thread]; }
+
+        // 4-shard bank with up to 1000 accounts, built on first use (each create is committed)
+        private volatile ShardedBank sharded;
+        private volatile String[] shardedNumbers;
+
+        String[] shardedNumbers() {
+            String[] n = shardedNumbers;
+            if (n != null) return n;
+            synchronized (this) {
+                if (shardedNumbers == null) {
+                    ShardedBank b = ShardedBank.open(dir.resolve("sharded.dat").toString(), 4);
+                    String[] created = new String[Math.min(numbers.length, 1000)];
+                    for (int i = 0; i < created.length; i++) {
+                        created[i] = b.createAccount("Holder " + i, PIN, BigDecimal.valueOf(1_000_000_000L)).getAccountNumber();
+                    }
+                    sharded = b;
+                    shardedNumbers = created;
+                }
+                return shardedNumbers;
+            }
+        }
+
+        volatile long sink; // keeps results alive so the JIT cannot drop the work
+
+        void sink(long v) { sink = v; }
+
+        void close() throws IOException {
+            if (sharded != null) sharded.close();
+            try (var files = Files.walk(dir)) {
+                for (Path p : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) Files.deleteIfExists(p);
+            }
+        }
+    }
+
+    // ---------- Harness ----------
+    public static void main(String[] args) throws Exception {
+        Map<String, List<Integer>> params = new LinkedHashMap<>();
+        params.put("accounts", Arrays.asList(1000, 100_000));
+        params.put("history", Arrays.asList(10, 1000));
+        params.put("threads", Arrays.asList(1, 4));
+        int warmups = 2, iterations = 5;
+        double seconds = 1.0;
+        Pattern filter = Pattern.compile(".*");
+        for (int a = 0; a < args.length; a++) {
+            switch (args[a]) {
+                case "-p": {
+                    String[] kv = args[++a].split("=", 2);
+                    List<Integer> values = new ArrayList<>();
+                    for (String v : kv[1].split(",")) values.add(Integer.parseInt(v.trim().replace("_", "")));
+                    params.put(kv[0], values);
+                    break;
+                }
+                case "-wi": warmups = Integer.parseInt(args[++a]); break;
+                case "-i": iterations = Integer.parseInt(args[++a]); break;
+                case "-r": seconds = Double.parseDouble(args[++a]); break;
+                default: filter = Pattern.compile(".*(?:" + args[a] + ").*");
+            }
+        }
+
+        System.out.printf("%-28s %9s %8s %7s %14s %12s %12s %10s %8s %8s%n", "Benchmark", "accounts", "history",
+                "threads", "ops/s", "± stddev", "alloc B/op", "alloc MB/s", "gc.count", "gc.ms");
+        for (Benchmark b : BENCHMARKS) {
+            if (!filter.matcher(b.name).matches()) continue;
+            for (int accounts : params.get("accounts")) {
+                for (int history : params.get("history")) {
+                    for (int threads : b.singleThread ? Collections.singletonList(1) : params.get("threads")) {
+                        Fixture f = new Fixture(accounts, history, threads, b.journaled);
+                        try {
+                            for (int w = 0; w < warmups; w++) measure(b, f, threads, seconds);
+                            Result[] rs = new Result[iterations];
+                            for (int it = 0; it < iterations; it++) rs[it] = measure(b, f, threads, seconds);
+                            print(b.name, accounts, history, threads, rs);
+                        } finally {
+                            f.close();
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static volatile boolean running; // cleared to end the current iteration
+
+    private static final class Result {
+        long ops, allocated, gcCount, gcMillis;
+        double seconds;
+    }
+
+    // Run op on the given number of threads for a fixed duration
+    private static Result measure(Benchmark b, Fixture f, int threads, double seconds) throws Exception {
+        ThreadMXBean mx = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long[] ops = new long[threads], allocated = new long[threads];
+        Throwable[] failure = new Throwable[1];
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        running = true;
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            workers[t] = new Thread(() -> {
+                long before = mx.getThreadAllocatedBytes(Thread.currentThread().getId()), i = 0;
+                try {
+                    start.await();
+                    while (running) b.op.run(f, id, i++);
+                } catch (Throwable e) {
+                    synchronized (failure) { failure[0] = e; }
+                }
+                ops[id] = i;
+                allocated[id] = mx.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+            }, "bench-" + t);
+            workers[t].start();
+        }
+        long gcCount0 = gcCount(), gcMillis0 = gcMillis();
+        long t0 = System.nanoTime();
+        start.countDown();
+        Thread.sleep((long) (seconds * 1000));
+        running = false;
+        for (Thread w : workers) w.join();
+        Result r = new Result();
+        r.seconds = (System.nanoTime() - t0) / 1e9;
+        r.gcCount = gcCount() - gcCount0;
+        r.gcMillis = gcMillis() - gcMillis0;
+        for (int t = 0; t < threads; t++) {
+            r.ops += ops[t];
+            r.allocated += allocated[t];
+        }
+        if (failure[0] != null) throw new IllegalStateException(b.name + " failed", failure[0]);
+        return r;
+    }
+
+    private static void print(String name, int accounts, int history, int threads, Result[] rs) {
+        double sum = 0, sq = 0, ops = 0, bytes = 0, secs = 0;
+        long gcCount = 0, gcMillis = 0;
+        for (Result r : rs) {
+            double rate = r.ops / r.seconds;
+            sum += rate;
+            sq += rate * rate;
+            ops += r.ops;
+            bytes += r.allocated;
+            secs += r.seconds;
+            gcCount += r.gcCount;
+            gcMillis += r.gcMillis;
+        }
+        double mean = sum / rs.length, sd = Math.sqrt(Math.max(0, sq / rs.length - mean * mean));
+        System.out.printf("%-28s %9d %8d %7d %14.1f %12.1f %12.1f %10.1f %8d %8d%n", name, accounts, history,
+                threads, mean, sd, ops == 0 ? 0 : bytes / ops, bytes / secs / (1 << 20), gcCount, gcMillis);
+    }
+
+    private static long gcCount() {
+        long n = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) n += Math.max(0, gc.getCollectionCount());
+        return n;
+    }
+
+    private static long gcMillis() {
+        long n = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) n += Math.max(0, gc.getCollectionTime());
+        return n;
+    }
+}
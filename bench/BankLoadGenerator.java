@@ -0,0 +1,177 @@
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Load generator for BankServer: N concurrent clients, each logged in to its own account and
+// sending pipelined batches of `depth` requests (50% BALANCE, 30% DEPOSIT, 20% TRANSFER to a
+// random account). Reports requests/s and the round-trip latency of a batch.
+//
+//   gradle :bench:runLoad --args="[-c clients] [-d depth] [-t seconds] [host:port]"
+//
+// Without host:port an embedded server on a free localhost port is started against a temporary
+// data file, so the whole run stays on this machine.
+public class BankLoadGenerator {
+    private static final String PIN = "1234";
+
+    public static void main(String[] args) throws Exception {
+        int clients = 100, depth = 16;
+        double seconds = 10;
+        String target = null;
+        for (int a = 0; a < args.length; a++) {
+            switch (args[a]) {
+                case "-c": clients = Integer.parseInt(args[++a]); break;
+                case "-d": depth = Integer.parseInt(args[++a]); break;
+                case "-t": seconds = Double.parseDouble(args[++a]); break;
+                default: target = args[a];
+            }
+        }
+
+        BankServer embedded = null;
+        Path tmp = null;
+        InetSocketAddress address;
+        if (target == null) {
+            tmp = Files.createTempDirectory("bank-load");
+            String file = tmp.resolve("accounts.dat").toString();
+            embedded = new BankServer(Bank.load(file), file, tmp.resolve("exports"));
+            address = new InetSocketAddress("127.0.0.1", embedded.start(0));
+        } else {
+            int colon = target.lastIndexOf(':');
+            address = new InetSocketAddress(target.substring(0, colon), Integer.parseInt(target.substring(colon + 1)));
+        }
+        System.out.printf("%d clients, depth %d, %.0f s against %s (%s threads)%n", clients, depth, seconds,
+                embedded == null ? target : "embedded server", BankServer.threadKind());
+
+        String[] accounts = createAccounts(address, clients);
+        AtomicLong requests = new AtomicLong(), errors = new AtomicLong();
+        long[][] latencies = new long[clients][];
+        CountDownLatch ready = new CountDownLatch(clients), start = new CountDownLatch(1), done = new CountDownLatch(clients);
+        long[] deadline = new long[1];
+        ExecutorService pool = BankServer.newThreadPerTaskExecutor("load-client");
+        for (int c = 0; c < clients; c++) {
+            final int id = c;
+            final int d = depth;
+            pool.execute(() -> {
+                try {
+                    latencies[id] = runClient(address, accounts, id, d, ready, start, deadline, requests, errors);
+                } catch (IOException | InterruptedException e) {
+                    errors.incrementAndGet();
+                    ready.countDown();
+                    latencies[id] = new long[0];
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        ready.await();
+        long t0 = System.nanoTime();
+        deadline[0] = t0 + (long) (seconds * 1e9);
+        start.countDown();
+        done.await();
+        double elapsed = (System.nanoTime() - t0) / 1e9;
+        pool.shutdown();
+
+        long[] all = Arrays.stream(latencies).flatMapToLong(Arrays::stream).sorted().toArray();
+        System.out.printf("requests: %d  errors: %d  throughput: %.0f req/s%n", requests.get(), errors.get(),
+                requests.get() / elapsed);
+        if (all.length > 0) {
+            System.out.printf("batch round trip (us): p50 %d  p90 %d  p99 %d  max %d%n",
+                    all[all.length / 2], all[(int) (all.length * 0.9)], all[(int) (all.length * 0.99)], all[all.length - 1]);
+        }
+        if (embedded != null) {
+            embedded.close();
+            try (var files = Files.walk(tmp)) {
+                for (Path p : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) Files.deleteIfExists(p);
+            }
+        }
+    }
+
+    // One account per client, created over a single pipelined connection
+    private static String[] createAccounts(InetSocketAddress address, int n) throws IOException {
+        try (Socket s = new Socket()) {
+            s.connect(address);
+            BufferedReader in = reader(s);
+            Writer out = writer(s);
+            String[] accounts = new String[n];
+            for (int from = 0; from < n; from += 256) { // bounded pipeline: neither side can block on a full socket
+                int to = Math.min(n, from + 256);
+                for (int i = from; i < to; i++) out.write("CREATE " + PIN + " 1000000 Load client " + i + "\n");
+                out.flush();
+                for (int i = from; i < to; i++) {
+                    String r = in.readLine();
+                    if (r == null || !r.startsWith("OK ")) throw new IOException("CREATE failed: " + r);
+                    accounts[i] = r.substring(3);
+                }
+            }
+            return accounts;
+        }
+    }
+
+    private static long[] runClient(InetSocketAddress address, String[] accounts, int id, int depth,
+            CountDownLatch ready, CountDownLatch start, long[] deadline, AtomicLong requests, AtomicLong errors)
+            throws IOException, InterruptedException {
+        long[] samples = new long[1024];
+        int count = 0;
+        try (Socket s = new Socket()) {
+            s.setTcpNoDelay(true);
+            s.connect(address);
+            BufferedReader in = reader(s);
+            Writer out = writer(s);
+            out.write("LOGIN " + accounts[id] + " " + PIN + "\n");
+            out.flush();
+            String login = in.readLine();
+            if (login == null || !login.startsWith("OK ")) throw new IOException("LOGIN failed: " + login);
+            String session = login.substring(3);
+            ready.countDown();
+            start.await();
+            ThreadLocalRandom r = ThreadLocalRandom.current();
+            StringBuilder batch = new StringBuilder(depth * 48);
+            while (System.nanoTime() < deadline[0]) {
+                batch.setLength(0);
+                for (int k = 0; k < depth; k++) {
+                    int op = r.nextInt(10);
+                    if (op < 5 || accounts.length == 1) {
+                        batch.append("BALANCE ").append(session).append('\n');
+                    } else if (op < 8) {
+                        batch.append("DEPOSIT ").append(session).append(" 1.00\n");
+                    } else {
+                        int to = r.nextInt(accounts.length - 1);
+                        if (to >= id) to++;
+                        batch.append("TRANSFER ").append(session).append(' ')
+                             .append(accounts[to]).append(" 0.01\n");
+                    }
+                }
+                long t0 = System.nanoTime();
+                out.write(batch.toString());
+                out.flush();
+                for (int k = 0; k < depth; k++) {
+                    String resp = in.readLine();
+                    if (resp == null) throw new EOFException("server closed the connection");
+                    if (!resp.startsWith("OK")) errors.incrementAndGet();
+                }
+                if (count == samples.length) samples = Arrays.copyOf(samples, count * 2);
+                samples[count++] = (System.nanoTime() - t0) / 1000;
+                requests.addAndGet(depth);
+            }
+            out.write("QUIT\n");
+            out.flush();
+        }
+        return Arrays.copyOf(samples, count);
+    }
+
+    private static BufferedReader reader(Socket s) throws IOException {
+        return new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8), 1 << 14);
+    }
+
+    private static Writer writer(Socket s) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8), 1 << 14);
+    }
+}
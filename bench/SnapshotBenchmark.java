@@ -0,0 +1,70 @@
+import java.io.*;
+import java.math.BigDecimal;
+import java.nio.file.*;
+
+// Snapshot save/load benchmark: the binary SnapshotCodec against Java serialization of the same Bank.
+// Build and run from the repository root:
+//   javac -encoding UTF-8 -d out *.java bench/*.java
+//   java -Xmx16g -cp out SnapshotBenchmark 1000000 50
+// Arguments: number of accounts, transactions per account (default 1,000,000 x 50 = 50M).
+public class SnapshotBenchmark {
+    public static void main(String[] args) throws Exception {
+        int accounts = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int perAccount = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        Path dir = Files.createTempDirectory("snapshot-bench");
+
+        long t0 = System.nanoTime();
+        Bank bank = build(accounts, perAccount);
+        System.out.printf("built %,d accounts / %,d transactions in %,d ms%n",
+                accounts, (long) accounts * perAccount, ms(t0));
+
+        Path bin = dir.resolve("bank.snapshot"), ser = dir.resolve("bank.ser");
+        for (int round = 1; round <= 3; round++) {
+            System.out.println("-- round " + round);
+            t0 = System.nanoTime();
+            SnapshotCodec.write(bank, bin);
+            report("binary save", t0, bin);
+            t0 = System.nanoTime();
+            SnapshotCodec.read(bin, false);
+            report("binary load (streaming)", t0, bin);
+            t0 = System.nanoTime();
+            SnapshotCodec.read(bin, true);
+            report("binary load (parallel)", t0, bin);
+
+            t0 = System.nanoTime();
+            try (ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(Files.newOutputStream(ser)))) {
+                oos.writeObject(bank);
+            }
+            report("java serialization save", t0, ser);
+            t0 = System.nanoTime();
+            try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(ser)))) {
+                ois.readObject();
+            }
+            report("java serialization load", t0, ser);
+        }
+        Files.delete(bin);
+        Files.delete(ser);
+        Files.delete(dir);
+    }
+
+    // Accounts opened with a balance, then deposits and transfers until each has perAccount entries
+    static Bank build(int accounts, int perAccount) {
+        Bank bank = new Bank();
+        for (int i = 0; i < accounts; i++) bank.createAccount("Holder " + i, "1234", BigDecimal.valueOf(1_000_000));
+        BigDecimal amount = new BigDecimal("1.25");
+        for (int round = 1; round < perAccount; round += 2) {
+            for (int i = 0; i < accounts; i++) {
+                String from = "ACC" + (100100 + i), to = "ACC" + (100100 + (i + 1) % accounts);
+                if (accounts > 1 && round + 1 < perAccount) bank.transfer(from, to, amount); // one entry on each side
+                else bank.deposit(from, amount);
+            }
+        }
+        return bank;
+    }
+
+    private static void report(String what, long start, Path file) throws IOException {
+        System.out.printf("%-26s %,8d ms  %,14d bytes%n", what, ms(start), Files.size(file));
+    }
+
+    private static long ms(long start) { return (System.nanoTime() - start) / 1_000_000; }
+}
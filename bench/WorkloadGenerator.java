@@ -0,0 +1,210 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.SplittableRandom;
+
+// Deterministic synthetic data for benchmarks and load/recovery tests, written as BulkImporter
+// batch files: `accounts` accounts with log-normal opening balances, then `transactions`
+// operations (70% transfers, 20% deposits, 10% withdrawals) spread over a year. The accounts of
+// each operation are drawn from a Zipf distribution with exponent `skew`, so a few hot accounts
+// carry most of the traffic; payers and payees are ranked by two different permutations. Every
+// row is valid (a transfer never takes more than the payer has), and the same seed and
+// parameters always give byte-identical files. Account i is "ACC" + (100100 + i) with PIN pin(i).
+//
+//   gradle :bench:runGenerate --args="[-a accounts] [-t transactions] [-s skew] [--seed n] [--csv]
+//                                     [--import data file] dir"
+//
+// writes dir/accounts.bin and dir/transactions.bin (.csv with --csv); --import then loads both
+// into the bank at `data file` and reports the import rate.
+public class WorkloadGenerator {
+    static final long FIRST_NUMBER = 100100L;
+    static final long START = 1704067200000L; // 2024-01-01T00:00Z: fixed, so runs are repeatable
+    private static final long DAY = 86_400_000L;
+    private static final String[] FIRST = { "Aarav", "Ana", "Ben", "Chen", "Diya", "Elena", "Farah", "Gabriel",
+            "Hana", "Ivan", "Jade", "Kofi", "Lena", "Mateo", "Nia", "Omar", "Priya", "Quinn", "Rosa", "Sven",
+            "Tara", "Umar", "Vera", "Wei", "Yara", "Zoe" };
+    private static final String[] LAST = { "Anand", "Brown", "Costa", "Dubois", "Eze", "Fischer", "Garcia", "Haddad",
+            "Ito", "Jensen", "Kim", "Lopez", "Muller", "Nair", "Okafor", "Petrov", "Rossi", "Sato", "Silva",
+            "Smith", "Tanaka", "Varga", "Wang", "Yilmaz" };
+
+    private final long seed;
+    private final int accounts;
+    private final double skew;
+
+    public WorkloadGenerator(long seed, int accounts, double skew) {
+        if (accounts < 2) throw new IllegalArgumentException("Need at least 2 accounts");
+        this.seed = seed;
+        this.accounts = accounts;
+        this.skew = skew;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int accounts = 100_000;
+        long transactions = 1_000_000, seed = 42;
+        double skew = 1.1;
+        String ext = ".bin", dataFile = null, dir = null;
+        for (int a = 0; a < args.length; a++) {
+            switch (args[a]) {
+                case "-a": accounts = Integer.parseInt(args[++a]); break;
+                case "-t": transactions = Long.parseLong(args[++a]); break;
+                case "-s": skew = Double.parseDouble(args[++a]); break;
+                case "--seed": seed = Long.parseLong(args[++a]); break;
+                case "--csv": ext = ".csv"; break;
+                case "--import": dataFile = args[++a]; break;
+                default: dir = args[a];
+            }
+        }
+        if (dir == null) {
+            System.err.println("usage: WorkloadGenerator [-a accounts] [-t transactions] [-s skew] [--seed n] [--csv] [--import data file] dir");
+            System.exit(2);
+        }
+        Path out = Files.createDirectories(Paths.get(dir));
+        Path accountFile = out.resolve("accounts" + ext), txFile = out.resolve("transactions" + ext);
+        WorkloadGenerator g = new WorkloadGenerator(seed, accounts, skew);
+        long t0 = System.nanoTime();
+        g.writeAccounts(accountFile);
+        long rows = g.writeTransactions(txFile, transactions);
+        System.out.printf("%d accounts, %d transactions (%d ledger rows, skew %.2f) in %.1f s: %s, %s%n", accounts,
+                transactions, rows, skew, (System.nanoTime() - t0) / 1e9, accountFile, txFile);
+        if (dataFile == null) return;
+
+        Bank bank = Bank.load(dataFile);
+        BulkImporter importer = new BulkImporter(bank);
+        t0 = System.nanoTime();
+        int imported = importer.importAccounts(accountFile);
+        double s = (System.nanoTime() - t0) / 1e9;
+        System.out.printf("import: %d accounts in %.2f s (%.0f/s)%n", imported, s, imported / s);
+        t0 = System.nanoTime();
+        long applied = importer.importTransactions(txFile);
+        s = (System.nanoTime() - t0) / 1e9;
+        System.out.printf("import: %d ledger rows (%d rejected) in %.2f s (%.0f/s), parallelism %.0f%n", applied,
+                importer.rejected(), s, applied / s, importer.parallelism());
+        bank.closeFiles();
+    }
+
+    // ---------- Accounts ----------
+    static String number(int i) { return "ACC" + (FIRST_NUMBER + i); }
+
+    // PIN of account i, so tests can log in to generated accounts
+    String pin(int i) { return String.format("%04d", Math.floorMod(mix(seed ^ i), 10_000)); }
+
+    // Opening balance of account i in cents: log-normal around 1,500.00, most between 100 and 20,000
+    long openingBalance(int i) {
+        SplittableRandom r = new SplittableRandom(mix(seed + i));
+        return Math.min(100_000_000_00L, Math.round(150_000 * Math.exp(1.2 * gaussian(r))));
+    }
+
+    public void writeAccounts(Path file) throws IOException {
+        try (BulkImporter.Writer w = new BulkImporter.Writer(file, BulkImporter.ACCOUNTS)) {
+            for (int i = 0; i < accounts; i++) {
+                String name = FIRST[(int) Math.floorMod(mix(seed * 31 + i), (long) FIRST.length)] + " "
+                        + LAST[(int) Math.floorMod(mix(seed * 37 + i), (long) LAST.length)];
+                w.account(number(i), name, PinHash.hash(pin(i)), openingBalance(i), START);
+            }
+        }
+    }
+
+    // ---------- Transactions ----------
+    // Write `count` operations; returns the number of ledger rows (a transfer is two)
+    public long writeTransactions(Path file, long count) throws IOException {
+        long[] balance = new long[accounts];
+        for (int i = 0; i < accounts; i++) balance[i] = openingBalance(i);
+        SplittableRandom r = new SplittableRandom(seed);
+        Zipf zipf = new Zipf(accounts, skew);
+        long payerStride = stride(accounts, 0.618), payeeStride = stride(accounts, 0.414);
+        long rows = 0, span = 365 * DAY;
+        try (BulkImporter.Writer w = new BulkImporter.Writer(file, BulkImporter.TRANSACTIONS)) {
+            for (long k = 0; k < count; k++) {
+                long at = START + DAY + k * span / Math.max(1, count);
+                int payer = (int) ((zipf.sample(r) - 1) * payerStride % accounts);
+                int payee = (int) (((zipf.sample(r) - 1) * payeeStride + accounts / 2) % accounts);
+                long amount = Math.max(1, Math.round(4_000 * Math.exp(gaussian(r)))); // median 40.00
+                int kind = r.nextInt(10);
+                if (kind < 2 || balance[payer] == 0) { // deposit (salary, refund)
+                    balance[payee] += amount;
+                    w.transaction(number(payee), at, TransactionType.DEPOSIT, amount, null);
+                    rows++;
+                } else if (kind < 3) { // withdrawal
+                    amount = Math.min(amount, balance[payer]);
+                    balance[payer] -= amount;
+                    w.transaction(number(payer), at, TransactionType.WITHDRAWAL, amount, null);
+                    rows++;
+                } else {
+                    if (payee == payer) payee = (payee + 1) % accounts;
+                    amount = Math.min(amount, balance[payer]);
+                    balance[payer] -= amount;
+                    balance[payee] += amount;
+                    w.transaction(number(payer), at, TransactionType.TRANSFER_OUT, amount, number(payee));
+                    w.transaction(number(payee), at, TransactionType.TRANSFER_IN, amount, number(payer));
+                    rows += 2;
+                }
+            }
+        }
+        return rows;
+    }
+
+    // A multiplier coprime to n near fraction * n: rank -> account is then a permutation
+    private static long stride(int n, double fraction) {
+        long s = Math.max(1, (long) (n * fraction)) | 1;
+        while (gcd(s, n) != 1) s += 2;
+        return s;
+    }
+
+    private static long gcd(long a, long b) { return b == 0 ? a : gcd(b, a % b); }
+
+    private static double gaussian(SplittableRandom r) { // Box-Muller, one of the pair
+        return Math.sqrt(-2 * Math.log(1 - r.nextDouble())) * Math.cos(2 * Math.PI * r.nextDouble());
+    }
+
+    private static long mix(long z) { // SplitMix64 finalizer
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    // Zipf ranks 1..n with P(k) ~ 1 / k^exponent, by rejection-inversion (Hörmann and Derflinger),
+    // so it needs no table however many accounts there are
+    static final class Zipf {
+        private final int n;
+        private final double exponent, hIntegralX1, hIntegralN, s;
+
+        Zipf(int n, double exponent) {
+            if (exponent <= 0) throw new IllegalArgumentException("Skew must be positive");
+            this.n = n;
+            this.exponent = exponent;
+            hIntegralX1 = hIntegral(1.5) - 1;
+            hIntegralN = hIntegral(n + 0.5);
+            s = 2 - hIntegralInverse(hIntegral(2.5) - h(2));
+        }
+
+        int sample(SplittableRandom r) {
+            while (true) {
+                double u = hIntegralN + r.nextDouble() * (hIntegralX1 - hIntegralN);
+                double x = hIntegralInverse(u);
+                int k = (int) Math.max(1, Math.min(n, (long) (x + 0.5)));
+                if (k - x <= s || u >= hIntegral(k + 0.5) - h(k)) return k;
+            }
+        }
+
+        private double h(double x) { return Math.exp(-exponent * Math.log(x)); }
+
+        private double hIntegral(double x) {
+            double logX = Math.log(x);
+            return helper2((1 - exponent) * logX) * logX;
+        }
+
+        private double hIntegralInverse(double x) {
+            double t = Math.max(-1, x * (1 - exponent));
+            return Math.exp(helper1(t) * x);
+        }
+
+        private static double helper1(double x) { // log1p(x) / x
+            return Math.abs(x) > 1e-8 ? Math.log1p(x) / x : 1 - x * (0.5 - x * (1.0 / 3 - 0.25 * x));
+        }
+
+        private static double helper2(double x) { // expm1(x) / x
+            return Math.abs(x) > 1e-8 ? Math.expm1(x) / x : 1 + x * 0.5 * (1 + x / 3 * (1 + 0.25 * x));
+        }
+    }
+}
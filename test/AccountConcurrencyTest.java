@@ -0,0 +1,153 @@
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Deposits and withdrawals on one account from many threads: every completed update is visible
+// to other threads, the balance never goes negative, and balance, ledger and journal agree, also
+// when Account's own deposit runs alongside Bank's
+public class AccountConcurrencyTest {
+    private static final int THREADS = 4, OPS = 5_000;
+
+    public void testCompletedDepositIsVisibleToOtherThreads() throws Exception {
+        String file = TestRunner.tempDir().resolve("accounts.dat").toString();
+        Bank bank = Bank.load(file);
+        String acc = bank.createAccount("Reader", "1234", new BigDecimal("10.00")).getAccountNumber();
+        AtomicLong done = new AtomicLong(); // deposits that have returned
+        AtomicBoolean stop = new AtomicBoolean();
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> readers = new ArrayList<>();
+            for (int t = 0; t < THREADS - 1; t++) {
+                readers.add(pool.submit(() -> {
+                    while (!stop.get()) {
+                        long seen = done.get();
+                        long balance = cents(bank.getAccount(acc).getBalance());
+                        // the deposits counted in `seen` returned before this read started
+                        Assert.assertTrue("balance " + balance + " misses some of " + seen + " deposits",
+                                balance >= 1_000 + seen * 100);
+                    }
+                    return null;
+                }));
+            }
+            for (int i = 0; i < OPS; i++) {
+                bank.deposit(acc, new BigDecimal("1.00"));
+                done.incrementAndGet();
+            }
+            stop.set(true);
+            for (Future<?> f : readers) f.get();
+        } finally {
+            stop.set(true);
+            pool.shutdownNow();
+        }
+        Assert.assertEquals("balance", 1_000 + OPS * 100L, cents(bank.getAccount(acc).getBalance()));
+        JournalRecoveryTest.close(bank);
+    }
+
+    public void testConcurrentDepositsAndWithdrawalsKeepBalanceAndLedgerInStep() throws Exception {
+        String file = TestRunner.tempDir().resolve("accounts.dat").toString();
+        Bank bank = Bank.load(file);
+        String acc = bank.createAccount("Hot", "1234", new BigDecimal("5.00")).getAccountNumber();
+        AtomicLong deposits = new AtomicLong(), withdrawals = new AtomicLong();
+        AtomicBoolean stop = new AtomicBoolean();
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS + 1);
+        try {
+            Future<?> reader = pool.submit(() -> {
+                while (!stop.get()) {
+                    long balance = cents(bank.getAccount(acc).getBalance());
+                    Assert.assertTrue("negative balance " + balance, balance >= 0);
+                }
+                return null;
+            });
+            List<Future<?>> writers = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                writers.add(pool.submit(() -> {
+                    ThreadLocalRandom r = ThreadLocalRandom.current();
+                    for (int i = 0; i < OPS; i++) {
+                        if (r.nextBoolean()) {
+                            bank.deposit(acc, new BigDecimal("1.00"));
+                            deposits.incrementAndGet();
+                        } else if (bank.withdraw(acc, new BigDecimal("1.50"))) {
+                            withdrawals.incrementAndGet();
+                        }
+                        if (i % 1_000 == 0) bank.save(file);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> f : writers) f.get();
+            stop.set(true);
+            reader.get();
+        } finally {
+            stop.set(true);
+            pool.shutdownNow();
+        }
+        Assert.assertTrue("save", bank.save(file));
+        long expected = 500 + deposits.get() * 100 - withdrawals.get() * 150;
+        Account a = bank.getAccount(acc);
+        Assert.assertEquals("balance", expected, cents(a.getBalance()));
+        List<Transaction> ledger = a.getTransactions();
+        Assert.assertEquals("ledger entries", 1 + deposits.get() + withdrawals.get(), ledger.size());
+        long running = 0;
+        for (Transaction t : ledger) { // every entry continues the one before it
+            long amount = cents(t.getAmount());
+            running = t.getType() == TransactionType.INITIAL ? amount
+                    : t.getType() == TransactionType.DEPOSIT ? running + amount : running - amount;
+            Assert.assertEquals("balance after entry", running, cents(t.getBalanceAfter()));
+        }
+        JournalRecoveryTest.close(bank);
+
+        Bank reloaded = Bank.load(file);
+        Assert.assertEquals("balance after reload", expected, cents(reloaded.getAccount(acc).getBalance()));
+        Assert.assertEquals("ledger after reload", ledger.size(), reloaded.getAccount(acc).getTransactions().size());
+        JournalRecoveryTest.close(reloaded);
+    }
+
+    public void testDirectAccountUpdatesRaceSafelyWithBankUpdates() throws Exception {
+        Bank bank = new Bank();
+        String acc = bank.createAccount("Mixed", "1234", null).getAccountNumber();
+        Account a = bank.getAccount(acc);
+        Account.State claimed = a.claimDeposit(100, System.currentTimeMillis()); // a Bank.deposit between claim and publish
+        a.deposit(new BigDecimal("1.00"));
+        a.publish(claimed, null);
+        Assert.assertEquals("entries around a pending claim", "[0, 100, 200]", balances(a));
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> writers = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                boolean direct = t % 2 == 0;
+                writers.add(pool.submit(() -> {
+                    for (int i = 0; i < OPS; i++) {
+                        if (direct) a.deposit(new BigDecimal("1.00"));
+                        else bank.deposit(acc, new BigDecimal("1.00"));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> f : writers) f.get();
+        } finally {
+            pool.shutdownNow();
+        }
+        Assert.assertEquals("balance", (2 + THREADS * OPS) * 100L, a.getBalanceCents());
+        List<Transaction> ledger = a.getTransactions();
+        Assert.assertEquals("ledger entries", 3 + THREADS * OPS, ledger.size());
+        for (int i = 0; i < ledger.size(); i++) {
+            Assert.assertEquals("balance after entry " + i, i * 100L, cents(ledger.get(i).getBalanceAfter()));
+        }
+        Assert.assertFalse("overdraw", a.withdraw(new BigDecimal("100000.00")));
+        Assert.assertTrue("withdraw", a.withdraw(new BigDecimal("1.00")));
+    }
+
+    private static String balances(Account a) {
+        List<Long> b = new ArrayList<>();
+        for (Transaction t : a.getTransactions()) b.add(cents(t.getBalanceAfter()));
+        return b.toString();
+    }
+
+    static long cents(BigDecimal amount) { return amount.movePointRight(2).longValueExact(); }
+}
@@ -0,0 +1,53 @@
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+// Account listings come from the sorted index: numeric order, inclusive ranges, and pages that
+// chain by passing the last number + 1
+public class AccountListingTest {
+    public void testPagesChainInNumericOrder() {
+        Bank bank = new Bank();
+        for (int i = 0; i < 25; i++) bank.createAccount("Holder " + i, "1234", new BigDecimal("1.00"));
+        bank.putRestored(new Account("ACC999999", "Nine", PinHash.hash("1234"), 0, 0));
+        bank.putRestored(new Account("ACC1000000", "Million", PinHash.hash("1234"), 0, 0));
+        List<String> all = numbers(bank.listAccounts());
+        Assert.assertEquals("accounts", 27, all.size());
+        Assert.assertEquals("last two", "[ACC999999, ACC1000000]", all.subList(25, 27).toString());
+        for (int i = 1; i < all.size(); i++) {
+            Assert.assertTrue("order at " + i, Bank.accountKey(all.get(i - 1)) < Bank.accountKey(all.get(i)));
+        }
+
+        List<String> paged = new ArrayList<>();
+        long from = 0;
+        for (List<Account> page; !(page = bank.listAccounts(from, Long.MAX_VALUE, 10)).isEmpty(); ) {
+            Assert.assertTrue("page size " + page.size(), page.size() <= 10);
+            paged.addAll(numbers(page));
+            from = Bank.accountKey(page.get(page.size() - 1).getAccountNumber()) + 1;
+        }
+        Assert.assertEquals("pages", all, paged);
+    }
+
+    public void testRangeEdges() {
+        Bank bank = new Bank();
+        List<String> all = new ArrayList<>();
+        for (int i = 0; i < 5; i++) all.add(bank.createAccount("Holder " + i, "1234", null).getAccountNumber());
+        long first = Bank.accountKey(all.get(0)), last = Bank.accountKey(all.get(4));
+        Assert.assertEquals("inclusive", all, numbers(bank.listAccounts(first, last)));
+        Assert.assertEquals("one", all.subList(2, 3), numbers(bank.listAccounts(first + 2, first + 2, 10)));
+        Assert.assertEquals("limit", all.subList(0, 2), numbers(bank.listAccounts(first, last, 2)));
+        Assert.assertTrue("limit 0", bank.listAccounts(first, last, 0).isEmpty());
+        Assert.assertTrue("negative limit", bank.listAccounts(first, last, -1).isEmpty());
+        Assert.assertTrue("from > to", bank.listAccounts(last, first).isEmpty());
+        Assert.assertTrue("past the last", bank.listAccounts(last + 1, Long.MAX_VALUE, 10).isEmpty());
+
+        Assert.assertTrue("close", bank.closeAccount(all.get(1)));
+        Assert.assertEquals("closed one skipped", List.of(all.get(0), all.get(2)), numbers(bank.listAccounts(first, last, 2)));
+        Assert.assertThrows(UnsupportedOperationException.class, () -> bank.listAccounts().clear());
+    }
+
+    private static List<String> numbers(Iterable<Account> accounts) {
+        List<String> out = new ArrayList<>();
+        for (Account a : accounts) out.add(a.getAccountNumber());
+        return out;
+    }
+}
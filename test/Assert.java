@@ -0,0 +1,39 @@
+import java.util.Objects;
+
+// The few JUnit-style assertions the tests use; a failure throws AssertionError
+final class Assert {
+    private Assert() {}
+
+    static void assertTrue(String message, boolean condition) {
+        if (!condition) fail(message);
+    }
+
+    static void assertFalse(String message, boolean condition) {
+        if (condition) fail(message);
+    }
+
+    static void assertEquals(String message, long expected, long actual) {
+        if (expected != actual) fail(message + ": expected " + expected + " but was " + actual);
+    }
+
+    static void assertEquals(String message, Object expected, Object actual) {
+        if (!Objects.equals(expected, actual)) fail(message + ": expected " + expected + " but was " + actual);
+    }
+
+    // Run body and return what it threw, which must be a `type`
+    static <T extends Throwable> T assertThrows(Class<T> type, Body body) {
+        try {
+            body.run();
+        } catch (Throwable t) {
+            if (type.isInstance(t)) return type.cast(t);
+            throw new AssertionError("expected " + type.getSimpleName() + " but got " + t, t);
+        }
+        throw new AssertionError("expected " + type.getSimpleName() + " but nothing was thrown");
+    }
+
+    static void fail(String message) { throw new AssertionError(message); }
+
+    interface Body {
+        void run() throws Exception;
+    }
+}
@@ -0,0 +1,81 @@
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+// Metrics count every call and failure (locked and lock-free paths alike), keep the transaction
+// total in step across close and reload, and read the same through values, value and JMX
+public class BankMetricsTest {
+    public void testCountsAndFailures() {
+        Bank bank = new Bank();
+        String a = bank.createAccount("A", "1234", new BigDecimal("10.00")).getAccountNumber();
+        String b = bank.createAccount("B", "1234", null).getAccountNumber();
+        for (int i = 0; i < 5; i++) bank.deposit(a, new BigDecimal("1.00"));
+        Assert.assertTrue("withdraw", bank.withdraw(a, new BigDecimal("1.00")));
+        Assert.assertFalse("overdraw", bank.withdraw(b, new BigDecimal("1.00")));
+        Assert.assertTrue("transfer", bank.transfer(a, b, new BigDecimal("2.00")));
+        Assert.assertFalse("transfer refused", bank.transfer(b, a, new BigDecimal("5.00")));
+        bank.transferBatch(List.of(new TransferRequest(a, b, new BigDecimal("1.00"))));
+        bank.authenticate(a, "0000");
+
+        BankMetrics m = bank.metrics();
+        Assert.assertEquals("creates", 2, m.getCount("create"));
+        Assert.assertEquals("deposits", 5, m.getCount("deposit"));
+        Assert.assertEquals("withdrawals", 2, m.getCount("withdraw"));
+        Assert.assertEquals("failed withdrawals", 1, m.getFailures("withdraw"));
+        Assert.assertEquals("transfers", 2, m.getCount("transfer"));
+        Assert.assertEquals("failed transfers", 1, m.getFailures("transfer"));
+        Assert.assertEquals("batches", 1, m.getCount("transferBatch"));
+        Assert.assertEquals("authentications", 1, m.getCount("authenticate"));
+        Assert.assertEquals("accounts", 2L, m.value("accounts"));
+        // 2 openings, 5 deposits, 1 withdrawal, 2 + 2 transfer sides
+        Assert.assertEquals("transactions", 12L, m.value("transactions"));
+        Assert.assertThrows(IllegalArgumentException.class, () -> m.getCount("nope"));
+    }
+
+    public void testTransactionsFollowCloseAndReload() throws Exception {
+        String file = TestRunner.tempDir().resolve("accounts.dat").toString();
+        Bank bank = Bank.load(file);
+        String a = bank.createAccount("A", "1234", new BigDecimal("10.00")).getAccountNumber();
+        String b = bank.createAccount("B", "1234", null).getAccountNumber();
+        for (int i = 0; i < 3; i++) bank.deposit(b, new BigDecimal("1.00"));
+        Assert.assertEquals("before close", 5L, bank.metrics().value("transactions"));
+        Assert.assertTrue("withdraw all", bank.withdraw(b, new BigDecimal("3.00")));
+        Assert.assertTrue("close", bank.closeAccount(b));
+        Assert.assertEquals("closed account's entries gone", 1L, bank.metrics().value("transactions"));
+        bank.deposit(a, new BigDecimal("1.00"));
+        Assert.assertEquals("after close", 2L, bank.metrics().value("transactions"));
+        Assert.assertTrue("save", bank.save(file));
+        bank.closeFiles();
+
+        Bank reloaded = Bank.load(file);
+        Assert.assertEquals("after reload", 2L, reloaded.metrics().value("transactions"));
+        Assert.assertEquals("accounts after reload", 1L, reloaded.metrics().value("accounts"));
+        reloaded.closeFiles();
+    }
+
+    public void testValuesValueAndJmxAgree() throws Exception {
+        Bank bank = new Bank();
+        String a = bank.createAccount("A", "1234", new BigDecimal("10.00")).getAccountNumber();
+        bank.deposit(a, new BigDecimal("1.00"));
+        BankMetrics m = bank.metrics();
+        Map<String, Number> all = m.values();
+        for (Map.Entry<String, Number> e : all.entrySet()) {
+            if (!e.getKey().endsWith("Micros")) Assert.assertEquals(e.getKey(), e.getValue(), m.value(e.getKey()));
+        }
+        Assert.assertTrue("unknown metric", m.value("deposit.nope") == null && m.value("nope") == null);
+        Assert.assertEquals("lines", all.size(), m.toText().split("\n").length);
+
+        m.register("metrics-test");
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("Bank:type=Metrics,name=" + ObjectName.quote("metrics-test"));
+            Assert.assertEquals("deposit.count over JMX", 1L, server.getAttribute(name, "deposit.count"));
+            Assert.assertEquals("attributes", all.size(), server.getMBeanInfo(name).getAttributes().length);
+        } finally {
+            m.unregister();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+// The line protocol: pipelined requests are answered in order, a request that fails gets ERR (its
+// own for each reason a transfer is refused) and the connection goes on, also when the bank
+// itself refuses work
+public class BankServerTest {
+    private Path dir;
+    private String file;
+    private Bank bank;
+    private BankServer server;
+    private int port;
+
+    private void setUp() throws Exception {
+        dir = TestRunner.tempDir();
+        file = dir.resolve("accounts.dat").toString();
+        bank = Bank.load(file);
+        server = new BankServer(bank, file, dir.resolve("exports"));
+        port = server.start(0);
+    }
+
+    public void testPipelinedRequestsAreAnsweredInOrder() throws Exception {
+        setUp();
+        try (Socket s = connect()) {
+            List<String> r = send(s, "CREATE 1234 100.00 Ada Lovelace", "CREATE 1234 5.00 Ben");
+            String ada = r.get(0).substring(3), ben = r.get(1).substring(3);
+            Assert.assertTrue("created " + r, r.get(0).startsWith("OK ACC") && r.get(1).startsWith("OK ACC"));
+
+            String token = send(s, "LOGIN " + ada + " 1234").get(0).substring(3);
+            r = send(s, "DEPOSIT " + token + " 10.50", "WITHDRAW " + token + " 0.50", "BALANCE " + token,
+                    "TRANSFER " + token + " " + ben + " 10.00", "WITHDRAW " + token + " 1000.00",
+                    "TRANSFER " + token + " " + ben + " 1000.00", "HISTORY " + token + " 0 2", "PING");
+            Assert.assertEquals("replies", List.of("OK 110.50", "OK 110.00", "OK 110.00", "OK 100.00",
+                    "ERR insufficient funds", "ERR insufficient funds", "OK 2"), r.subList(0, 7));
+            Assert.assertTrue("history rows " + r, r.get(7).contains("INITIAL") && r.get(8).contains("DEPOSIT"));
+            Assert.assertEquals("ping after the rows", "OK", r.get(9));
+            Assert.assertEquals("payee", 1_500, bank.getAccount(ben).getBalanceCents());
+
+            r = send(s, "LOGIN " + ada + " 9999", "BALANCE nope", "DEPOSIT " + token + " abc", "HISTORY " + token + " x 1",
+                    "TRANSFER " + token + " ACC1 1.00", "FROB", "DEPOSIT", "PING");
+            Assert.assertEquals("errors", List.of("ERR invalid account or PIN", "ERR Not logged in", "ERR Bad amount: abc",
+                    "ERR For input string: \"x\"", "ERR Account not found: ACC1", "ERR Unknown command: FROB"), r.subList(0, 6));
+            Assert.assertTrue("usage " + r.get(6), r.get(6).startsWith("ERR "));
+            Assert.assertEquals("still serving", "OK", r.get(7));
+            Assert.assertEquals("quit", List.of("OK"), send(s, "QUIT"));
+        }
+        server.close();
+        Bank reloaded = Bank.load(file);
+        Assert.assertEquals("accounts after reload", 2, reloaded.accountCount());
+        JournalRecoveryTest.close(reloaded);
+    }
+
+    public void testEachTransferRefusalHasItsOwnError() throws Exception {
+        setUp();
+        try (Socket s = connect()) {
+            List<String> r = send(s, "CREATE 1234 5.00 Ada", "CREATE 1234 92233720368547758.07 Max"); // Long.MAX_VALUE cents
+            String ada = r.get(0).substring(3), max = r.get(1).substring(3);
+            String token = send(s, "LOGIN " + ada + " 1234").get(0).substring(3);
+            Assert.assertEquals("refusals", List.of("ERR insufficient funds", "ERR payee balance would overflow", "OK 5.00"),
+                    send(s, "TRANSFER " + token + " " + max + " 6.00", "TRANSFER " + token + " " + max + " 0.01",
+                            "BALANCE " + token));
+        }
+        server.close();
+    }
+
+    public void testConnectionGoesOnWhenTheBankRefusesWork() throws Exception {
+        setUp();
+        String token;
+        try (Socket s = connect()) {
+            String acc = send(s, "CREATE 1234 1.00 Ada").get(0).substring(3);
+            token = send(s, "LOGIN " + acc + " 1234").get(0).substring(3);
+        }
+        JournalRecoveryTest.channel(JournalRecoveryTest.journal(bank)).close(); // the disk goes away
+        try (Socket s = connect()) {
+            Assert.assertEquals("commit fails", List.of("OK 2.00", "ERR commit failed"), send(s, 2, "DEPOSIT " + token + " 1.00"));
+        }
+        try (Socket s = connect()) {
+            List<String> r = send(s, "DEPOSIT " + token + " 1.00", "BALANCE " + token, "PING");
+            Assert.assertTrue("refused: " + r.get(0), r.get(0).startsWith("ERR "));
+            Assert.assertTrue("balance still answered: " + r.get(1), r.get(1).startsWith("OK "));
+            Assert.assertEquals("goes on", "OK", r.get(2));
+        }
+        Assert.assertThrows(IOException.class, () -> server.close()); // its checkpoint fails too
+        JournalRecoveryTest.close(bank);
+    }
+
+    private Socket connect() throws Exception {
+        Socket s = new Socket(InetAddress.getLoopbackAddress(), port);
+        s.setSoTimeout(20_000);
+        return s;
+    }
+
+    // Send every request at once, then read one line per request (plus the rows of a HISTORY)
+    private static List<String> send(Socket s, String... requests) throws Exception {
+        int lines = requests.length;
+        for (String q : requests) if (q.startsWith("HISTORY ") && !q.contains(" x ")) lines += Integer.parseInt(q.substring(q.lastIndexOf(' ') + 1));
+        return send(s, lines, requests);
+    }
+
+    private static List<String> send(Socket s, int lines, String... requests) throws Exception {
+        OutputStream out = s.getOutputStream();
+        out.write((String.join("\n", requests) + "\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+        List<String> replies = new ArrayList<>();
+        for (int i = 0; i < lines; i++) replies.add(in.readLine());
+        return replies;
+    }
+}
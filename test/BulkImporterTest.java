@@ -0,0 +1,50 @@
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+
+// A bulk import never hands out an account number the bank used before, even a closed one, and
+// skips rows dated before the account's latest entry instead of reordering its ledger
+public class BulkImporterTest {
+    public void testClosedAccountNumbersAreNotImportedAgain() throws Exception {
+        Path dir = TestRunner.tempDir();
+        Bank bank = Bank.load(dir.resolve("accounts.dat").toString());
+        String closed = bank.createAccount("Ada", "1234", null).getAccountNumber();
+        Assert.assertTrue("close", bank.closeAccount(closed));
+        Path accounts = dir.resolve("accounts.bin");
+        long at = System.currentTimeMillis() - 60_000;
+        try (BulkImporter.Writer w = new BulkImporter.Writer(accounts, BulkImporter.ACCOUNTS)) {
+            w.account("ACC900000", "New", PinHash.hash("1234"), 1_000, at);
+            w.account(closed, "Again", PinHash.hash("1234"), 1_000, at);
+        }
+        Assert.assertThrows(IOException.class, () -> new BulkImporter(bank).importAccounts(accounts));
+        Assert.assertEquals("nothing imported", 0, bank.accountCount());
+        Assert.assertTrue("closed number still unused", bank.getAccount(closed) == null);
+        bank.closeFiles();
+    }
+
+    public void testBackdatedRowsAreRejected() throws Exception {
+        Path dir = TestRunner.tempDir();
+        Bank bank = Bank.load(dir.resolve("accounts.dat").toString());
+        Path accounts = dir.resolve("accounts.bin"), transactions = dir.resolve("transactions.bin");
+        long at = System.currentTimeMillis() - 60_000;
+        try (BulkImporter.Writer w = new BulkImporter.Writer(accounts, BulkImporter.ACCOUNTS)) {
+            w.account("ACC900000", "Payer", PinHash.hash("1234"), 10_000, at);
+            w.account("ACC900001", "Payee", PinHash.hash("1234"), 10_000, at);
+        }
+        try (BulkImporter.Writer w = new BulkImporter.Writer(transactions, BulkImporter.TRANSACTIONS)) {
+            w.transaction("ACC900000", at - 1, TransactionType.DEPOSIT, 100, null); // before it was opened
+            w.transaction("ACC900001", at + 10, TransactionType.DEPOSIT, 200, null);
+            w.transaction("ACC900000", at + 5, TransactionType.TRANSFER_OUT, 300, "ACC900001"); // payee is at +10
+            w.transaction("ACC900001", at + 5, TransactionType.TRANSFER_IN, 300, "ACC900000");
+            w.transaction("ACC900000", at + 20, TransactionType.WITHDRAWAL, 400, null);
+        }
+        BulkImporter importer = new BulkImporter(bank);
+        Assert.assertEquals("accounts imported", 2, importer.importAccounts(accounts));
+        Assert.assertEquals("rows applied", 2, importer.importTransactions(transactions));
+        Assert.assertEquals("rows rejected", 2, importer.rejected());
+        Assert.assertEquals("payer", 10_000 - 400, bank.getAccount("ACC900000").getBalanceCents());
+        Assert.assertEquals("payee", 10_000 + 200, bank.getAccount("ACC900001").getBalanceCents());
+        Assert.assertEquals("payer ledger", 2, bank.getAccount("ACC900000").getTransactions().size());
+        bank.closeFiles();
+    }
+}
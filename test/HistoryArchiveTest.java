@@ -0,0 +1,85 @@
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Archived history: chunks past the horizon move to a segment and stay readable next to store
+// blocks and pages, their blocks are reused after the checkpoint, and both survive a reload
+public class HistoryArchiveTest {
+    private static final int ENTRIES = 4 * Ledger.CHUNK + 300;
+
+    public void testReadsAcrossArchiveBlocksAndPages() throws Exception {
+        Path dir = TestRunner.tempDir();
+        try (HistoryStore store = HistoryStore.open(dir.resolve("h"), 0);
+                HistoryArchive archive = HistoryArchive.open(dir.resolve("a"))) {
+            Ledger l = new Ledger();
+            l.attach(store, archive);
+            LedgerTest.append(l, 0, ENTRIES);
+            int moved;
+            try (HistoryArchive.Segment segment = archive.newSegment()) {
+                moved = l.archive(1_000L * 2 * Ledger.CHUNK, segment, store::release); // chunks 0 and 1 end before it
+                segment.finish();
+            }
+            Assert.assertEquals("archived", 2 * Ledger.CHUNK, moved);
+            for (int i = 0; i < ENTRIES; i++) LedgerTest.check(l, i); // archive, blocks 2 and 3, pages
+            HistoryQueryTest.checkAgainstBruteForce(l, new Random(1));
+
+            ByteBuffer b = ByteBuffer.allocate(l.maxEncodedSize());
+            l.encode(b);
+            b.flip();
+            Ledger copy = Ledger.decode(b, Ledger.FORMAT);
+            copy.attach(store, archive);
+            for (int i = 0; i < ENTRIES; i++) LedgerTest.check(copy, i);
+            HistoryQueryTest.checkAgainstBruteForce(copy, new Random(2));
+        }
+    }
+
+    public void testArchivedBlocksAreReusedAfterTheCheckpoint() throws Exception {
+        Path dir = TestRunner.tempDir();
+        try (HistoryStore store = HistoryStore.open(dir.resolve("h"), 0);
+                HistoryArchive archive = HistoryArchive.open(dir.resolve("a"))) {
+            Ledger l = new Ledger();
+            l.attach(store, archive);
+            LedgerTest.append(l, 0, ENTRIES);
+            long blocks = store.blocks();
+            try (HistoryArchive.Segment segment = archive.newSegment()) {
+                l.archive(Long.MAX_VALUE, segment, store::release); // every spilled chunk
+                segment.finish();
+            }
+            store.checkpointed();
+            LedgerTest.append(l, ENTRIES, ENTRIES + 4 * Ledger.CHUNK);
+            Assert.assertEquals("no new blocks", blocks, store.blocks());
+            for (int i = 0; i < l.size(); i++) LedgerTest.check(l, i);
+        }
+    }
+
+    public void testRetentionArchivesAtCheckpointAndReloads() throws Exception {
+        String file = TestRunner.tempDir().resolve("accounts.dat").toString();
+        Bank bank = Bank.load(file);
+        Assert.assertThrows(IllegalArgumentException.class, () -> bank.setHistoryRetention(Duration.ofSeconds(-1)));
+        String a = bank.createAccount("A", "1234", new BigDecimal("1.00")).getAccountNumber();
+        for (int i = 0; i < 3 * Ledger.CHUNK; i++) bank.deposit(a, new BigDecimal("0.01"));
+        Assert.assertEquals("nothing past a day", 0, bank.archiveHistory(LocalDateTime.now().minusDays(1)));
+        Thread.sleep(5); // every spilled chunk now ends strictly before the horizon
+        bank.setHistoryRetention(Duration.ZERO);
+        bank.checkpoint();
+        Assert.assertTrue("segment written", !HistoryArchive.files(Bank.archivePath(file)).isEmpty());
+        bank.setHistoryRetention(null);
+        for (int i = 0; i < 10; i++) bank.deposit(a, new BigDecimal("0.01"));
+        Assert.assertTrue("save", bank.save(file));
+        List<Transaction> expected = new ArrayList<>(bank.getAccount(a).getTransactions());
+        long balance = bank.getAccount(a).getBalanceCents();
+        bank.closeFiles();
+
+        Bank reloaded = Bank.load(file);
+        List<Transaction> actual = reloaded.getAccount(a).getTransactions();
+        Assert.assertEquals("entries", expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) Assert.assertEquals("entry " + i, expected.get(i).toString(), actual.get(i).toString());
+        Assert.assertEquals("balance", balance, reloaded.getAccount(a).getBalanceCents());
+        reloaded.closeFiles();
+    }
+}
@@ -0,0 +1,100 @@
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Time-range queries against brute force over the entries: totals of any index range and the
+// balance as of any time, on the heap, in the store, after decoding and while appends go on
+public class HistoryQueryTest {
+    private static final int ENTRIES = 3 * Ledger.CHUNK + 777;
+
+    public void testTotalsAndBalancesOnTheHeap() {
+        checkAgainstBruteForce(LedgerTest.filled(ENTRIES), new Random(1));
+    }
+
+    public void testTotalsAndBalancesInTheStoreAndAfterDecoding() throws Exception {
+        try (HistoryStore store = HistoryStore.open(TestRunner.tempDir().resolve("h"), 0)) {
+            Ledger l = new Ledger();
+            l.attach(store, null);
+            LedgerTest.append(l, 0, ENTRIES);
+            checkAgainstBruteForce(l, new Random(2));
+
+            ByteBuffer b = ByteBuffer.allocate(l.maxEncodedSize());
+            l.encode(b);
+            b.flip();
+            Ledger copy = Ledger.decode(b, Ledger.FORMAT); // rows and run come from the snapshot
+            copy.attach(store, null);
+            checkAgainstBruteForce(copy, new Random(3));
+            LedgerTest.append(copy, ENTRIES, ENTRIES + Ledger.CHUNK); // and keep up with appends
+            checkAgainstBruteForce(copy, new Random(4));
+        }
+    }
+
+    public void testOlderLedgersRebuildTheirRows() {
+        int n = Ledger.CHUNK + 5;
+        ByteBuffer b = ByteBuffer.allocate(16 + 29 * n);
+        b.putInt(0).putInt(n).putInt(0).putInt(-1); // no parties, n entries, nothing spilled, heap tail: format 1 has no rows
+        for (int i = 0; i < n; i++) {
+            b.putLong(1_000L * i).put((byte) LedgerTest.type(i).ordinal()).putLong(i).putLong(2L * i).putInt(-1);
+        }
+        b.flip();
+        Ledger l = Ledger.decode(b, 1);
+        checkAgainstBruteForce(l, new Random(5));
+        LedgerTest.append(l, n, 2 * Ledger.CHUNK + 1);
+        checkAgainstBruteForce(l, new Random(6));
+    }
+
+    public void testTotalsStayConsistentWhileAppending() throws Exception {
+        Ledger l = LedgerTest.filled(1);
+        AtomicBoolean stop = new AtomicBoolean();
+        Throwable[] failure = new Throwable[1];
+        Thread reader = new Thread(() -> {
+            try {
+                while (!stop.get()) {
+                    int n = l.size(), from = n / 3;
+                    long[] t = l.totals(from, n);
+                    long count = 0, amount = 0;
+                    for (int k = 0; k < t.length; k += 2) { count += t[k]; amount += t[k + 1]; }
+                    Assert.assertEquals("count of [" + from + ", " + n + ")", n - from, count);
+                    Assert.assertEquals("amount of [" + from + ", " + n + ")", sum(from, n), amount);
+                }
+            } catch (Throwable e) {
+                failure[0] = e;
+            }
+        });
+        reader.start();
+        LedgerTest.append(l, 1, 2 * Ledger.CHUNK + 10);
+        stop.set(true);
+        reader.join();
+        if (failure[0] != null) throw new AssertionError(failure[0]);
+    }
+
+    // ---------- Helpers ----------
+    static void checkAgainstBruteForce(Ledger l, Random r) {
+        int n = l.size();
+        int[] edges = { 0, 1, Ledger.CHUNK - 1, Ledger.CHUNK, Ledger.CHUNK + 1, Ledger.CHUNK * 3 / 2, n - 1, n };
+        for (int a : edges) for (int b : edges) if (a <= b && b <= n) checkTotals(l, a, b);
+        for (int k = 0; k < 200; k++) {
+            int a = r.nextInt(n + 1), b = r.nextInt(n + 1);
+            checkTotals(l, Math.min(a, b), Math.max(a, b));
+            long t = 1_000L * r.nextInt(n) + r.nextInt(1_000); // entry i is at 1000 * i
+            Assert.assertEquals("balance as of " + t, 2L * (t / 1_000), l.balanceAsOf(t));
+        }
+        Assert.assertEquals("balance before the first entry", 0, l.balanceAsOf(-1));
+        Assert.assertEquals("latest balance", 2L * (n - 1), l.balanceAsOf(Long.MAX_VALUE));
+    }
+
+    private static void checkTotals(Ledger l, int from, int to) {
+        long[] expected = new long[2 * TransactionType.values().length];
+        for (int i = from; i < to; i++) {
+            int t = LedgerTest.type(i).ordinal() * 2;
+            expected[t]++;
+            expected[t + 1] += i;
+        }
+        long[] actual = l.totals(from, to);
+        for (int k = 0; k < expected.length; k++) {
+            Assert.assertEquals("totals of [" + from + ", " + to + ") at " + k, expected[k], actual[k]);
+        }
+    }
+
+    private static long sum(long from, long to) { return (from + to - 1) * (to - from) / 2; } // amounts are the indexes
+}
@@ -0,0 +1,100 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+// History paged out to the store: full chunks go to blocks and the chunk being filled to pages,
+// a snapshot holds only their numbers, and everything reads back the same after a reload; pages
+// are reused only once no snapshot on disk, or pinned for a replica, refers to them
+public class HistoryStoreTest {
+    private static final int ENTRIES = 2 * Ledger.CHUNK + 50; // two blocks and two pages
+
+    public void testLedgerSpillsToBlocksAndPagesAndReloads() throws Exception {
+        try (HistoryStore store = HistoryStore.open(TestRunner.tempDir().resolve("h"), 0)) {
+            Ledger l = LedgerTest.filled(100); // a heap tail, paged when the store is attached
+            l.attach(store, null);
+            LedgerTest.append(l, 100, ENTRIES);
+            for (int i = 0; i < ENTRIES; i++) LedgerTest.check(l, i);
+            int[] pages = new int[1];
+            l.forEachPage(p -> pages[0]++);
+            Assert.assertEquals("pages referenced", 2, pages[0]);
+
+            store.force();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                out.writeObject(l);
+            }
+            Assert.assertTrue("serialized bytes " + bytes.size(), bytes.size() < 1_024); // no entry is inline
+            Ledger copy;
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+                copy = (Ledger) in.readObject();
+            }
+            copy.attach(store, null);
+            for (int i = 0; i < ENTRIES; i++) LedgerTest.check(copy, i);
+            LedgerTest.append(copy, ENTRIES, Ledger.CHUNK * 3 + 1); // fills the paged chunk after reloading
+            for (int i = 0; i < copy.size(); i++) LedgerTest.check(copy, i);
+        }
+    }
+
+    public void testReleasedPagesAreReusedAfterACheckpoint() throws Exception {
+        try (HistoryStore store = HistoryStore.open(TestRunner.tempDir().resolve("h"), 0)) {
+            List<Integer> pages = new ArrayList<>();
+            for (int k = 0; k < HistoryStore.PAGES_PER_BLOCK; k++) pages.add(store.allocatePage());
+            Assert.assertEquals("one page block", 1, store.blocks());
+            for (int p : pages) store.releasePage(p);
+            store.allocatePage();
+            Assert.assertEquals("released pages wait for the checkpoint", 2, store.blocks());
+            store.checkpointed();
+            for (int k = 0; k < HistoryStore.PAGES_PER_BLOCK; k++) store.allocatePage();
+            Assert.assertEquals("pages reused", 2, store.blocks());
+        }
+    }
+
+    public void testPinnedPagesWaitForUnpin() throws Exception {
+        try (HistoryStore store = HistoryStore.open(TestRunner.tempDir().resolve("h"), 0)) {
+            List<Integer> pages = new ArrayList<>();
+            for (int k = 0; k < HistoryStore.PAGES_PER_BLOCK; k++) pages.add(store.allocatePage());
+            store.pin(); // a replica copies the snapshot that refers to them
+            for (int p : pages) store.releasePage(p);
+            store.checkpointed();
+            store.allocatePage();
+            Assert.assertEquals("pinned pages kept past the checkpoint", 2, store.blocks());
+            store.unpin();
+            for (int k = 1; k < HistoryStore.PAGES_PER_BLOCK; k++) store.allocatePage(); // the rest of block 1
+            for (int k = 0; k < HistoryStore.PAGES_PER_BLOCK; k++) store.allocatePage();
+            Assert.assertEquals("pages reused after unpin", 2, store.blocks());
+        }
+    }
+
+    public void testSnapshotHoldsNoTailAndReloads() throws Exception {
+        String file = TestRunner.tempDir().resolve("accounts.dat").toString();
+        Bank bank = Bank.load(file);
+        String small = bank.createAccount("Small", "1234", new BigDecimal("1.00")).getAccountNumber();
+        String big = bank.createAccount("Big", "1234", new BigDecimal("1.00")).getAccountNumber();
+        bank.checkpoint();
+        long before = Files.size(Path.of(file));
+        for (int i = 0; i < Ledger.CHUNK + 3_000; i++) bank.deposit(big, new BigDecimal("0.01"));
+        bank.checkpoint();
+        Assert.assertTrue("snapshot grew by " + (Files.size(Path.of(file)) - before),
+                Files.size(Path.of(file)) - before < 1_024);
+        for (int i = 0; i < 40; i++) bank.deposit(small, new BigDecimal("0.02")); // journaled only
+        Assert.assertTrue("save", bank.save(file));
+        List<Transaction> expected = new ArrayList<>(bank.getAccount(big).getTransactions());
+        expected.addAll(bank.getAccount(small).getTransactions());
+        JournalRecoveryTest.close(bank);
+
+        Bank reloaded = Bank.load(file); // the journal replays into the pages
+        List<Transaction> actual = new ArrayList<>(reloaded.getAccount(big).getTransactions());
+        actual.addAll(reloaded.getAccount(small).getTransactions());
+        Assert.assertEquals("entries", expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) Assert.assertEquals("entry " + i, expected.get(i).toString(), actual.get(i).toString());
+        reloaded.deposit(small, new BigDecimal("1.00"));
+        Assert.assertEquals("balance", 100 + 40 * 2 + 100, reloaded.getAccount(small).getBalanceCents());
+        JournalRecoveryTest.close(reloaded);
+    }
+}
@@ -0,0 +1,95 @@
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import javax.swing.SwingUtilities;
+import javax.swing.event.TableModelEvent;
+
+// The history table reads pages on the loader, never on the EDT: a row is blank until its page
+// arrives, each page is read once while cached, and the model keeps the size it was built with
+public class HistoryTableModelTest {
+    private static final long WAIT_MS = 20_000;
+    private static final int ROWS = 5_000;
+
+    public void testPagesLoadOffTheEdtAndRepaint() throws Exception {
+        Bank bank = new Bank();
+        String acc = bank.createAccount("Ada", "1234", new BigDecimal("1.00")).getAccountNumber();
+        for (int i = 1; i < ROWS; i++) bank.deposit(acc, new BigDecimal("0.01"));
+        AtomicInteger loads = new AtomicInteger();
+        List<Boolean> onEdt = new CopyOnWriteArrayList<>();
+        ExecutorService worker = Executors.newSingleThreadExecutor();
+        try {
+            HistoryTableModel model = onEdt(() -> new HistoryTableModel(bank.getAccount(acc), task -> {
+                loads.incrementAndGet();
+                worker.execute(() -> {
+                    onEdt.add(SwingUtilities.isEventDispatchThread());
+                    task.run();
+                });
+            }));
+            List<TableModelEvent> events = new CopyOnWriteArrayList<>();
+            model.addTableModelListener(events::add);
+            bank.deposit(acc, new BigDecimal("1.00")); // after the model was built: not shown
+
+            Assert.assertEquals("rows", ROWS, (int) onEdt(model::getRowCount));
+            // one EDT turn: the page cannot arrive in between
+            Assert.assertEquals("blank while loading", "|", onEdt(() -> model.getValueAt(300, 1) + "|" + model.getValueAt(301, 2)));
+            await(() -> events.size() == 1);
+            Assert.assertEquals("one load for the page", 1, loads.get());
+            TableModelEvent e = events.get(0);
+            Assert.assertEquals("repainted rows", "256-511", e.getFirstRow() + "-" + e.getLastRow());
+            Assert.assertEquals("type", TransactionType.DEPOSIT, onEdt(() -> model.getValueAt(300, 1)));
+            Assert.assertEquals("amount", new BigDecimal("0.01"), onEdt(() -> model.getValueAt(300, 2)));
+            Assert.assertEquals("first row", TransactionType.INITIAL, load(model, events, 0, 1));
+            Assert.assertEquals("last page is short", new BigDecimal("50.99"), load(model, events, ROWS - 1, 3));
+            Assert.assertEquals("loads", 3, loads.get());
+            Assert.assertFalse("read on the EDT", onEdt.contains(true));
+
+            for (int p = 0; p < 19; p++) load(model, events, p * 256, 1); // more pages than the cache holds
+            int before = loads.get();
+            load(model, events, 0, 1);
+            Assert.assertEquals("evicted page read again", before + 1, loads.get());
+        } finally {
+            worker.shutdownNow();
+        }
+    }
+
+    // Value at (row, col), waiting for its page if it is not cached
+    private static Object load(HistoryTableModel model, List<TableModelEvent> events, int row, int col) throws Exception {
+        int seen = events.size();
+        Object v = onEdt(() -> model.getValueAt(row, col));
+        if (!"".equals(v)) return v;
+        await(() -> events.size() > seen);
+        return onEdt(() -> model.getValueAt(row, col));
+    }
+
+    private interface Call<T> {
+        T call() throws Exception;
+    }
+
+    private static <T> T onEdt(Call<T> c) throws Exception {
+        Object[] out = new Object[1];
+        Exception[] failure = new Exception[1];
+        SwingUtilities.invokeAndWait(() -> {
+            try {
+                out[0] = c.call();
+            } catch (Exception e) {
+                failure[0] = e;
+            }
+        });
+        if (failure[0] != null) throw failure[0];
+        @SuppressWarnings("unchecked") T t = (T) out[0];
+        return t;
+    }
+
+    private static void await(BooleanSupplier done) throws Exception {
+        long deadline = System.currentTimeMillis() + WAIT_MS;
+        while (!done.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) Assert.fail("timed out");
+            Thread.sleep(5);
+        }
+        SwingUtilities.invokeAndWait(() -> { }); // let the EDT finish the update it announced
+    }
+}
@@ -0,0 +1,132 @@
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+// Recovery from the journal: a torn tail is cut off, a journal that cannot be replayed fails the
+// load instead of giving a partial bank, and a failed sync stops the bank until it is reloaded
+public class JournalRecoveryTest {
+    private String file;
+    private Path journal;
+
+    // An account with 10.00 and three deposits of 1.00, all synced: records 1 (create) to 4
+    private String setUp() throws Exception {
+        file = TestRunner.tempDir().resolve("accounts.dat").toString();
+        journal = Paths.get(file + ".journal");
+        Bank bank = Bank.load(file);
+        String acc = bank.createAccount("Ada", "1234", new BigDecimal("10.00")).getAccountNumber();
+        for (int i = 0; i < 3; i++) bank.deposit(acc, new BigDecimal("1.00"));
+        Assert.assertTrue("save", bank.save(file));
+        close(bank);
+        Assert.assertEquals("records", 4, records().size());
+        return acc;
+    }
+
+    public void testTornTailIsCutOff() throws Exception {
+        String acc = setUp();
+        long[] last = records().get(3);
+        byte[] bytes = Files.readAllBytes(journal);
+        Files.write(journal, Arrays.copyOf(bytes, (int) (last[0] + last[1] - 5))); // crash mid-write
+
+        Bank bank = Bank.load(file);
+        Assert.assertEquals("balance without the torn deposit", "12.00", balance(bank, acc));
+        Assert.assertEquals("journal cut back to the last whole record", last[0], Files.size(journal));
+        bank.deposit(acc, new BigDecimal("5.00")); // appends continue after the cut
+        Assert.assertTrue("save", bank.save(file));
+        close(bank);
+
+        bank = Bank.load(file);
+        Assert.assertEquals("balance after the second reload", "17.00", balance(bank, acc));
+        close(bank);
+    }
+
+    public void testSeqGapFailsTheLoad() throws Exception {
+        setUp();
+        long[] second = records().get(1);
+        byte[] bytes = Files.readAllBytes(journal);
+        byte[] cut = new byte[bytes.length - (int) second[1]]; // drop the first deposit
+        System.arraycopy(bytes, 0, cut, 0, (int) second[0]);
+        System.arraycopy(bytes, (int) (second[0] + second[1]), cut, (int) second[0], cut.length - (int) second[0]);
+        Files.write(journal, cut);
+
+        UncheckedIOException e = Assert.assertThrows(UncheckedIOException.class, () -> Bank.load(file));
+        Assert.assertTrue("message: " + e.getMessage(), e.getMessage().startsWith("Cannot replay"));
+        Assert.assertEquals("journal left as it was", cut.length, Files.size(journal));
+    }
+
+    public void testRecordThatCannotBeAppliedFailsTheLoad() throws Exception {
+        setUp();
+        long[] second = records().get(1);
+        byte[] bytes = Files.readAllBytes(journal);
+        int body = (int) second[0] + 8;
+        bytes[body + 8] = 99; // type byte after the seq: intact (CRC fixed below) but unknown
+        CRC32 crc = new CRC32();
+        crc.update(bytes, body, (int) second[1] - 8);
+        ByteBuffer.wrap(bytes).putInt((int) second[0] + 4, (int) crc.getValue());
+        Files.write(journal, bytes);
+
+        UncheckedIOException e = Assert.assertThrows(UncheckedIOException.class, () -> Bank.load(file));
+        Assert.assertTrue("message: " + e.getMessage(), e.getMessage().startsWith("Cannot replay"));
+        Assert.assertEquals("journal left as it was", bytes.length, Files.size(journal));
+    }
+
+    public void testFailedSyncStopsTheBankUntilReload() throws Exception {
+        String acc = setUp();
+        Bank bank = Bank.load(file);
+        bank.deposit(acc, new BigDecimal("2.00"));
+        Assert.assertTrue("save", bank.save(file));
+        channel(journal(bank)).close(); // the disk goes away
+        bank.deposit(acc, new BigDecimal("4.00"));
+        Assert.assertFalse("save after the failure", bank.save(file));
+        Assert.assertThrows(IllegalStateException.class, () -> bank.deposit(acc, new BigDecimal("8.00")));
+        Assert.assertThrows(IllegalStateException.class, () -> bank.createAccount("Bob", "1234", null));
+        Assert.assertFalse("save stays failed", bank.save(file));
+        close(bank);
+
+        Bank reloaded = Bank.load(file);
+        Assert.assertEquals("durable balance", "15.00", balance(reloaded, acc));
+        reloaded.deposit(acc, new BigDecimal("1.00"));
+        Assert.assertTrue("save after reload", reloaded.save(file));
+        close(reloaded);
+    }
+
+    // [offset, length] of every whole record in the journal
+    private List<long[]> records() throws Exception {
+        ByteBuffer b = ByteBuffer.wrap(Files.readAllBytes(journal));
+        List<long[]> out = new ArrayList<>();
+        while (b.remaining() >= 8) {
+            int start = b.position(), len = b.getInt(start);
+            if (len <= 0 || start + 8 + len > b.limit()) break;
+            out.add(new long[] { start, 8 + len });
+            b.position(start + 8 + len);
+        }
+        return out;
+    }
+
+    private static String balance(Bank bank, String acc) { return bank.getAccount(acc).getBalance().toPlainString(); }
+
+    static Journal journal(Bank bank) throws Exception {
+        Field f = Bank.class.getDeclaredField("journal");
+        f.setAccessible(true);
+        return (Journal) f.get(bank);
+    }
+
+    // Let go of the journal file, as a process exit would (a failed journal is only closed)
+    static void close(Bank bank) throws Exception {
+        journal(bank).close();
+    }
+
+    static FileChannel channel(Journal journal) throws Exception {
+        Field f = Journal.class.getDeclaredField("channel");
+        f.setAccessible(true);
+        return (FileChannel) f.get(journal);
+    }
+}
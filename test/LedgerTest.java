@@ -0,0 +1,74 @@
+import java.nio.ByteBuffer;
+import java.util.List;
+
+// The columnar ledger: entries read back as appended across chunk boundaries, a view keeps the
+// size it was taken at, and the encoded form decodes to the same entries
+public class LedgerTest {
+    private static final int ENTRIES = 2 * Ledger.CHUNK + 100; // two full chunks and a partial one
+
+    public void testEntriesReadBackAcrossChunks() {
+        Ledger l = filled(ENTRIES);
+        Assert.assertEquals("size", ENTRIES, l.size());
+        for (int i = 0; i < ENTRIES; i++) check(l, i);
+    }
+
+    public void testViewIsASnapshot() {
+        Ledger l = filled(10);
+        List<Transaction> view = l.view();
+        l.append(TransactionType.DEPOSIT, 1, 1, null, 1_000);
+        Assert.assertEquals("view size", 10, view.size());
+        Assert.assertEquals("new view size", 11, l.view().size());
+        Assert.assertEquals("entry 2", TransactionType.WITHDRAWAL, view.get(2).getType());
+        Assert.assertThrows(IndexOutOfBoundsException.class, () -> view.get(10));
+        Assert.assertThrows(UnsupportedOperationException.class, () -> view.add(view.get(0)));
+    }
+
+    public void testClockSteppingBackIsClamped() {
+        Ledger l = new Ledger();
+        l.append(TransactionType.INITIAL, 100, 100, null, 5_000);
+        l.append(TransactionType.DEPOSIT, 1, 101, null, 4_000);
+        Assert.assertEquals("time", 5_000, l.timeAt(1));
+        Assert.assertEquals("index of 5000", 0, l.indexOf(5_000));
+    }
+
+    public void testEncodeDecodeRoundTrip() {
+        Ledger l = filled(ENTRIES);
+        ByteBuffer b = ByteBuffer.allocate(l.maxEncodedSize());
+        l.encode(b);
+        b.flip();
+        Ledger copy = Ledger.decode(b, Ledger.FORMAT);
+        Assert.assertFalse("bytes left", b.hasRemaining());
+        Assert.assertEquals("size", ENTRIES, copy.size());
+        for (int i = 0; i < ENTRIES; i++) check(copy, i);
+        copy.append(TransactionType.DEPOSIT, 7, 7, "more", 10_000_000);
+        Assert.assertEquals("note after decode", "more", copy.noteAt(ENTRIES));
+    }
+
+    // ---------- Helpers ----------
+    // Entry i: every type in turn, amount i, balance 2 * i, at 1000 * i, transfers to ACC<i % 7>
+    static Ledger filled(int n) {
+        Ledger l = new Ledger();
+        append(l, 0, n);
+        return l;
+    }
+
+    static void append(Ledger l, int from, int to) {
+        for (int i = from; i < to; i++) l.append(type(i), i, 2L * i, party(i), 1_000L * i);
+    }
+
+    static TransactionType type(int i) { return TransactionType.values()[i % TransactionType.values().length]; }
+
+    private static String party(int i) {
+        TransactionType t = type(i);
+        if (t == TransactionType.TRANSFER_IN || t == TransactionType.TRANSFER_OUT) return "ACC" + (i % 7);
+        return i % 3 == 0 ? null : "note " + (i % 5);
+    }
+
+    static void check(Ledger l, int i) {
+        Assert.assertEquals("type of " + i, type(i), l.typeAt(i));
+        Assert.assertEquals("amount of " + i, i, l.amountAt(i));
+        Assert.assertEquals("balance of " + i, 2L * i, l.balanceAt(i));
+        Assert.assertEquals("time of " + i, 1_000L * i, l.timeAt(i));
+        Assert.assertEquals("party of " + i, party(i), l.partyAt(i));
+    }
+}
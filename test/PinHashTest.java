@@ -0,0 +1,39 @@
+import java.math.BigDecimal;
+
+// PIN hashes: only the right PIN matches (non-ASCII ones too), the raw bytes survive the hex
+// edges, and a bank checks PINs and session tokens with them
+public class PinHashTest {
+    public void testOnlyTheRightPinMatches() {
+        byte[] h = PinHash.hash("1234");
+        Assert.assertEquals("length", PinHash.BYTES, h.length);
+        Assert.assertTrue("right pin", PinHash.matches(h, "1234"));
+        Assert.assertFalse("wrong pin", PinHash.matches(h, "1235"));
+        Assert.assertFalse("prefix", PinHash.matches(h, "123"));
+        Assert.assertFalse("no pin", PinHash.matches(h, null));
+        Assert.assertFalse("no hash", PinHash.matches(null, "1234"));
+        byte[] unicode = PinHash.hash("12\u20ac4");
+        Assert.assertTrue("non-ASCII pin", PinHash.matches(unicode, "12\u20ac4"));
+        Assert.assertFalse("non-ASCII pin differs", PinHash.matches(unicode, "12?4"));
+        Assert.assertTrue("a long pin after a short one", PinHash.matches(PinHash.hash("1234567890123456789"), "1234567890123456789"));
+    }
+
+    public void testHexRoundTrip() {
+        byte[] h = PinHash.hash("0000");
+        String hex = PinHash.toHex(h);
+        Assert.assertEquals("hex length", 64, hex.length());
+        Assert.assertEquals("SHA-256 of 0000", "9af15b336e6a9619928537df30b2e6a2376569fcf9d7e773eccede65606529a0", hex);
+        Assert.assertTrue("round trip", PinHash.matches(PinHash.fromHex(hex), "0000"));
+        Assert.assertThrows(IllegalArgumentException.class, () -> PinHash.fromHex("abc"));
+        Assert.assertThrows(IllegalArgumentException.class, () -> PinHash.fromHex("zz"));
+    }
+
+    public void testBankChecksPinsAndSessions() {
+        Bank bank = new Bank();
+        String acc = bank.createAccount("Ada", "4321", new BigDecimal("1.00")).getAccountNumber();
+        Assert.assertTrue("authenticate", bank.authenticate(acc, "4321") != null);
+        Assert.assertTrue("wrong pin", bank.authenticate(acc, "1234") == null);
+        Assert.assertTrue("wrong pin, no session", bank.login(acc, "1234") == null);
+        String token = bank.login(acc, "4321");
+        Assert.assertEquals("session", acc, bank.session(token).getAccountNumber());
+    }
+}
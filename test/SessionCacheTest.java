@@ -0,0 +1,33 @@
+// Sessions: a token maps to its account until it is closed, expires or is evicted as the oldest
+// once the cache is over capacity
+public class SessionCacheTest {
+    public void testOldestSessionsAreEvictedOverCapacity() {
+        SessionCache cache = new SessionCache(3, 60_000);
+        String[] tokens = new String[5];
+        for (int i = 0; i < tokens.length; i++) tokens[i] = cache.open("ACC" + i);
+        Assert.assertEquals("size", 3, cache.size());
+        Assert.assertTrue("oldest evicted", cache.lookup(tokens[0]) == null && cache.lookup(tokens[1]) == null);
+        for (int i = 2; i < tokens.length; i++) Assert.assertEquals("session " + i, "ACC" + i, cache.lookup(tokens[i]));
+    }
+
+    public void testClosedSessionsMakeRoom() {
+        SessionCache cache = new SessionCache(2, 60_000);
+        String first = cache.open("ACC1"), second = cache.open("ACC2");
+        cache.close(first);
+        Assert.assertTrue("closed", cache.lookup(first) == null);
+        String third = cache.open("ACC3");
+        Assert.assertEquals("size", 2, cache.size());
+        Assert.assertEquals("second kept", "ACC2", cache.lookup(second));
+        Assert.assertEquals("third", "ACC3", cache.lookup(third));
+        Assert.assertTrue("unknown token", cache.lookup("nope") == null && cache.lookup(null) == null);
+    }
+
+    public void testSessionsExpire() throws Exception {
+        SessionCache cache = new SessionCache(10, 50);
+        String token = cache.open("ACC1");
+        Assert.assertEquals("live", "ACC1", cache.lookup(token));
+        Thread.sleep(80);
+        Assert.assertTrue("expired", cache.lookup(token) == null);
+        Assert.assertEquals("size", 0, cache.size());
+    }
+}
@@ -0,0 +1,131 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+// Cross-shard transfers after a crash: a copy of the files taken while the bank runs (shard
+// journals not synced, transfer log synced) opens with every transfer rolled forward exactly once,
+// and a bank whose transfer log failed still lets go of its files on close
+public class ShardedBankRecoveryTest {
+    private static final int SHARDS = 3, ACCOUNTS = 12;
+
+    private Path dir;
+    private ShardedBank bank;
+    private final List<String> accounts = new ArrayList<>();
+
+    private void setUp() throws Exception {
+        dir = TestRunner.tempDir().resolve("live");
+        Files.createDirectories(dir);
+        bank = ShardedBank.open(dir.resolve("accounts.dat").toString(), SHARDS);
+        for (int i = 0; i < ACCOUNTS; i++) {
+            accounts.add(bank.createAccount("Holder " + i, "1234", new BigDecimal("100.00")).getAccountNumber());
+        }
+    }
+
+    public void testCrossShardTransfersSurviveACrash() throws Exception {
+        setUp();
+        transferAtRandom(new Random(1), 500);
+        Map<String, Long> expected = balances(bank);
+        String copy = crash();
+        ShardedBank recovered = ShardedBank.open(copy, SHARDS);
+        Assert.assertEquals("balances after the crash", expected, balances(recovered));
+        Assert.assertEquals("money kept", ACCOUNTS * 10_000L, total(recovered));
+
+        // the recovered bank goes on: link numbers continue past the recovered ones across reopens
+        recovered.checkpoint();
+        transferAtRandom(new Random(2), 200, recovered);
+        expected = balances(recovered);
+        recovered.close();
+        ShardedBank reopened = ShardedBank.open(copy, SHARDS);
+        Assert.assertEquals("balances after a clean reopen", expected, balances(reopened));
+        reopened.close();
+        ShardedBank again = ShardedBank.open(copy, SHARDS); // recovery is repeatable
+        Assert.assertEquals("balances after opening twice", expected, balances(again));
+        again.close();
+        bank.close();
+    }
+
+    public void testFailedTransferLogRefusesCrossShardTransfersUntilReopened() throws Exception {
+        setUp();
+        transferAtRandom(new Random(3), 100);
+        Map<String, Long> before = balances(bank);
+        String from = accounts.get(0), to = accounts.get(1); // round-robin: different shards
+        Assert.assertTrue("different shards", bank.shardOf(from) != bank.shardOf(to));
+        JournalRecoveryTest.channel(transferLog(bank)).close();
+
+        Assert.assertThrows(UncheckedIOException.class, () -> bank.transfer(from, to, BigDecimal.ONE));
+        Assert.assertThrows(UncheckedIOException.class, () -> bank.transfer(to, from, BigDecimal.ONE));
+        Assert.assertEquals("nothing applied", before, balances(bank));
+        Assert.assertThrows(IOException.class, () -> bank.checkpoint()); // the log may hold the in-doubt transfer
+        String sameShard = accounts.get(SHARDS); // account 0's shard again
+        Assert.assertTrue("same-shard transfers still work", bank.transfer(from, sameShard, BigDecimal.ONE));
+        Assert.assertTrue("shards still commit", bank.save());
+        before = balances(bank);
+
+        ShardedBank recovered = ShardedBank.open(crash(), SHARDS);
+        Assert.assertEquals("in-doubt transfer never reached the log", before, balances(recovered));
+        Assert.assertTrue("transfers after reopening", recovered.transfer(from, to, BigDecimal.ONE));
+        recovered.close();
+
+        Assert.assertThrows(IOException.class, () -> bank.close()); // its checkpoint fails...
+        for (Bank shard : shards(bank)) {
+            Assert.assertFalse("shard journal still open", JournalRecoveryTest.channel(JournalRecoveryTest.journal(shard)).isOpen());
+        }
+    }
+
+    // ---------- Helpers ----------
+    private void transferAtRandom(Random r, int count) { transferAtRandom(r, count, bank); }
+
+    // Cross-shard only: same-shard transfers are durable at the next save(), not right away
+    private void transferAtRandom(Random r, int count, ShardedBank b) {
+        for (int k = 0; k < count; k++) {
+            String x = accounts.get(r.nextInt(ACCOUNTS)), y = accounts.get(r.nextInt(ACCOUNTS));
+            if (b.shardOf(x) != b.shardOf(y)) b.transfer(x, y, new BigDecimal("1.25"));
+        }
+    }
+
+    // Copy of the files as they are on disk right now, as a crash would leave them
+    private String crash() throws IOException {
+        Path copy = dir.resolveSibling("crash");
+        Files.createDirectories(copy);
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path p : (Iterable<Path>) files::iterator) {
+                Files.copy(p, copy.resolve(p.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        return copy.resolve("accounts.dat").toString();
+    }
+
+    private Map<String, Long> balances(ShardedBank b) {
+        Map<String, Long> m = new HashMap<>();
+        for (String acc : accounts) m.put(acc, b.getAccount(acc).getBalanceCents());
+        return m;
+    }
+
+    private long total(ShardedBank b) {
+        long t = 0;
+        for (String acc : accounts) t += b.getAccount(acc).getBalanceCents();
+        return t;
+    }
+
+    private static Bank[] shards(ShardedBank b) throws Exception {
+        Field f = ShardedBank.class.getDeclaredField("shards");
+        f.setAccessible(true);
+        return (Bank[]) f.get(b);
+    }
+
+    private static Journal transferLog(ShardedBank b) throws Exception {
+        Field f = ShardedBank.class.getDeclaredField("transfers");
+        f.setAccessible(true);
+        return (Journal) f.get(b);
+    }
+}
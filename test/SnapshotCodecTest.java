@@ -0,0 +1,96 @@
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+// The binary snapshot: what is written reads back the same (streaming and through the footer),
+// a flipped byte in a section or the footer is refused, and a Java-serialized file still loads
+public class SnapshotCodecTest {
+    public void testRoundTripStreamingAndParallel() throws Exception {
+        Path file = TestRunner.tempDir().resolve("accounts.dat");
+        Bank bank = sample();
+        SnapshotCodec.write(bank, file);
+        String any = bank.accountsView().iterator().next().getAccountNumber();
+        for (boolean parallel : new boolean[] { false, true }) {
+            Bank copy = SnapshotCodec.read(file, parallel);
+            Assert.assertEquals("state, parallel " + parallel, state(bank), state(copy));
+            Assert.assertEquals("next account", bank.nextAccountNumberValue(), copy.nextAccountNumberValue());
+            Assert.assertTrue("pin still checks", copy.authenticate(any, "1234") != null);
+        }
+    }
+
+    public void testCorruptSectionIsRefused() throws Exception {
+        Path file = TestRunner.tempDir().resolve("accounts.dat");
+        SnapshotCodec.write(sample(), file);
+        flip(file, Files.size(file) / 2); // inside the only section
+        for (boolean parallel : new boolean[] { false, true }) {
+            IOException e = Assert.assertThrows(IOException.class, () -> SnapshotCodec.read(file, parallel));
+            Assert.assertTrue("message: " + e.getMessage(), e.getMessage().startsWith("Checksum mismatch"));
+        }
+        Assert.assertThrows(UncheckedIOException.class, () -> Bank.load(file.toString()));
+    }
+
+    public void testCorruptFooterIsRefused() throws Exception {
+        Path file = TestRunner.tempDir().resolve("accounts.dat");
+        SnapshotCodec.write(sample(), file);
+        flip(file, Files.size(file) - 21); // last byte of the section offsets
+        IOException e = Assert.assertThrows(IOException.class, () -> SnapshotCodec.read(file, true));
+        Assert.assertTrue("message: " + e.getMessage(), e.getMessage().startsWith("Corrupt snapshot footer"));
+    }
+
+    public void testJavaSerializedFileIsMigrated() throws Exception {
+        Path file = TestRunner.tempDir().resolve("accounts.dat");
+        Bank bank = sample();
+        try (ObjectOutputStream out = new ObjectOutputStream(Files.newOutputStream(file))) {
+            out.writeObject(bank);
+        }
+        Bank loaded = Bank.load(file.toString());
+        Assert.assertEquals("state", state(bank), state(loaded));
+        Assert.assertTrue("save", loaded.save(file.toString()));
+        loaded.checkpoint();
+        JournalRecoveryTest.close(loaded);
+        try (FileChannel ch = FileChannel.open(file)) {
+            Assert.assertTrue("rewritten as a snapshot", SnapshotCodec.isSnapshot(ch));
+        }
+        Bank again = Bank.load(file.toString());
+        Assert.assertEquals("state after the migration", state(bank), state(again));
+        JournalRecoveryTest.close(again);
+    }
+
+    // ---------- Helpers ----------
+    // Unjournaled bank with a few accounts, one of them past a full ledger chunk
+    private static Bank sample() {
+        Bank bank = new Bank();
+        List<String> numbers = new ArrayList<>();
+        for (int i = 0; i < 5; i++) numbers.add(bank.createAccount("Holder " + i, "1234", new BigDecimal("100.00")).getAccountNumber());
+        for (int i = 0; i < Ledger.CHUNK + 10; i++) bank.deposit(numbers.get(0), new BigDecimal("0.01"));
+        bank.transfer(numbers.get(1), numbers.get(2), new BigDecimal("12.34"));
+        bank.withdraw(numbers.get(3), new BigDecimal("50.00"));
+        return bank;
+    }
+
+    // Every account with its balance and every entry of its history, in account order
+    static String state(Bank bank) {
+        List<Account> accounts = new ArrayList<>(bank.accountsView());
+        accounts.sort(Comparator.comparing(Account::getAccountNumber));
+        StringBuilder sb = new StringBuilder();
+        for (Account a : accounts) {
+            sb.append(a.getAccountNumber()).append(' ').append(a.getHolderName()).append('=').append(a.getBalanceCents());
+            for (Transaction t : a.getTransactions()) sb.append('\n').append(t);
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static void flip(Path file, long at) throws IOException {
+        byte[] b = Files.readAllBytes(file);
+        b[(int) at] ^= 0x40;
+        Files.write(file, b);
+    }
+}
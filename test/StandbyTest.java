@@ -0,0 +1,132 @@
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+// A standby catches up from a snapshot, then follows the committed records of the primary, and a
+// promoted standby numbers new accounts past everything the primary handed out; a bulk import is
+// refused while a standby is attached, and one that reconnects afterwards converges on the data
+public class StandbyTest {
+    private static final long WAIT_MS = 20_000;
+
+    public void testStandbyFollowsThePrimary() throws Exception {
+        Path dir = TestRunner.tempDir();
+        String primaryFile = dir.resolve("primary.dat").toString(), standbyFile = dir.resolve("standby.dat").toString();
+        Bank primary = Bank.load(primaryFile);
+        String first = primary.createAccount("Ada", "1234", new BigDecimal("50.00")).getAccountNumber();
+        for (int i = 0; i < Ledger.CHUNK + 10; i++) primary.deposit(first, new BigDecimal("0.01")); // a spilled chunk
+        Assert.assertTrue("save", primary.save(primaryFile));
+        Replicator replicator = new Replicator(primary, primaryFile);
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", replicator.start(0));
+        Standby standby = new Standby(standbyFile, address);
+        try {
+            standby.start();
+            awaitSameState(primary, standby);
+            Assert.assertEquals("followers", 1, replicator.followers());
+
+            String second = primary.createAccount("Ben", "1234", new BigDecimal("20.00")).getAccountNumber();
+            Assert.assertTrue("transfer", primary.transfer(first, second, new BigDecimal("5.00")));
+            Assert.assertTrue("save", primary.save(primaryFile));
+            awaitSameState(primary, standby);
+
+            Bank promoted = standby.promote();
+            String fresh = promoted.createAccount("Cy", "1234", null).getAccountNumber();
+            Assert.assertTrue("promoted standby reuses " + fresh, primary.getAccount(fresh) == null);
+            promoted.closeFiles();
+        } finally {
+            replicator.close();
+            standby.close();
+            primary.closeFiles();
+        }
+    }
+
+    public void testStandbyConvergesAfterAnImport() throws Exception {
+        Path dir = TestRunner.tempDir();
+        String primaryFile = dir.resolve("primary.dat").toString(), standbyFile = dir.resolve("standby.dat").toString();
+        Bank primary = Bank.load(primaryFile);
+        String first = primary.createAccount("Ada", "1234", new BigDecimal("50.00")).getAccountNumber();
+        primary.createAccount("Ben", "1234", new BigDecimal("20.00"));
+        Assert.assertTrue("save", primary.save(primaryFile));
+        Replicator replicator = new Replicator(primary, primaryFile);
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", replicator.start(0));
+        Standby standby = new Standby(standbyFile, address);
+        try {
+            standby.start();
+            primary.deposit(first, new BigDecimal("5.00"));
+            Assert.assertTrue("save", primary.save(primaryFile));
+            awaitSameState(primary, standby);
+            Assert.assertEquals("followers", 1, replicator.followers());
+
+            Path accounts = dir.resolve("accounts.bin"), transactions = dir.resolve("transactions.bin");
+            writeImport(accounts, transactions);
+            BulkImporter attached = new BulkImporter(primary);
+            Assert.assertThrows(IllegalStateException.class, () -> attached.importAccounts(accounts));
+            Assert.assertEquals("nothing imported", 2, primary.accountCount());
+
+            standby.close();
+            long deadline = System.currentTimeMillis() + WAIT_MS;
+            while (replicator.followers() > 0 && System.currentTimeMillis() < deadline) Thread.sleep(10);
+            BulkImporter importer = new BulkImporter(primary);
+            Assert.assertEquals("accounts imported", 10, importer.importAccounts(accounts));
+            Assert.assertEquals("rows applied", 20, importer.importTransactions(transactions));
+            Assert.assertEquals("rows rejected", 0, importer.rejected());
+            primary.deposit(first, new BigDecimal("1.00")); // journaled after the import
+            Assert.assertTrue("save", primary.save(primaryFile));
+
+            Standby second = new Standby(standbyFile, address);
+            second.start();
+            awaitSameState(primary, second);
+            Assert.assertEquals("imported balance on the standby", 10_000 + 500 - 700,
+                    second.bank().getAccount("ACC700000").getBalanceCents());
+
+            Bank promoted = second.promote();
+            String fresh = promoted.createAccount("Cy", "1234", null).getAccountNumber();
+            Assert.assertTrue("promoted standby reuses " + fresh, primary.getAccount(fresh) == null);
+            promoted.closeFiles();
+        } finally {
+            replicator.close();
+            standby.close();
+            primary.closeFiles();
+        }
+    }
+
+    // Ten accounts ACC700000.. with 100.00 each; each deposits 5.00, then
+    // 0 pays 7.00 to 1, 2 to 3 and so on
+    private static void writeImport(Path accounts, Path transactions) throws Exception {
+        long at = System.currentTimeMillis() - 60_000;
+        try (BulkImporter.Writer w = new BulkImporter.Writer(accounts, BulkImporter.ACCOUNTS)) {
+            for (int i = 0; i < 10; i++) w.account(number(i), "Imported " + i, PinHash.hash("1234"), 10_000, at);
+        }
+        try (BulkImporter.Writer w = new BulkImporter.Writer(transactions, BulkImporter.TRANSACTIONS)) {
+            for (int i = 0; i < 10; i++) {
+                w.transaction(number(i), at + 1, TransactionType.DEPOSIT, 500, null);
+            }
+            for (int i = 0; i < 5; i++) { // transfers 0 -> 1, 2 -> 3, ...: one OUT and one IN row each
+                w.transaction(number(2 * i), at + 2, TransactionType.TRANSFER_OUT, 700, number(2 * i + 1));
+                w.transaction(number(2 * i + 1), at + 2, TransactionType.TRANSFER_IN, 700, number(2 * i));
+            }
+        }
+    }
+
+    private static String number(int i) { return "ACC" + (700000 + i); }
+
+    private static void awaitSameState(Bank primary, Standby standby) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_MS;
+        while (!state(primary).equals(state(standby.bank())) && System.currentTimeMillis() < deadline) Thread.sleep(20);
+        Assert.assertEquals("standby state", state(primary), state(standby.bank()));
+    }
+
+    // Every account with its balance and ledger length, in account order
+    private static String state(Bank bank) {
+        List<Account> accounts = new ArrayList<>(bank.accountsView());
+        accounts.sort(Comparator.comparing(Account::getAccountNumber));
+        StringBuilder sb = new StringBuilder();
+        for (Account a : accounts) {
+            sb.append(a.getAccountNumber()).append('=').append(a.getBalanceCents()).append('/')
+                    .append(a.getTransactions().size()).append(' ');
+        }
+        return sb.toString();
+    }
+}
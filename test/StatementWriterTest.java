@@ -0,0 +1,67 @@
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+// Statement export writes exactly the bytes of the old PrintWriter + Transaction.toCsvRow()
+// export, plain and gzipped, for one account and for all of them
+public class StatementWriterTest {
+    public void testCsvMatchesTheRowByRowExport() throws Exception {
+        Path dir = TestRunner.tempDir();
+        Ledger l = new Ledger();
+        long t = 1_700_000_000_000L; // Nov 2023
+        String[] notes = { null, "", "plain", "with, comma", "\"quoted\"", "ACC100001", "caf\u00e9" };
+        for (int i = 0; i < 3_000; i++) {
+            t += i % 7 == 0 ? 86_400_000L * 13 + 1 : 61_001L * (i % 11); // whole days (across DST changes) and odd millis
+            long amount = i % 5 == 0 ? 1 : 12_345L * i;
+            l.append(TransactionType.values()[i % 5], amount, i % 3 == 0 ? -amount : amount * 7, notes[i % notes.length], t);
+        }
+        l.append(TransactionType.DEPOSIT, Long.MAX_VALUE, Long.MAX_VALUE, null, t + 1);
+        byte[] expected = oldExport(l);
+
+        Path csv = dir.resolve("s.csv"), gz = dir.resolve("s.csv.gz");
+        new StatementWriter().write(l, csv, false);
+        new StatementWriter().write(l, gz, true);
+        Assert.assertEquals("csv", new String(expected, StandardCharsets.UTF_8), Files.readString(csv, StandardCharsets.UTF_8));
+        Assert.assertTrue("csv bytes", Arrays.equals(expected, Files.readAllBytes(csv)));
+        Assert.assertTrue("gzip bytes", Arrays.equals(expected, gunzip(gz)));
+    }
+
+    public void testBankExportsEveryAccount() throws Exception {
+        Path dir = TestRunner.tempDir();
+        Bank bank = new Bank();
+        for (int i = 0; i < 5; i++) {
+            String acc = bank.createAccount("Holder " + i, "1234", new BigDecimal("10.00")).getAccountNumber();
+            for (int k = 0; k < i * 10; k++) bank.deposit(acc, new BigDecimal("0.25"));
+        }
+        Assert.assertEquals("written", 5, bank.exportAllStatements(dir.resolve("all").toString(), true, null));
+        for (Account a : bank.accountsView()) {
+            byte[] expected = oldExport(a.getLedger());
+            Assert.assertTrue("gzip of " + a.getAccountNumber(),
+                    Arrays.equals(expected, gunzip(dir.resolve("all").resolve(a.getAccountNumber() + ".csv.gz"))));
+            Path one = dir.resolve(a.getAccountNumber() + ".csv");
+            Assert.assertTrue("export", bank.exportStatementCsv(a.getAccountNumber(), one.toString()));
+            Assert.assertTrue("csv of " + a.getAccountNumber(), Arrays.equals(expected, Files.readAllBytes(one)));
+        }
+        Assert.assertFalse("unknown account", bank.exportStatementCsv("ACC1", dir.resolve("x.csv").toString()));
+    }
+
+    // What exportStatementCsv wrote before StatementWriter: a PrintWriter line per Transaction
+    private static byte[] oldExport(Ledger l) {
+        StringBuilder sb = new StringBuilder(StatementWriter.HEADER).append(System.lineSeparator());
+        for (Transaction t : l.view()) sb.append(t.toCsvRow()).append(System.lineSeparator());
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] gunzip(Path file) throws Exception {
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(file))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            in.transferTo(out);
+            return out.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+// Runs the tests without a test framework (the build has to work offline): every public void
+// no-argument method whose name starts with "test", each on a fresh instance of its class, in
+// name order. The classes are the *Test classes next to this one, or the ones named on the command
+// line. Prints one line per failure and a summary, and exits 1 if anything failed.
+//
+//   gradle test               (or: java -cp <classes> TestRunner [TestClass ...])
+public class TestRunner {
+    private static final List<Path> tempDirs = new ArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        List<Class<?>> classes = new ArrayList<>();
+        if (args.length == 0) classes.addAll(testClasses());
+        for (String name : args) classes.add(Class.forName(name));
+        int run = 0, failed = 0;
+        long t0 = System.nanoTime();
+        for (Class<?> c : classes) {
+            Method[] methods = c.getMethods();
+            Arrays.sort(methods, Comparator.comparing(Method::getName));
+            for (Method m : methods) {
+                if (!m.getName().startsWith("test") || m.getParameterCount() != 0 || m.getReturnType() != void.class
+                        || Modifier.isStatic(m.getModifiers())) continue;
+                run++;
+                try {
+                    m.invoke(c.getDeclaredConstructor().newInstance());
+                } catch (InvocationTargetException e) {
+                    failed++;
+                    System.out.println("FAIL " + c.getName() + "." + m.getName() + ": " + e.getCause());
+                    e.getCause().printStackTrace(System.out);
+                } finally {
+                    deleteTempDirs();
+                }
+            }
+        }
+        System.out.printf("%d tests, %d failed (%.1f s)%n", run, failed, (System.nanoTime() - t0) / 1e9);
+        System.exit(failed == 0 ? 0 : 1);
+    }
+
+    // Every compiled *Test class in the directory this class was loaded from, by name
+    private static List<Class<?>> testClasses() throws Exception {
+        Path dir = Paths.get(TestRunner.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        List<Class<?>> out = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path p : (Iterable<Path>) files.sorted()::iterator) {
+                String name = p.getFileName().toString();
+                if (name.endsWith("Test.class")) out.add(Class.forName(name.substring(0, name.length() - 6)));
+            }
+        }
+        return out;
+    }
+
+    // A fresh directory, deleted once the current test is over
+    static Path tempDir() throws IOException {
+        Path dir = Files.createTempDirectory("banktest");
+        tempDirs.add(dir);
+        return dir;
+    }
+
+    private static void deleteTempDirs() {
+        for (Path dir : tempDirs) {
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            } catch (IOException e) {
+                System.out.println("cannot delete " + dir + ": " + e);
+            }
+        }
+        tempDirs.clear();
+    }
+}
@@ -0,0 +1,76 @@
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+
+// Batched transfers: a batch is checked after netting and applied whole or not at all (also when
+// a balance would overflow), transferEach applies item by item, and one save commits a batch
+public class TransferBatchTest {
+    private String file;
+    private Bank bank;
+    private String a, b, c;
+
+    private void setUp(String balanceOfC) throws Exception {
+        file = TestRunner.tempDir().resolve("accounts.dat").toString();
+        bank = Bank.load(file);
+        a = bank.createAccount("A", "1234", new BigDecimal("10.00")).getAccountNumber();
+        b = bank.createAccount("B", "1234", null).getAccountNumber();
+        c = bank.createAccount("C", "1234", new BigDecimal(balanceOfC)).getAccountNumber();
+    }
+
+    public void testNettingLetsAnAccountPayWhatItReceivesLater() throws Exception {
+        setUp("0.00");
+        Assert.assertTrue("batch", bank.transferBatch(List.of(
+                request(b, c, "5.00"), // b has nothing yet
+                request(a, b, "10.00"))));
+        Assert.assertEquals("balances", "[0, 500, 500]", balances());
+        Assert.assertTrue("save", bank.save(file));
+        JournalRecoveryTest.close(bank);
+        bank = Bank.load(file);
+        Assert.assertEquals("balances after reload", "[0, 500, 500]", balances());
+        JournalRecoveryTest.close(bank);
+    }
+
+    public void testUncoveredBatchChangesNothing() throws Exception {
+        setUp("0.00");
+        Assert.assertFalse("batch", bank.transferBatch(List.of(
+                request(a, b, "10.00"),
+                request(b, c, "5.00"),
+                request(c, a, "20.00")))); // c only ever gets 5.00
+        Assert.assertEquals("balances", "[1000, 0, 0]", balances());
+        Assert.assertEquals("no ledger entries", 1, bank.getAccount(b).getTransactions().size());
+        JournalRecoveryTest.close(bank);
+    }
+
+    public void testOverflowingBatchChangesNothing() throws Exception {
+        setUp("92233720368547758.00"); // Long.MAX_VALUE - 7 cents
+        Assert.assertFalse("one credit too many", bank.transferBatch(List.of(request(a, c, "0.05"), request(a, c, "0.05"))));
+        Assert.assertFalse("a debit netted against it does not help", bank.transferBatch(List.of(
+                request(a, c, "0.10"), request(c, b, "0.10"))));
+        Assert.assertEquals("balances", "[1000, 0, " + (Long.MAX_VALUE - 7) + "]", balances());
+        Assert.assertTrue("credits that fit", bank.transferBatch(List.of(request(a, c, "0.03"), request(a, c, "0.04"))));
+        Assert.assertEquals("at the limit", Long.MAX_VALUE, bank.getAccount(c).getBalanceCents());
+        JournalRecoveryTest.close(bank);
+    }
+
+    public void testTransferEachAppliesItemByItem() throws Exception {
+        setUp("0.00");
+        boolean[] done = bank.transferEach(List.of(
+                request(b, c, "5.00"), // b is empty at this point
+                request(a, b, "10.00"),
+                request(b, c, "5.00")));
+        Assert.assertEquals("applied", "[false, true, true]", Arrays.toString(done));
+        Assert.assertEquals("balances", "[0, 500, 500]", balances());
+        Assert.assertThrows(IllegalArgumentException.class, () -> bank.transferEach(List.of(request(a, a, "1.00"))));
+        Assert.assertThrows(IllegalArgumentException.class, () -> bank.transferBatch(List.of(request(a, b, "-1.00"))));
+        JournalRecoveryTest.close(bank);
+    }
+
+    private static TransferRequest request(String from, String to, String amount) {
+        return new TransferRequest(from, to, new BigDecimal(amount));
+    }
+
+    private String balances() {
+        return Arrays.toString(new long[] { bank.getAccount(a).getBalanceCents(), bank.getAccount(b).getBalanceCents(),
+                bank.getAccount(c).getBalanceCents() });
+    }
+}
@@ -0,0 +1,58 @@
+import java.math.BigDecimal;
+
+// A transfer that would overflow the payee's balance is refused before anything changes, also
+// across shards, and amounts on hold for a cross-shard transfer cannot be spent or credited twice
+public class TransferTest {
+    private static final BigDecimal NEAR_MAX = new BigDecimal("92233720368547758.00"); // Long.MAX_VALUE - 7 cents
+
+    public void testTransferOverflowingPayeeChangesNothing() throws Exception {
+        String file = TestRunner.tempDir().resolve("accounts.dat").toString();
+        Bank bank = Bank.load(file);
+        String rich = bank.createAccount("Rich", "1234", NEAR_MAX).getAccountNumber();
+        String payer = bank.createAccount("Payer", "1234", new BigDecimal("5.00")).getAccountNumber();
+        Assert.assertFalse("transfer accepted", bank.transfer(payer, rich, new BigDecimal("1.00")));
+        Assert.assertEquals("payer", 500, bank.getAccount(payer).getBalanceCents());
+        Assert.assertEquals("payee", Long.MAX_VALUE - 7, bank.getAccount(rich).getBalanceCents());
+        Assert.assertEquals("payer ledger", 1, bank.getAccount(payer).getTransactions().size());
+
+        Assert.assertTrue("transfer that fits", bank.transfer(payer, rich, new BigDecimal("0.07")));
+        Assert.assertEquals("payee at the limit", Long.MAX_VALUE, bank.getAccount(rich).getBalanceCents());
+        bank.save(file);
+        JournalRecoveryTest.close(bank);
+
+        Bank reloaded = Bank.load(file);
+        Assert.assertEquals("payer after reload", 493, reloaded.getAccount(payer).getBalanceCents());
+        Assert.assertEquals("payee after reload", Long.MAX_VALUE, reloaded.getAccount(rich).getBalanceCents());
+        JournalRecoveryTest.close(reloaded);
+    }
+
+    public void testCrossShardTransferOverflowingPayeeChangesNothing() throws Exception {
+        String file = TestRunner.tempDir().resolve("accounts.dat").toString();
+        ShardedBank bank = ShardedBank.open(file, 2);
+        String rich = bank.createAccount("Rich", "1234", NEAR_MAX).getAccountNumber(); // round-robin: shard 0, then 1
+        String payer = bank.createAccount("Payer", "1234", new BigDecimal("5.00")).getAccountNumber();
+        Assert.assertTrue("accounts on different shards", bank.shardOf(rich) != bank.shardOf(payer));
+        Assert.assertFalse("transfer accepted", bank.transfer(payer, rich, new BigDecimal("1.00")));
+        Assert.assertEquals("payer", 500, bank.getAccount(payer).getBalanceCents());
+        Assert.assertEquals("payee", Long.MAX_VALUE - 7, bank.getAccount(rich).getBalanceCents());
+        bank.close();
+    }
+
+    public void testHeldAmountsCannotBeSpentTwice() {
+        Bank bank = new Bank();
+        String payer = bank.createAccount("Payer", "1234", new BigDecimal("5.00")).getAccountNumber();
+        String rich = bank.createAccount("Rich", "1234", NEAR_MAX).getAccountNumber();
+        Account a = bank.getAccount(payer), r = bank.getAccount(rich);
+        a.hold(300, 0); // as a cross-shard transfer waiting for its log
+        r.hold(0, 5);
+        Assert.assertFalse("withdraw past the hold", bank.withdraw(payer, new BigDecimal("2.01")));
+        Assert.assertFalse("transfer past the hold", bank.transfer(payer, rich, new BigDecimal("0.03")));
+        Assert.assertThrows(ArithmeticException.class, () -> bank.deposit(rich, new BigDecimal("0.03")));
+        Assert.assertFalse("close while held", bank.closeAccount(payer));
+        Assert.assertTrue("withdraw what is free", bank.withdraw(payer, new BigDecimal("2.00")));
+        a.release(300, 0);
+        r.release(0, 5);
+        Assert.assertTrue("transfer once released", bank.transfer(payer, rich, new BigDecimal("0.03")));
+        Assert.assertEquals("payee", Long.MAX_VALUE - 4, r.getBalanceCents());
+    }
+}